@@ -0,0 +1,52 @@
+package enigma;
+
+/** A key found by a search, with the score of its trial decryption.
+ *  Candidates are ordered by score and then by key, so that of two
+ *  candidates with equal scores the one with the lower key is better.
+ *  @author jordanta
+ */
+final class Candidate implements Comparable<Candidate> {
+
+    /** A candidate for key number KEY, scoring SCORE. */
+    Candidate(long key, double score) {
+        _key = key;
+        _score = score;
+    }
+
+    /** Return my key number. */
+    long key() {
+        return _key;
+    }
+
+    /** Return my score. */
+    double score() {
+        return _score;
+    }
+
+    @Override
+    public int compareTo(Candidate other) {
+        int c = Double.compare(_score, other._score);
+        return c != 0 ? c : Long.compare(other._key, _key);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Candidate && compareTo((Candidate) obj) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(_key) ^ Double.hashCode(_score);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Candidate %d (%.6f)", _key, _score);
+    }
+
+    /** Key number in its KeySpace. */
+    private final long _key;
+
+    /** Score of the trial decryption under _key. */
+    private final double _score;
+}
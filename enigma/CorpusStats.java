@@ -0,0 +1,591 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** Statistics of a corpus of text over the alphabet of a machine:
+ *  character frequencies, index of coincidence, bigram and trigram
+ *  counts, and the index of coincidence of each message.  A message is
+ *  a run of lines ended by a settings line (one starting with '*'), a
+ *  blank line, or the end of a file; n-grams do not cross messages, but
+ *  do cross the blanks and line breaks within one.  Characters not in
+ *  the alphabet are counted but otherwise ignored.
+ *
+ *  Files are read in chunks of whole lines on several threads, each
+ *  thread counting into its own arrays.  The counts are merged at the
+ *  end, along with the n-grams and messages that straddle chunks.
+ *  @author jordanta
+ */
+public final class CorpusStats {
+
+    /** Nominal bytes per chunk. */
+    static final int CHUNK = 1 << 23;
+
+    /** Largest number of trigram counters kept per thread. */
+    static final long MAX_TRIGRAMS = 1 << 21;
+
+    /** Default number of n-grams of each length reported. */
+    static final int DEFAULT_TOP = 26;
+
+    /** Bytes read at a time while looking for line ends. */
+    private static final int SCAN = 1 << 16;
+
+    /** Print, as JSON, the statistics of the files named by ARGS[1],
+     *  ..., over the alphabet of the configuration in ARGS[0].  Options
+     *  --threads=N and --top=N give the number of threads and of
+     *  bigrams and trigrams reported. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--threads=(\\d+){0,1} --top=(\\d+){0,1} "
+                                + "--=(.*){2,}", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.CorpusStats [--threads=N] "
+                            + "[--top=N] CONFIG FILE...");
+            }
+            List<String> files = options.get("--");
+            Machine mach = Main.readConfig(ToolUtils.getInput(files.get(0)));
+            int threads = Integer.parseInt(
+                ToolUtils.option(options, "--threads",
+                       "" + Runtime.getRuntime().availableProcessors()));
+            CorpusStats stats = new CorpusStats(mach.alphabet());
+            for (String file : files.subList(1, files.size())) {
+                stats.scan(Paths.get(file), threads, CHUNK);
+            }
+            System.out.print(stats.report(Integer.parseInt(
+                ToolUtils.option(options, "--top", "" + DEFAULT_TOP))));
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Empty statistics over ALPHA. */
+    CorpusStats(Alphabet alpha) {
+        _alphabet = alpha;
+        _size = alpha.size();
+        int limit = 0;
+        for (int c = 0; c < _size; c += 1) {
+            limit = Math.max(limit, alpha.toChar(c) + 1);
+        }
+        _index = new int[limit];
+        Arrays.fill(_index, -1);
+        for (int c = 0; c < _size; c += 1) {
+            _index[alpha.toChar(c)] = c;
+        }
+        _total = new Counts(_size);
+    }
+
+    /** Add the statistics of FILE, read in chunks of about CHUNK bytes on
+     *  THREADS threads. */
+    void scan(Path file, int threads, int chunk) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel ch = FileChannel.open(file,
+                                               StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(ch, chunk);
+            Piece[] pieces = new Piece[bounds.length - 1];
+            AtomicInteger next = new AtomicInteger();
+            List<Future<Counts>> tasks = new ArrayList<>();
+            for (int t = 0; t < threads; t += 1) {
+                tasks.add(pool.submit(() -> {
+                    Counts counts = new Counts(_size);
+                    CharsetDecoder decoder = StandardCharsets.UTF_8
+                        .newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                    for (int i = next.getAndIncrement(); i < pieces.length;
+                         i = next.getAndIncrement()) {
+                        ByteBuffer bytes = ByteBuffer.allocate(
+                            (int) (bounds[i + 1] - bounds[i]));
+                        while (bytes.hasRemaining()) {
+                            if (ch.read(bytes, bounds[i] + bytes.position())
+                                < 0) {
+                                throw new IOException("file shrank");
+                            }
+                        }
+                        bytes.flip();
+                        CharBuffer text = decoder.decode(bytes);
+                        pieces[i] = count(text.array(), text.position(),
+                                          text.limit(), counts);
+                    }
+                    return counts;
+                }));
+            }
+            for (Future<Counts> task : tasks) {
+                _total.add(task.get());
+            }
+            Fragment carry = null;
+            for (Piece piece : pieces) {
+                carry = join(carry, piece.head);
+                if (piece.closed) {
+                    _total.finish(carry);
+                    carry = piece.tail;
+                }
+            }
+            _total.finish(carry);
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        } catch (ExecutionException excp) {
+            throw error("could not read %s: %s", file,
+                        excp.getCause().getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("scan interrupted");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Add the statistics of TEXT, as if it were a file. */
+    void scan(String text) {
+        char[] chars = text.toCharArray();
+        Piece piece = count(chars, 0, chars.length, _total);
+        _total.finish(piece.head);
+        if (piece.closed) {
+            _total.finish(piece.tail);
+        }
+    }
+
+    /** Return the offsets at which the chunks of CH's file start, each
+     *  after a line end and about CHUNK bytes apart, followed by the
+     *  file's size. */
+    private static long[] chunkBounds(FileChannel ch, int chunk)
+        throws IOException {
+        long size = ch.size();
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        ByteBuffer buf = ByteBuffer.allocate(SCAN);
+        long pos = chunk;
+        while (pos < size) {
+            long bound = -1;
+            for (long p = pos - 1; bound < 0 && p < size; p += SCAN) {
+                buf.clear();
+                int n = ch.read(buf, p);
+                for (int i = 0; i < n; i += 1) {
+                    if (buf.get(i) == '\n') {
+                        bound = p + i + 1;
+                        break;
+                    }
+                }
+            }
+            if (bound < 0 || bound >= size) {
+                break;
+            }
+            bounds.add(bound);
+            pos = bound + chunk;
+        }
+        bounds.add(size);
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    /** Count the characters and n-grams of TEXT[FROM .. TO-1], which
+     *  starts a line, into COUNTS, and return its leading and trailing
+     *  message fragments. */
+    private Piece count(char[] text, int from, int to, Counts counts) {
+        Piece piece = new Piece();
+        Fragment cur = new Fragment(_size);
+        for (int i = from; i < to;) {
+            int end = i;
+            while (end < to && text[end] != '\n') {
+                end += 1;
+            }
+            int first = i;
+            while (first < end && Character.isWhitespace(text[first])) {
+                first += 1;
+            }
+            if (first == end || text[first] == '*') {
+                if (!piece.closed) {
+                    piece.head = cur;
+                    piece.closed = true;
+                    cur = new Fragment(_size);
+                } else {
+                    counts.finish(cur);
+                    cur.clear();
+                }
+            } else {
+                for (int k = first; k < end; k += 1) {
+                    char ch = text[k];
+                    int c = ch < _index.length ? _index[ch] : -1;
+                    if (c >= 0) {
+                        counts.add(cur, c);
+                    } else if (!Character.isWhitespace(ch)) {
+                        counts.other += 1;
+                    }
+                }
+            }
+            i = end + 1;
+        }
+        if (piece.closed) {
+            piece.tail = cur;
+        } else {
+            piece.head = cur;
+        }
+        return piece;
+    }
+
+    /** Return fragment A followed by fragment B of the same message,
+     *  counting into my totals the n-grams that straddle them.  A may
+     *  be null; either may be modified. */
+    private Fragment join(Fragment a, Fragment b) {
+        if (a == null || a.length == 0) {
+            return b;
+        }
+        if (b.length == 0) {
+            return a;
+        }
+        int size = _size;
+        _total.bigrams[a.last1 * size + b.first0] += 1;
+        if (_total.trigrams != null) {
+            if (a.length >= 2) {
+                _total.trigrams[(a.last2 * size + a.last1) * size
+                                + b.first0] += 1;
+            }
+            if (b.length >= 2) {
+                _total.trigrams[(a.last1 * size + b.first0) * size
+                                + b.first1] += 1;
+            }
+        }
+        for (int c = 0; c < size; c += 1) {
+            a.counts[c] += b.counts[c];
+        }
+        if (a.length == 1) {
+            a.first1 = b.first0;
+        }
+        a.last2 = b.length >= 2 ? b.last2 : a.last1;
+        a.last1 = b.last1;
+        a.length += b.length;
+        return a;
+    }
+
+    /** Return the number of characters in my alphabet counted. */
+    long chars() {
+        return _total.chars;
+    }
+
+    /** Return the number of other non-blank characters counted. */
+    long other() {
+        return _total.other;
+    }
+
+    /** Return the number of occurrences of C, an alphabet index. */
+    long count(int c) {
+        return _total.freq[c];
+    }
+
+    /** Return the number of occurrences of bigram A B (alphabet
+     *  indices). */
+    long bigram(int a, int b) {
+        return _total.bigrams[a * _size + b];
+    }
+
+    /** Return the number of occurrences of trigram A B C (alphabet
+     *  indices), or -1 if trigrams are not counted for my alphabet. */
+    long trigram(int a, int b, int c) {
+        if (_total.trigrams == null) {
+            return -1;
+        }
+        return _total.trigrams[(a * _size + b) * _size + c];
+    }
+
+    /** Return the natural log of the probability of each trigram A B C,
+     *  at (A * size + B) * size + C, estimated from the trigrams counted
+     *  with add-one smoothing. */
+    float[] trigramLogProbs() {
+        if (_total.trigrams == null) {
+            throw error("trigrams are not counted for this alphabet");
+        }
+        long[] counts = _total.trigrams;
+        double total = counts.length;
+        for (long n : counts) {
+            total += n;
+        }
+        float[] result = new float[counts.length];
+        for (int i = 0; i < counts.length; i += 1) {
+            result[i] = (float) Math.log((counts[i] + 1) / total);
+        }
+        return result;
+    }
+
+    /** Return the number of non-empty messages counted. */
+    long messages() {
+        return _total.messages;
+    }
+
+    /** Return the index of coincidence of all the text counted. */
+    double ioc() {
+        return ioc(_total.freq, _total.chars);
+    }
+
+    /** Return the index of coincidence of text with N characters, with
+     *  COUNTS[C] occurrences of each C. */
+    static double ioc(long[] counts, long n) {
+        if (n < 2) {
+            return 0.0;
+        }
+        double sum = 0;
+        for (long f : counts) {
+            sum += (double) f * (f - 1);
+        }
+        return sum / ((double) n * (n - 1));
+    }
+
+    /** Return the mean index of coincidence of the messages of at least
+     *  two characters. */
+    double meanMessageIoc() {
+        return _total.scored == 0 ? 0.0 : _total.iocSum / _total.scored;
+    }
+
+    /** Return my statistics as a JSON object, with the TOP commonest
+     *  bigrams and trigrams. */
+    String report(int top) {
+        StringBuilder out = new StringBuilder("{\n");
+        out.append(String.format("  \"chars\": %d,%n", chars()))
+            .append(String.format("  \"other\": %d,%n", other()))
+            .append(String.format("  \"ioc\": %.6f,%n", ioc()))
+            .append(String.format("  \"messages\": %d,%n", messages()))
+            .append(String.format("  \"messageIoc\": {\"count\": %d, "
+                                  + "\"mean\": %.6f, \"min\": %.6f, "
+                                  + "\"max\": %.6f},%n", _total.scored,
+                                  meanMessageIoc(),
+                                  _total.scored == 0 ? 0.0 : _total.iocMin,
+                                  _total.scored == 0 ? 0.0 : _total.iocMax));
+        out.append("  \"frequencies\": ");
+        appendCounts(out, _total.freq, _size, 1);
+        out.append(",\n  \"bigrams\": ");
+        appendCounts(out, _total.bigrams, top, 2);
+        if (_total.trigrams != null) {
+            out.append(",\n  \"trigrams\": ");
+            appendCounts(out, _total.trigrams, top, 3);
+        }
+        return out.append("\n}\n").toString();
+    }
+
+    /** Append to OUT, as a JSON object, the TOP largest of COUNTS, the
+     *  counts of the n-grams of length N, commonest first.  Only
+     *  n-grams that occur are included when fewer than all are. */
+    private void appendCounts(StringBuilder out, long[] counts, int top,
+                              int n) {
+        long len = counts.length;
+        long[] order = new long[counts.length];
+        for (int i = 0; i < counts.length; i += 1) {
+            order[i] = counts[i] * len + (len - 1 - i);
+        }
+        Arrays.sort(order);
+        out.append('{');
+        for (int j = 0; j < Math.min(top, order.length); j += 1) {
+            long key = order[order.length - 1 - j];
+            int i = (int) (len - 1 - key % len);
+            if (counts[i] == 0 && top < counts.length) {
+                break;
+            }
+            if (j > 0) {
+                out.append(", ");
+            }
+            out.append('"');
+            for (int k = n - 1; k >= 0; k -= 1) {
+                appendChar(out, _alphabet.toChar(i / pow(_size, k)
+                                                 % _size));
+            }
+            out.append("\": ").append(counts[i]);
+        }
+        out.append('}');
+    }
+
+    /** Return B to the power E. */
+    private static int pow(int b, int e) {
+        int r = 1;
+        for (int i = 0; i < e; i += 1) {
+            r *= b;
+        }
+        return r;
+    }
+
+    /** Append CH to OUT, escaped for a JSON string. */
+    private static void appendChar(StringBuilder out, char ch) {
+        if (ch == '"' || ch == '\\') {
+            out.append('\\').append(ch);
+        } else if (ch < ' ') {
+            out.append(String.format("\\u%04x", (int) ch));
+        } else {
+            out.append(ch);
+        }
+    }
+
+    /** Part of a message: its character counts and length, and its first
+     *  and last two characters. */
+    private static final class Fragment {
+
+        /** An empty fragment over an alphabet of SIZE characters. */
+        Fragment(int size) {
+            counts = new long[size];
+        }
+
+        /** Make me empty. */
+        void clear() {
+            Arrays.fill(counts, 0);
+            length = 0;
+        }
+
+        /** Count of each character. */
+        final long[] counts;
+
+        /** Number of characters. */
+        long length;
+
+        /** First two characters, if there are that many. */
+        int first0, first1;
+
+        /** Second last and last characters, if there are that many. */
+        int last2, last1;
+    }
+
+    /** The message fragments of one chunk that may continue in the
+     *  chunks before and after it. */
+    private static final class Piece {
+
+        /** Text before the first end of a message, or all the text if
+         *  CLOSED is false. */
+        Fragment head;
+
+        /** Text after the last end of a message. */
+        Fragment tail;
+
+        /** True iff a message ends in the chunk. */
+        boolean closed;
+    }
+
+    /** Counters kept by one thread. */
+    private static final class Counts {
+
+        /** Empty counters for an alphabet of SIZE characters. */
+        Counts(int size) {
+            _size = size;
+            freq = new long[size];
+            bigrams = new long[size * size];
+            long tri = (long) size * size * size;
+            trigrams = tri <= MAX_TRIGRAMS ? new long[(int) tri] : null;
+        }
+
+        /** Count C, the next character of fragment CUR. */
+        void add(Fragment cur, int c) {
+            chars += 1;
+            freq[c] += 1;
+            cur.counts[c] += 1;
+            if (cur.length == 0) {
+                cur.first0 = c;
+            } else {
+                if (cur.length == 1) {
+                    cur.first1 = c;
+                }
+                bigrams[cur.last1 * _size + c] += 1;
+                if (cur.length >= 2 && trigrams != null) {
+                    trigrams[(cur.last2 * _size + cur.last1) * _size + c]
+                        += 1;
+                }
+            }
+            cur.last2 = cur.last1;
+            cur.last1 = c;
+            cur.length += 1;
+        }
+
+        /** Record complete message MSG, if it is not null or empty. */
+        void finish(Fragment msg) {
+            if (msg == null || msg.length == 0) {
+                return;
+            }
+            messages += 1;
+            if (msg.length >= 2) {
+                double ioc = ioc(msg.counts, msg.length);
+                iocSum += ioc;
+                iocMin = Math.min(iocMin, ioc);
+                iocMax = Math.max(iocMax, ioc);
+                scored += 1;
+            }
+        }
+
+        /** Add OTHER's counts to mine. */
+        void add(Counts other) {
+            chars += other.chars;
+            this.other += other.other;
+            addAll(freq, other.freq);
+            addAll(bigrams, other.bigrams);
+            if (trigrams != null) {
+                addAll(trigrams, other.trigrams);
+            }
+            messages += other.messages;
+            scored += other.scored;
+            iocSum += other.iocSum;
+            iocMin = Math.min(iocMin, other.iocMin);
+            iocMax = Math.max(iocMax, other.iocMax);
+        }
+
+        /** Add each TO[I] += FROM[I]. */
+        private static void addAll(long[] to, long[] from) {
+            for (int i = 0; i < to.length; i += 1) {
+                to[i] += from[i];
+            }
+        }
+
+        /** Size of the alphabet. */
+        private final int _size;
+
+        /** Number of characters in the alphabet, and of others. */
+        long chars, other;
+
+        /** Occurrences of each character. */
+        final long[] freq;
+
+        /** Occurrences of each bigram A B, at A * size + B. */
+        final long[] bigrams;
+
+        /** Occurrences of each trigram A B C, at (A * size + B) * size
+         *  + C, or null if there are too many trigrams to count. */
+        final long[] trigrams;
+
+        /** Number of complete messages, and of those with at least two
+         *  characters. */
+        long messages, scored;
+
+        /** Sum, minimum and maximum of the indices of coincidence of the
+         *  scored messages. */
+        double iocSum, iocMin = Double.POSITIVE_INFINITY,
+            iocMax = Double.NEGATIVE_INFINITY;
+    }
+
+    /** The alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Alphabet index of each character, or -1. */
+    private final int[] _index;
+
+    /** Counts of everything scanned. */
+    private final Counts _total;
+}
@@ -0,0 +1,97 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the CorpusStats class.
+ *  @author jordanta
+ */
+public class CorpusStatsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Directory for corpus files. */
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /* ***** TESTING UTILITIES ***** */
+
+    private static final Alphabet AZ = new Alphabet(TestUtils.UPPER_STRING);
+
+    /** Return a random corpus of about LINES lines, in messages separated
+     *  by settings lines and blank lines, with groups of five letters and
+     *  some characters outside the alphabet. */
+    static String corpus(int lines, long seed) {
+        Random rand = new Random(seed);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i += 1) {
+            switch (rand.nextInt(8)) {
+            case 0:
+                text.append("* B BETA III IV I AXLE (YF)\n");
+                break;
+            case 1:
+                text.append("\n");
+                break;
+            default:
+                int groups = rand.nextInt(6);
+                for (int g = 0; g < groups; g += 1) {
+                    for (int k = 0; k < 5; k += 1) {
+                        text.append((char) ('A' + rand.nextInt(26)));
+                    }
+                    text.append(rand.nextInt(20) == 0 ? ", " : " ");
+                }
+                text.append("\n");
+            }
+        }
+        return text.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testCounts() {
+        CorpusStats stats = new CorpusStats(AZ);
+        stats.scan("* B BETA III IV I AXLE\nHELLO WOR\nLD!\n\nAAB\n");
+        assertEquals(13, stats.chars());
+        assertEquals(1, stats.other());
+        assertEquals(2, stats.messages());
+        assertEquals(3, stats.count(AZ.toInt('L')));
+        assertEquals(1, stats.bigram(AZ.toInt('R'), AZ.toInt('L')));
+        assertEquals(0, stats.bigram(AZ.toInt('D'), AZ.toInt('A')));
+        assertEquals(1, stats.trigram(AZ.toInt('O'), AZ.toInt('W'),
+                                      AZ.toInt('O')));
+        assertEquals((3 * 2 + 2 * 1 + 2 * 1) / (13.0 * 12), stats.ioc(),
+                     1e-12);
+        assertEquals((3 * 2 + 2 * 1) / (10.0 * 9) / 2 + 2 / 6.0 / 2,
+                     stats.meanMessageIoc(), 1e-12);
+    }
+
+    @Test
+    public void testChunks() throws IOException {
+        String text = corpus(3000, 61);
+        Path file = tmp.getRoot().toPath().resolve("corpus");
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        CorpusStats whole = new CorpusStats(AZ);
+        whole.scan(text);
+        CorpusStats chunked = new CorpusStats(AZ);
+        chunked.scan(file, 3, 37);
+        assertEquals(whole.report(26 * 26 * 26),
+                     chunked.report(26 * 26 * 26));
+        assertTrue(whole.messages() > 100);
+        CorpusStats single = new CorpusStats(AZ);
+        single.scan(file, 1, 1 << 20);
+        assertEquals(whole.report(10), single.report(10));
+    }
+
+}
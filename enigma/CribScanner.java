@@ -0,0 +1,227 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** Finds where cribs (guessed plaintexts) may lie in ciphertexts.  An
+ *  Enigma machine never takes a letter to itself, so a crib cannot be
+ *  placed at any offset where one of its letters lines up with the same
+ *  letter of the ciphertext.  For each message, the positions of each
+ *  letter are kept as a bitset packed in longs; the offsets ruled out
+ *  for a crib are then the union, over the crib's letters, of the
+ *  bitset of that letter shifted back by its position in the crib, so
+ *  that 64 offsets are tested by each word operation.  Files are
+ *  scanned in parallel.
+ *  @author jordanta
+ */
+public final class CribScanner {
+
+    /** Print, for each crib in the file ARGS[1] (one per line) and each
+     *  message in the files ARGS[2], ..., whose alphabet is given by the
+     *  configuration in ARGS[0], one line: the message (file:line of its
+     *  first line), the crib, the number of offsets at which the crib
+     *  may lie, and those offsets.  A message is a run of non-blank lines
+     *  of ciphertext, or of lines after a settings line; settings lines
+     *  themselves are skipped.  Option --threads=N gives the number of
+     *  threads. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--threads=(\\d+){0,1} --=(.*){3,}", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.CribScanner [--threads=N] "
+                            + "CONFIG CRIBS FILE...");
+            }
+            List<String> files = options.get("--");
+            List<String> cribs = new ArrayList<>();
+            Scanner cribInput = ToolUtils.getInput(files.get(1));
+            while (cribInput.hasNextLine()) {
+                String crib = ToolUtils.letters(cribInput.nextLine());
+                if (!crib.isEmpty()) {
+                    cribs.add(crib);
+                }
+            }
+            CribScanner scanner = new CribScanner(
+                Main.readConfig(ToolUtils.getInput(files.get(0))).alphabet(),
+                cribs);
+            int threads = Integer.parseInt(
+                ToolUtils.option(options, "--threads",
+                       "" + Runtime.getRuntime().availableProcessors()));
+            ExecutorService pool =
+                Executors.newFixedThreadPool(threads, r -> {
+                        Thread t = new Thread(r, "cribs");
+                        t.setDaemon(true);
+                        return t;
+                    });
+            List<Future<String>> results = new ArrayList<>();
+            for (String file : files.subList(2, files.size())) {
+                results.add(pool.submit(
+                    () -> scanner.scan(file, ToolUtils.getInput(file))));
+            }
+            for (Future<String> result : results) {
+                System.out.print(result.get());
+            }
+            return;
+        } catch (ExecutionException excp) {
+            if (!(excp.getCause() instanceof EnigmaException)) {
+                throw new IllegalStateException("crib scan failed",
+                                                excp.getCause());
+            }
+            System.err.printf("Error: %s%n", excp.getCause().getMessage());
+        } catch (InterruptedException excp) {
+            System.err.printf("Error: interrupted%n");
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A scanner for CRIBS in messages in ALPHABET. */
+    CribScanner(Alphabet alphabet, List<String> cribs) {
+        if (alphabet.size() > ToolUtils.BYTE_ALPHABET) {
+            throw error("alphabet too large for crib scanning");
+        }
+        _alphabet = alphabet;
+        _names = cribs;
+        _cribs = new byte[cribs.size()][];
+        for (int i = 0; i < _cribs.length; i += 1) {
+            _cribs[i] = indices(cribs.get(i), "cribs", i + 1);
+            if (_cribs[i].length == 0) {
+                throw error("cribs:%d: empty crib", i + 1);
+            }
+        }
+    }
+
+    /** Return the report, as printed by main, for the messages read from
+     *  INPUT, naming each by SOURCE and its first line number. */
+    String scan(String source, Scanner input) {
+        StringBuilder result = new StringBuilder();
+        StringBuilder text = new StringBuilder();
+        int lineNum = 0, first = 1;
+        while (true) {
+            String line = input.hasNextLine() ? input.nextLine() : null;
+            lineNum += 1;
+            if (line == null || line.isBlank() || line.startsWith("*")) {
+                if (text.length() > 0) {
+                    report(result, source + ":" + first,
+                           indices(text.toString(), source, first));
+                    text.setLength(0);
+                }
+                if (line == null) {
+                    return result.toString();
+                }
+                first = lineNum + 1;
+            } else {
+                text.append(line);
+            }
+        }
+    }
+
+    /** Append to OUT the report for each crib in the message TEXT (as
+     *  alphabet indices) named NAME. */
+    private void report(StringBuilder out, String name, byte[] text) {
+        long[][] bits = letterBits(text, _alphabet.size());
+        for (int i = 0; i < _cribs.length; i += 1) {
+            long[] places = placements(bits, text.length, _cribs[i]);
+            int count = 0;
+            for (long w : places) {
+                count += Long.bitCount(w);
+            }
+            out.append(name).append('\t').append(_names.get(i))
+                .append('\t').append(count).append('\t');
+            String sep = "";
+            for (int w = 0; w < places.length; w += 1) {
+                for (long b = places[w]; b != 0; b &= b - 1) {
+                    out.append(sep)
+                        .append(w * Long.SIZE + Long.numberOfTrailingZeros(b));
+                    sep = " ";
+                }
+            }
+            out.append('\n');
+        }
+    }
+
+    /** Return the alphabet indices of the letters of TEXT, ignoring
+     *  blanks; any other character is an error reported with SOURCE and
+     *  LINE. */
+    private byte[] indices(String text, String source, int line) {
+        byte[] result = new byte[text.length()];
+        int n = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            char ch = text.charAt(i);
+            if (!Character.isWhitespace(ch)) {
+                int c = _alphabet.toInt(ch);
+                if (c < 0) {
+                    throw error("%s:%d: character '%c' not in alphabet",
+                                source, line, ch);
+                }
+                result[n] = (byte) c;
+                n += 1;
+            }
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    /** Return, for each of the SIZE letters C, a bitset whose bit I is
+     *  set iff TEXT[I] (an alphabet index) is C. */
+    static long[][] letterBits(byte[] text, int size) {
+        int words = (text.length + Long.SIZE - 1) / Long.SIZE;
+        long[][] result = new long[size][words];
+        for (int i = 0; i < text.length; i += 1) {
+            result[text[i] & 0xff][i >>> 6] |= 1L << i;
+        }
+        return result;
+    }
+
+    /** Return a bitset whose bit I is set iff CRIB (as alphabet indices)
+     *  may lie at offset I of a text of length LENGTH whose letters are
+     *  given by BITS (see letterBits): that is, iff the crib fits there
+     *  and no letter of it equals the letter of the text it covers. */
+    static long[] placements(long[][] bits, int length, byte[] crib) {
+        int words = (length + Long.SIZE - 1) / Long.SIZE;
+        long[] result = new long[words];
+        int last = length - crib.length;
+        if (last < 0) {
+            return result;
+        }
+        for (int j = 0; j < crib.length; j += 1) {
+            long[] src = bits[crib[j] & 0xff];
+            int shift = j & (Long.SIZE - 1), skip = j >>> 6;
+            for (int w = 0; w + skip < words; w += 1) {
+                long v = src[w + skip] >>> shift;
+                if (shift != 0 && w + skip + 1 < words) {
+                    v |= src[w + skip + 1] << (Long.SIZE - shift);
+                }
+                result[w] |= v;
+            }
+        }
+        for (int w = 0; w < words; w += 1) {
+            result[w] = ~result[w];
+        }
+        int lastWord = last >>> 6;
+        result[lastWord] &= -1L >>> (Long.SIZE - 1 - (last & 63));
+        for (int w = lastWord + 1; w < words; w += 1) {
+            result[w] = 0;
+        }
+        return result;
+    }
+
+    /** Alphabet of the messages. */
+    private final Alphabet _alphabet;
+
+    /** The cribs as given. */
+    private final List<String> _names;
+
+    /** The cribs as alphabet indices. */
+    private final byte[][] _cribs;
+}
@@ -0,0 +1,72 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Scanner;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the CribScanner class.
+ *  @author jordanta
+ */
+public class CribScannerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testPlacements() {
+        Random rand = new Random(49);
+        for (int trial = 0; trial < 200; trial += 1) {
+            byte[] text = new byte[rand.nextInt(300)];
+            byte[] crib = new byte[1 + rand.nextInt(80)];
+            for (int i = 0; i < text.length; i += 1) {
+                text[i] = (byte) rand.nextInt(4);
+            }
+            for (int i = 0; i < crib.length; i += 1) {
+                crib[i] = (byte) rand.nextInt(4);
+            }
+            long[] places =
+                CribScanner.placements(CribScanner.letterBits(text, 4),
+                                       text.length, crib);
+            for (int off = 0; off < places.length * Long.SIZE; off += 1) {
+                boolean fits = off + crib.length <= text.length;
+                for (int j = 0; fits && j < crib.length; j += 1) {
+                    fits = text[off + j] != crib[j];
+                }
+                assertEquals("offset " + off, fits,
+                             (places[off >>> 6] >>> off & 1) != 0);
+            }
+        }
+    }
+
+    @Test
+    public void testScan() {
+        String crib = PLAIN.substring(37, 52);
+        String corpus = message("* B I II DG (AT)", PLAIN) + "\n"
+            + "HELLO WORLD\n";
+        CribScanner scanner = new CribScanner(smallMachine().alphabet(),
+                                              Arrays.asList(crib, "QQ"));
+        String[] lines = scanner.scan("c", new Scanner(corpus)).split("\n");
+        assertEquals(4, lines.length);
+        String[] first = lines[0].split("\t");
+        assertEquals("c:2", first[0]);
+        assertEquals(crib, first[1]);
+        assertTrue(Arrays.asList(first[3].split(" ")).contains("37"));
+        assertTrue(Integer.parseInt(first[2])
+                   < PLAIN.length() - crib.length() + 1);
+        String[] last = lines[3].split("\t", -1);
+        assertEquals("c:", last[0].substring(0, 2));
+        assertEquals("QQ", last[1]);
+        assertEquals("9", last[2]);
+    }
+
+}
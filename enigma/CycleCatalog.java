@@ -0,0 +1,460 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** A catalog of the cycle structures of the composite permutations
+ *  formed by an enciphered doubled message key, in the manner of
+ *  Rejewski.  If A1 .. A6 are the machine's substitutions at the first six
+ *  keypresses from some start position, the characteristic of that
+ *  position is the cycle structure (the multiset of cycle lengths) of
+ *  each of A1A4, A2A5 and A3A6.  It does not depend on the plugboard,
+ *  which only conjugates these permutations, so one catalog serves every
+ *  plugboard setting.
+ *
+ *  A catalog file maps each characteristic to the keys (numbered as in
+ *  KeySpace) having it.  It holds a header (magic number and version,
+ *  ints; fingerprint of the machine, long; number of characteristics,
+ *  int; number of keys, long), then for each characteristic, in
+ *  increasing order of its 64-bit hash, the hash and the index and count
+ *  of its keys (longs), and then the keys themselves (longs).  The
+ *  header and table are memory-mapped when a catalog is opened, so a
+ *  lookup is a binary search plus one read of the matching keys.
+ *  @author jordanta
+ */
+final class CycleCatalog implements Closeable {
+
+    /** First four bytes of a catalog file. */
+    static final int MAGIC = 0x454e4359;
+
+    /** Version of the file format. */
+    static final int VERSION = 1;
+
+    /** Number of keypresses that make up the doubled message key. */
+    static final int INDICATOR = 6;
+
+    /** Size in bytes of the header. */
+    static final int HEADER = 2 * Integer.BYTES + 2 * Long.BYTES
+        + Integer.BYTES;
+
+    /** Size in bytes of one entry of the characteristic table. */
+    static final int ENTRY = 3 * Long.BYTES;
+
+    /** Build or consult a catalog as specified by ARGS.  With --build,
+     *  ARGS[0] names a configuration file and ARGS[1] the catalog to
+     *  write.  Otherwise ARGS[2] gives a characteristic, in the form
+     *  printed by signature (for example, "13 13/10 10 3 3/9 9 4 4"),
+     *  or --indicators names a file of doubled message keys (one per
+     *  line, as enciphered), and the settings lines of the matching keys
+     *  are printed. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--build --threads=(\\d+){0,1} "
+                                + "--indicators=(.+){0,1} --=(.*){2,3}",
+                                args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.CycleCatalog --build "
+                            + "[--threads=N] CONFIG CATALOG%n"
+                            + "       java enigma.CycleCatalog "
+                            + "[--indicators=FILE] CONFIG CATALOG "
+                            + "[CHARACTERISTIC]");
+            }
+            List<String> files = options.get("--");
+            Machine mach = Main.readConfig(ToolUtils.getInput(files.get(0)));
+            Path file = Paths.get(files.get(1));
+            if (options.contains("--build")) {
+                build(mach, file, Integer.parseInt(
+                    ToolUtils.option(options, "--threads",
+                       "" + Runtime.getRuntime().availableProcessors())));
+                return;
+            }
+            String signature;
+            if (options.contains("--indicators")) {
+                signature = signature(
+                    Files.readAllLines(
+                        Paths.get(options.getLast("--indicators"))),
+                    mach.alphabet());
+            } else if (files.size() == 3) {
+                signature = files.get(2);
+            } else {
+                throw error("no characteristic given");
+            }
+            KeySpace keys = new KeySpace(mach);
+            try (CycleCatalog catalog = new CycleCatalog(file, mach)) {
+                for (long key : catalog.lookup(signature)) {
+                    System.out.println(keys.settingsLine(key, ""));
+                }
+            }
+            return;
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Write to FILE a catalog of the characteristics of every key of
+     *  machines like MACH, computed on THREADS threads. */
+    static void build(Machine mach, Path file, int threads) {
+        KeySpace keys = new KeySpace(mach);
+        if (keys.size() > Integer.MAX_VALUE - 2) {
+            throw error("key space too large for a catalog");
+        }
+        long[] hashes = new long[(int) keys.size()];
+        ThreadLocal<Machine> machines = ThreadLocal.withInitial(mach::copy);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> IntStream.range(0, keys.numOrders()).parallel()
+                        .forEach(k -> characterize(machines.get(), keys, k,
+                                                   hashes)))
+                .get();
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw error("catalog failed: %s", excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("catalog interrupted");
+        } finally {
+            pool.shutdown();
+        }
+        TreeMap<Long, long[]> table = new TreeMap<>();
+        for (long h : hashes) {
+            table.computeIfAbsent(h, x -> new long[2])[1] += 1;
+        }
+        long start = 0;
+        for (long[] e : table.values()) {
+            e[0] = start;
+            start += e[1];
+        }
+        long[] sorted = new long[hashes.length];
+        long[] next = new long[table.size()];
+        Map<Long, Integer> rank = new HashMap<>();
+        int r = 0;
+        for (Map.Entry<Long, long[]> e : table.entrySet()) {
+            next[r] = e.getValue()[0];
+            rank.put(e.getKey(), r);
+            r += 1;
+        }
+        for (int key = 0; key < hashes.length; key += 1) {
+            int k = rank.get(hashes[key]);
+            sorted[(int) next[k]] = key;
+            next[k] += 1;
+        }
+        write(file, KeySpace.fingerprint(KeySpace.describe(mach)), table,
+              sorted);
+    }
+
+    /** Compute, on MACH, the characteristic hash of each key of rotor
+     *  order K in KEYS, storing it in HASHES at the key's index. */
+    private static void characterize(Machine mach, KeySpace keys, int k,
+                                     long[] hashes) {
+        int size = mach.alphabet().size();
+        mach.insertRotors(keys.order(k));
+        mach.setPlugboard(new Permutation("", mach.alphabet()));
+        int[][] subst = new int[INDICATOR][size];
+        long first = k * keys.numPositions();
+        for (long key = first; key < first + keys.numPositions();
+             key += 1) {
+            mach.setRotors(keys.setting(key));
+            for (int i = 0; i < INDICATOR; i += 1) {
+                mach.advance();
+                for (int c = 0; c < size; c += 1) {
+                    subst[i][c] = mach.substitute(c);
+                }
+            }
+            hashes[(int) key] = hash(characteristic(subst));
+        }
+    }
+
+    /** Return the characteristic of the substitutions SUBST[0 .. 5]:
+     *  for each of the composites of SUBST[i] followed by SUBST[i + 3],
+     *  its cycle lengths in decreasing order. */
+    static int[][] characteristic(int[][] subst) {
+        int half = INDICATOR / 2;
+        int[][] result = new int[half][];
+        int[] comp = new int[subst[0].length];
+        for (int i = 0; i < half; i += 1) {
+            for (int c = 0; c < comp.length; c += 1) {
+                comp[c] = subst[i + half][subst[i][c]];
+            }
+            result[i] = cycleLengths(comp);
+        }
+        return result;
+    }
+
+    /** Return the lengths of the cycles of PERM, a permutation of
+     *  0 .. PERM.length - 1, in decreasing order. */
+    static int[] cycleLengths(int[] perm) {
+        boolean[] seen = new boolean[perm.length];
+        int[] lengths = new int[perm.length];
+        int n = 0;
+        for (int start = 0; start < perm.length; start += 1) {
+            if (!seen[start]) {
+                int len = 0;
+                for (int c = start; !seen[c]; c = perm[c]) {
+                    seen[c] = true;
+                    len += 1;
+                }
+                lengths[n] = len;
+                n += 1;
+            }
+        }
+        lengths = Arrays.copyOf(lengths, n);
+        Arrays.sort(lengths);
+        for (int i = 0, j = n - 1; i < j; i += 1, j -= 1) {
+            int t = lengths[i];
+            lengths[i] = lengths[j];
+            lengths[j] = t;
+        }
+        return lengths;
+    }
+
+    /** Return the characteristic written as SIGNATURE, in the form
+     *  "L L .../L L .../L L ...", each part listing cycle lengths. */
+    static int[][] parse(String signature) {
+        String[] parts = signature.trim().split("\\s*/\\s*");
+        if (parts.length != INDICATOR / 2) {
+            throw error("characteristic must have %d parts",
+                        INDICATOR / 2);
+        }
+        int[][] result = new int[parts.length][];
+        for (int i = 0; i < parts.length; i += 1) {
+            String[] lens = parts[i].split("\\s+");
+            result[i] = new int[lens.length];
+            try {
+                for (int j = 0; j < lens.length; j += 1) {
+                    result[i][j] = Integer.parseInt(lens[j]);
+                }
+            } catch (NumberFormatException excp) {
+                throw error("bad cycle length in characteristic");
+            }
+            Arrays.sort(result[i]);
+            for (int a = 0, b = lens.length - 1; a < b; a += 1, b -= 1) {
+                int t = result[i][a];
+                result[i][a] = result[i][b];
+                result[i][b] = t;
+            }
+        }
+        return result;
+    }
+
+    /** Return the characteristic CHARAC in the form accepted by parse. */
+    static String format(int[][] charac) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < charac.length; i += 1) {
+            if (i > 0) {
+                result.append('/');
+            }
+            for (int j = 0; j < charac[i].length; j += 1) {
+                if (j > 0) {
+                    result.append(' ');
+                }
+                result.append(charac[i][j]);
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return the characteristic, in the form accepted by parse,
+     *  revealed by the enciphered doubled message keys INDICATORS, whose
+     *  characters are in ALPHA.  There must be enough of them to
+     *  determine the three composites completely. */
+    static String signature(List<String> indicators, Alphabet alpha) {
+        int half = INDICATOR / 2, size = alpha.size();
+        int[][] comp = new int[half][size];
+        for (int[] c : comp) {
+            Arrays.fill(c, -1);
+        }
+        for (String line : indicators) {
+            String ind = line.replaceAll("\\s+", "");
+            if (ind.isEmpty()) {
+                continue;
+            } else if (ind.length() < INDICATOR) {
+                throw error("indicator %s too short", ind);
+            }
+            for (int i = 0; i < half; i += 1) {
+                char a = ind.charAt(i), b = ind.charAt(i + half);
+                if (!alpha.contains(a) || !alpha.contains(b)) {
+                    throw error("indicator %s not in alphabet", ind);
+                }
+                int from = alpha.toInt(a), to = alpha.toInt(b);
+                if (comp[i][from] >= 0 && comp[i][from] != to) {
+                    throw error("indicators are inconsistent at %s", ind);
+                }
+                comp[i][from] = to;
+            }
+        }
+        int[][] result = new int[half][];
+        for (int i = 0; i < half; i += 1) {
+            for (int c : comp[i]) {
+                if (c < 0) {
+                    throw error("too few indicators to determine the "
+                                + "characteristic");
+                }
+            }
+            result[i] = cycleLengths(comp[i]);
+        }
+        return format(result);
+    }
+
+    /** Return the hash identifying characteristic CHARAC in a catalog
+     *  (64-bit FNV-1a over its lengths, with parts separated by 0). */
+    static long hash(int[][] charac) {
+        final long prime = 0x100000001b3L;
+        long h = 0xcbf29ce484222325L;
+        for (int[] part : charac) {
+            for (int len : part) {
+                h = (h ^ len) * prime;
+            }
+            h = h * prime;
+        }
+        return h;
+    }
+
+    /** Write a catalog with machine fingerprint FINGERPRINT, key ranges
+     *  TABLE (mapping each hash to the index and count of its keys) and
+     *  keys SORTED to FILE. */
+    private static void write(Path file, long fingerprint,
+                              TreeMap<Long, long[]> table, long[] sorted) {
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint);
+            out.writeInt(table.size());
+            out.writeLong(sorted.length);
+            for (Map.Entry<Long, long[]> e : table.entrySet()) {
+                out.writeLong(e.getKey());
+                out.writeLong(e.getValue()[0]);
+                out.writeLong(e.getValue()[1]);
+            }
+            for (long key : sorted) {
+                out.writeLong(key);
+            }
+        } catch (IOException excp) {
+            throw error("could not write catalog %s", file);
+        }
+    }
+
+    /** The catalog in FILE, which must have been built for machines like
+     *  MACH. */
+    CycleCatalog(Path file, Machine mach) {
+        try {
+            _channel = FileChannel.open(file, StandardOpenOption.READ);
+        } catch (IOException excp) {
+            throw error("could not open catalog %s", file);
+        }
+        try {
+            MappedByteBuffer header =
+                _channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw error("%s is not a cycle catalog", file);
+            }
+            if (header.getLong()
+                != KeySpace.fingerprint(KeySpace.describe(mach))) {
+                throw error("catalog %s is for a different machine", file);
+            }
+            _count = header.getInt();
+            _table = _channel.map(FileChannel.MapMode.READ_ONLY, HEADER,
+                                  (long) _count * ENTRY);
+            _keysStart = HEADER + (long) _count * ENTRY;
+        } catch (IOException | EnigmaException excp) {
+            try {
+                _channel.close();
+            } catch (IOException closeExcp) {
+                /* Ignore: the catalog is unusable in any case. */
+            }
+            if (excp instanceof EnigmaException) {
+                throw (EnigmaException) excp;
+            }
+            throw error("could not open catalog %s", file);
+        }
+    }
+
+    /** Return the keys whose characteristic is SIGNATURE, in the form
+     *  accepted by parse, in increasing order. */
+    long[] lookup(String signature) {
+        return lookup(hash(parse(signature)));
+    }
+
+    /** Return the keys whose characteristic has hash HASH, in
+     *  increasing order. */
+    long[] lookup(long hash) {
+        int lo = 0, hi = _count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long h = _table.getLong(mid * ENTRY);
+            if (h < hash) {
+                lo = mid + 1;
+            } else if (h > hash) {
+                hi = mid - 1;
+            } else {
+                return readKeys(_table.getLong(mid * ENTRY + Long.BYTES),
+                                (int) _table.getLong(mid * ENTRY
+                                                     + 2 * Long.BYTES));
+            }
+        }
+        return new long[0];
+    }
+
+    /** Return the N keys starting at index START of the key area. */
+    private long[] readKeys(long start, int n) {
+        ByteBuffer buf = ByteBuffer.allocate(n * Long.BYTES);
+        try {
+            long pos = _keysStart + start * Long.BYTES;
+            while (buf.hasRemaining()) {
+                if (_channel.read(buf, pos + buf.position()) < 0) {
+                    throw error("catalog truncated");
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not read catalog");
+        }
+        buf.flip();
+        long[] keys = new long[n];
+        buf.asLongBuffer().get(keys);
+        return keys;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _channel.close();
+    }
+
+    /** The open catalog file. */
+    private final FileChannel _channel;
+
+    /** The memory-mapped table of characteristics. */
+    private final MappedByteBuffer _table;
+
+    /** Number of characteristics in the table. */
+    private final int _count;
+
+    /** File offset of the first key. */
+    private final long _keysStart;
+}
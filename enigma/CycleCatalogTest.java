@@ -0,0 +1,147 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the CycleCatalog class.
+ *  @author jordanta
+ */
+public class CycleCatalogTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Directory for catalog files. */
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a catalog for SMALL_CONFIG built in a new file. */
+    Path catalog() {
+        Path file = tmp.getRoot().toPath().resolve("cycles");
+        CycleCatalog.build(smallMachine(), file, 2);
+        return file;
+    }
+
+    /** Return the doubled message keys AAA, BBB, ..., ZZZ, each
+     *  enciphered from the start position given by SETTINGS. */
+    static List<String> indicators(String settings) {
+        List<String> result = new ArrayList<>();
+        for (char c = 'A'; c <= 'Z'; c += 1) {
+            result.add(encipher(settings, String.valueOf(c).repeat(6)));
+        }
+        return result;
+    }
+
+    /** Return the message of the error raised by opening a copy of the
+     *  catalog FILE in which the int at offset AT has been xor'ed with
+     *  MASK, or null if there is none. */
+    String openError(Path file, int at, int mask) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        buf.putInt(at, buf.getInt(at) ^ mask);
+        Path bad = tmp.newFile().toPath();
+        Files.write(bad, bytes);
+        try (CycleCatalog catalog = new CycleCatalog(bad, smallMachine())) {
+            return null;
+        } catch (EnigmaException excp) {
+            return excp.getMessage();
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testCharacteristic() {
+        assertArrayEquals(new int[] {3, 2, 1},
+                          CycleCatalog.cycleLengths(
+                              new int[] {1, 2, 0, 4, 3, 5}));
+        int[][] charac = CycleCatalog.parse("3 1 2/ 6 /1 1 2 2");
+        assertEquals("3 2 1/6/2 2 1 1", CycleCatalog.format(charac));
+        assertEquals(CycleCatalog.hash(charac),
+                     CycleCatalog.hash(CycleCatalog.parse(
+                         "3 2 1/6/2 2 1 1")));
+        assertNotEquals(CycleCatalog.hash(charac),
+                        CycleCatalog.hash(CycleCatalog.parse(
+                            "3 2 1 6/2 2/1 1")));
+    }
+
+    @Test
+    public void testLookup() throws IOException {
+        Path file = catalog();
+        Machine mach = smallMachine();
+        KeySpace keys = new KeySpace(mach);
+        String signature = CycleCatalog.signature(
+            indicators("* B II I QF (AT) (HQ)"), mach.alphabet());
+        assertEquals(signature, CycleCatalog.signature(
+                         indicators("* B II I QF"), mach.alphabet()));
+        try (CycleCatalog catalog = new CycleCatalog(file, mach)) {
+            long[] found = catalog.lookup(signature);
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < found.length; i += 1) {
+                assertTrue(i == 0 || found[i - 1] < found[i]);
+                String line = keys.settingsLine(found[i], "");
+                assertEquals(line, signature, CycleCatalog.signature(
+                                 indicators(line), mach.alphabet()));
+                lines.add(line);
+            }
+            assertTrue(lines.contains("* B II I QF"));
+            assertTrue(found.length < keys.size());
+            assertEquals(0, catalog.lookup(0L).length);
+        }
+    }
+
+    @Test
+    public void testRejected() throws IOException {
+        Path file = catalog();
+        assertNull(openError(file, 0, 0));
+        assertTrue(openError(file, 0, 1)
+                   .endsWith("is not a cycle catalog"));
+        assertTrue(openError(file, Integer.BYTES, 3)
+                   .endsWith("is not a cycle catalog"));
+        assertTrue(openError(file, 2 * Integer.BYTES, 1 << 20)
+                   .endsWith("is for a different machine"));
+        Machine other = Main.readConfig(new Scanner(
+            SMALL_CONFIG.replace(" I MQ ", " I MR ")));
+        try {
+            new CycleCatalog(file, other).close();
+            fail("catalog opened for a different machine");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage()
+                       .endsWith("is for a different machine"));
+        }
+    }
+
+    @Test
+    public void testAdvanceSubstitute() {
+        Machine stepped = smallMachine(), converted = smallMachine();
+        String settings = "* B I II QD (AT) (HQ)";
+        Main.setUp(stepped, settings);
+        Main.setUp(converted, settings);
+        for (int i = 0; i < PLAIN.length(); i += 1) {
+            int c = stepped.alphabet().toInt(PLAIN.charAt(i));
+            stepped.advance();
+            assertEquals("character " + i, converted.convert(c),
+                         stepped.substitute(c));
+            for (int d = 0; d < stepped.alphabet().size(); d += 1) {
+                assertEquals(d, stepped.substitute(stepped.substitute(d)));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,417 @@
+package enigma;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** Finds pairs of messages in a corpus that are in depth: enciphered
+ *  with the same rotor order, ring settings and plugboard, one starting
+ *  from a state that the other passes through, so that from that offset
+ *  on both use the same keystream.  The start of every message is keyed
+ *  by its group (the number of its rotor order, rings and plugboard)
+ *  and its settings as a number in base alphabet size, and the keys are
+ *  sorted on that pair.  Each message is then stepped through the
+ *  states it passes, each looked up among the start keys, so that the
+ *  cost grows with the total length of the corpus rather than with the
+ *  number of pairs.  Each depth found is scored by the number of
+ *  positions where the two ciphertexts agree, compared eight characters
+ *  at a time, and ranked by how far that count exceeds what chance
+ *  would give.
+ *  @author jordanta
+ */
+public final class DepthFinder {
+
+    /** Default number of depths reported. */
+    static final int DEFAULT_TOP = 20;
+
+    /** Default least overlap of the depths reported. */
+    static final int DEFAULT_OVERLAP = 20;
+
+    /** Number of messages stepped by one task. */
+    static final int BATCH = 256;
+
+    /** Reads byte arrays eight bytes at a time. */
+    private static final VarHandle LONGS =
+        MethodHandles.byteArrayViewVarHandle(long[].class,
+                                             ByteOrder.LITTLE_ENDIAN);
+
+    /** The low seven bits of each byte of a long. */
+    private static final long LOW7 = 0x7f7f7f7f7f7f7f7fL;
+
+    /** Print the depths found among the messages in the files named by
+     *  ARGS[1], ..., enciphered with the configuration in ARGS[0], one per
+     *  line: the two messages (file:line of their settings lines), the
+     *  offset of the second in the first, the length of the overlap, the
+     *  number of coincidences and the score.  Options --threads=N,
+     *  --top=N and --overlap=N give the number of threads, the number of
+     *  depths reported, and their least overlap. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--threads=(\\d+){0,1} --top=(\\d+){0,1} "
+                                + "--overlap=(\\d+){0,1} --=(.*){2,}",
+                                args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.DepthFinder [--threads=N] "
+                            + "[--top=N] [--overlap=N] CONFIG FILE...");
+            }
+            List<String> files = options.get("--");
+            DepthFinder finder = new DepthFinder(
+                Main.readConfig(ToolUtils.getInput(files.get(0))));
+            for (String file : files.subList(1, files.size())) {
+                finder.add(file, ToolUtils.getInput(file));
+            }
+            List<Depth> depths = finder.find(Integer.parseInt(
+                ToolUtils.option(options, "--threads",
+                       "" + Runtime.getRuntime().availableProcessors())),
+                Integer.parseInt(ToolUtils.option(options, "--overlap",
+                                                  "" + DEFAULT_OVERLAP)));
+            int top = Integer.parseInt(
+                ToolUtils.option(options, "--top", "" + DEFAULT_TOP));
+            for (Depth d : depths.subList(0, Math.min(top, depths.size()))) {
+                System.out.printf("%s\t%s\t%d\t%d\t%d\t%.3f%n",
+                                  finder.name(d.first), finder.name(d.second),
+                                  d.offset, d.overlap, d.matches, d.score);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A finder for messages enciphered on machines like MACH. */
+    DepthFinder(Machine mach) {
+        if (mach.alphabet().size() > ToolUtils.BYTE_ALPHABET) {
+            throw error("alphabet too large for depth finding");
+        }
+        _machine = mach;
+        _alphabet = mach.alphabet();
+        _size = _alphabet.size();
+        /* startMessage and depths pack the settings of the numRotors() - 1
+         * rotors after the reflector into a long, as the digits of a
+         * number in base _size.  Check that every such number fits: that
+         * _size to that power is at most Long.MAX_VALUE. */
+        long room = Long.MAX_VALUE;
+        for (int k = 1; k < mach.numRotors(); k += 1) {
+            room /= _size;
+        }
+        if (room == 0) {
+            throw error("too many rotor settings for depth finding");
+        }
+    }
+
+    /** A pair of messages in depth. */
+    static final class Depth implements Comparable<Depth> {
+
+        /** Message SECOND starts at offset OFFSET of message FIRST,
+         *  and their OVERLAP characters from there agree at MATCHES
+         *  positions, giving SCORE. */
+        Depth(int first, int second, int offset, int overlap, int matches,
+              double score) {
+            this.first = first;
+            this.second = second;
+            this.offset = offset;
+            this.overlap = overlap;
+            this.matches = matches;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(Depth other) {
+            int c = Double.compare(other.score, score);
+            if (c == 0) {
+                c = Integer.compare(first, other.first);
+            }
+            return c != 0 ? c : Integer.compare(second, other.second);
+        }
+
+        /** Numbers of the two messages. */
+        final int first, second;
+
+        /** Offset in FIRST of the start of SECOND. */
+        final int offset;
+
+        /** Number of characters compared. */
+        final int overlap;
+
+        /** Number of positions where the ciphertexts agree. */
+        final int matches;
+
+        /** Standard deviations by which MATCHES exceeds its expected
+         *  value for unrelated texts. */
+        final double score;
+    }
+
+    /** Add the messages read from INPUT, in the input format of Main,
+     *  naming each by SOURCE and the line number of its settings
+     *  line. */
+    void add(String source, Scanner input) {
+        int lineNum = 0;
+        StringBuilder text = null;
+        while (input.hasNextLine()) {
+            String line = input.nextLine();
+            lineNum += 1;
+            if (line.startsWith("*")) {
+                if (text != null) {
+                    addText(text);
+                }
+                Main.setUp(_machine, line);
+                startMessage(source + ":" + lineNum);
+                text = new StringBuilder();
+            } else {
+                if (text == null && !line.isBlank()) {
+                    throw error("No config");
+                }
+                for (int i = 0; i < line.length(); i += 1) {
+                    char ch = line.charAt(i);
+                    if (!Character.isWhitespace(ch)) {
+                        if (!_alphabet.contains(ch)) {
+                            throw error("%s:%d: character '%c' not in "
+                                        + "alphabet", source, lineNum, ch);
+                        }
+                        text.append(ch);
+                    }
+                }
+            }
+        }
+        if (text != null) {
+            addText(text);
+        }
+    }
+
+    /** Record a new message named NAME starting in the current state of
+     *  my machine. */
+    private void startMessage(String name) {
+        int n = _machine.numRotors();
+        StringBuilder group = new StringBuilder();
+        for (int k = 0; k < n; k += 1) {
+            group.append(_machine.getRotor(k).name()).append(' ');
+        }
+        String order = group.toString();
+        for (int k = 0; k < n; k += 1) {
+            group.append(_machine.getRotor(k).ring()).append(' ');
+        }
+        group.append(_machine.plugboard().getClean());
+        Integer id = _groups.get(group.toString());
+        if (id == null) {
+            id = _groups.size();
+            _groups.put(group.toString(), id);
+            _tables.add(_byOrder.computeIfAbsent(
+                order, o -> new Encryptor.Tables(_machine)));
+        }
+        long state = 0;
+        for (int k = 1; k < n; k += 1) {
+            state = state * _size + _machine.getRotor(k).setting();
+        }
+        _names.add(name);
+        _groupOf.add(id);
+        _starts.add(state);
+    }
+
+    /** Record TEXT as the ciphertext of the last message started. */
+    private void addText(StringBuilder text) {
+        byte[] codes = new byte[text.length()];
+        for (int i = 0; i < codes.length; i += 1) {
+            codes[i] = (byte) _alphabet.toInt(text.charAt(i));
+        }
+        _texts.add(codes);
+    }
+
+    /** Return the number of messages added. */
+    int numMessages() {
+        return _texts.size();
+    }
+
+    /** Return the name of message number M. */
+    String name(int m) {
+        return _names.get(m);
+    }
+
+    /** Return every pair of messages in depth that overlap by at least
+     *  MINOVERLAP characters, best first, working on THREADS threads. */
+    List<Depth> find(int threads, int minOverlap) {
+        int n = numMessages();
+        Integer[] byKey = new Integer[n];
+        for (int m = 0; m < n; m += 1) {
+            byKey[m] = m;
+        }
+        Arrays.sort(byKey, (a, b) -> {
+                int c = Integer.compare(_groupOf.get(a), _groupOf.get(b));
+                return c != 0 ? c
+                    : Long.compare(_starts.get(a), _starts.get(b));
+            });
+        int[] order = new int[n];
+        int[] groups = new int[n];
+        long[] states = new long[n];
+        for (int i = 0; i < n; i += 1) {
+            order[i] = byKey[i];
+            groups[i] = _groupOf.get(order[i]);
+            states[i] = _starts.get(order[i]);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<Depth>>> tasks = new ArrayList<>();
+            for (int lo = 0; lo < n; lo += BATCH) {
+                int first = lo, last = Math.min(n, lo + BATCH);
+                tasks.add(pool.submit(() -> {
+                    List<Depth> found = new ArrayList<>();
+                    for (int m = first; m < last; m += 1) {
+                        depths(m, groups, states, order, minOverlap,
+                               found);
+                    }
+                    return found;
+                }));
+            }
+            List<Depth> result = new ArrayList<>();
+            for (Future<List<Depth>> task : tasks) {
+                result.addAll(task.get());
+            }
+            result.sort(null);
+            return result;
+        } catch (ExecutionException excp) {
+            throw error("depth search failed: %s", excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("depth search interrupted");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Add to FOUND the messages in depth with message M starting at
+     *  offsets in it and overlapping it by at least MINOVERLAP
+     *  characters, given the start keys of the messages ORDER, sorted
+     *  by group (GROUPS) and then by state (STATES). */
+    private void depths(int m, int[] groups, long[] states, int[] order,
+                        int minOverlap, List<Depth> found) {
+        byte[] text = _texts.get(m);
+        int group = _groupOf.get(m);
+        int n = _machine.numRotors();
+        Encryptor enc = new Encryptor.Interpreted(_tables.get(group),
+                                                  new int[_size], new int[n]);
+        int[] settings = new int[n];
+        long start = _starts.get(m);
+        for (int k = n - 1; k > 0; k -= 1, start /= _size) {
+            settings[k] = (int) (start % _size);
+        }
+        enc.setPositions(settings);
+        for (int d = 0; d <= text.length - minOverlap; d += 1) {
+            if (d > 0) {
+                enc.convert(0);
+                enc.positions(settings);
+            }
+            long state = 0;
+            for (int k = 1; k < n; k += 1) {
+                state = state * _size + settings[k];
+            }
+            for (int i = firstKey(groups, states, group, state);
+                 i < states.length && groups[i] == group
+                     && states[i] == state;
+                 i += 1) {
+                int other = order[i];
+                if (d == 0 && other <= m) {
+                    continue;
+                }
+                byte[] second = _texts.get(other);
+                int overlap = Math.min(text.length - d, second.length);
+                if (overlap < Math.max(1, minOverlap)) {
+                    continue;
+                }
+                int matches = coincidences(text, d, second, overlap);
+                found.add(new Depth(m, other, d, overlap, matches,
+                                    score(matches, overlap)));
+            }
+        }
+    }
+
+    /** Return the least index I such that (GROUPS[I], STATES[I]) is at
+     *  least (GROUP, STATE), where the pairs are sorted, or
+     *  GROUPS.length if there is none. */
+    static int firstKey(int[] groups, long[] states, int group,
+                        long state) {
+        int lo = 0, hi = groups.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (groups[mid] < group
+                || (groups[mid] == group && states[mid] < state)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return the number of standard deviations by which MATCHES
+     *  coincidences in OVERLAP positions exceed the number expected of
+     *  random texts. */
+    private double score(int matches, int overlap) {
+        double p = 1.0 / _size;
+        double mean = overlap * p;
+        return (matches - mean) / Math.sqrt(overlap * p * (1 - p));
+    }
+
+    /** Return the number of positions I < LEN where A[FROM + I] is
+     *  B[I]. */
+    static int coincidences(byte[] a, int from, byte[] b, int len) {
+        int matches = 0;
+        int i = 0;
+        for (; i + Long.BYTES <= len; i += Long.BYTES) {
+            long x = (long) LONGS.get(a, from + i) ^ (long) LONGS.get(b, i);
+            matches += Long.bitCount(~(((x & LOW7) + LOW7) | x | LOW7));
+        }
+        for (; i < len; i += 1) {
+            if (a[from + i] == b[i]) {
+                matches += 1;
+            }
+        }
+        return matches;
+    }
+
+    /** Machine used to read settings lines. */
+    private final Machine _machine;
+
+    /** The alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of each rotor order, ring settings and plugboard, by
+     *  description. */
+    private final HashMap<String, Integer> _groups = new HashMap<>();
+
+    /** Tables of each rotor order, by description. */
+    private final HashMap<String, Encryptor.Tables> _byOrder =
+        new HashMap<>();
+
+    /** Tables of the rotor order of each group. */
+    private final List<Encryptor.Tables> _tables = new ArrayList<>();
+
+    /** Name of each message. */
+    private final List<String> _names = new ArrayList<>();
+
+    /** Group of each message. */
+    private final List<Integer> _groupOf = new ArrayList<>();
+
+    /** Setting state of each message at its start, as a number in base
+     *  alphabet size. */
+    private final List<Long> _starts = new ArrayList<>();
+
+    /** Ciphertext of each message, as alphabet indices. */
+    private final List<byte[]> _texts = new ArrayList<>();
+}
@@ -0,0 +1,123 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the DepthFinder class.
+ *  @author jordanta
+ */
+public class DepthFinderTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the settings of the rotors of the machine set up by
+     *  SETTINGS after N characters. */
+    static String settingsAfter(String settings, int n) {
+        Machine mach = smallMachine();
+        Main.setUp(mach, settings);
+        mach.convert(PLAIN.substring(0, n));
+        StringBuilder result = new StringBuilder();
+        for (int k = 1; k < mach.numRotors(); k += 1) {
+            result.append(mach.alphabet().toChar(
+                              mach.getRotor(k).setting()));
+        }
+        return result.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testCoincidences() {
+        Random rand = new Random(41);
+        byte[] a = new byte[100], b = new byte[100];
+        for (int i = 0; i < a.length; i += 1) {
+            a[i] = (byte) rand.nextInt(3);
+            b[i] = (byte) (rand.nextInt(3) + (i % 7 == 0 ? 128 : 0));
+        }
+        for (int from = 0; from < 30; from += 1) {
+            for (int len = 0; len + from <= a.length; len += 7) {
+                int expected = 0;
+                for (int i = 0; i < len; i += 1) {
+                    expected += a[from + i] == b[i] ? 1 : 0;
+                }
+                assertEquals(expected,
+                             DepthFinder.coincidences(a, from, b, len));
+            }
+        }
+    }
+
+    @Test
+    public void testFindsDepth() {
+        String first = "* B I II DG (AT)";
+        String second = "* B I II " + settingsAfter(first, 30) + " (AT)";
+        String other = "* B I II " + settingsAfter(first, 30) + " (HQ)";
+        String corpus = message(first, PLAIN)
+            + message("* B II I DG (AT)", PLAIN)
+            + message(other, PLAIN.substring(40))
+            + message(second, PLAIN.substring(40))
+            + message("* B I II MA (AT)", PLAIN);
+        DepthFinder finder = new DepthFinder(smallMachine());
+        finder.add("corpus", new Scanner(corpus));
+        assertEquals(5, finder.numMessages());
+        List<DepthFinder.Depth> depths = finder.find(2, 1);
+        assertFalse(depths.isEmpty());
+        DepthFinder.Depth best = depths.get(0);
+        assertEquals(0, best.first);
+        assertEquals(3, best.second);
+        assertEquals(30, best.offset);
+        assertEquals(PLAIN.length() - 40, best.overlap);
+        assertEquals("corpus:1", finder.name(best.first));
+        for (DepthFinder.Depth d : depths) {
+            assertNotEquals(2, d.first);
+            assertNotEquals(2, d.second);
+        }
+    }
+
+    @Test
+    public void testFirstKey() {
+        int[] groups = { 0, 0, 0, 1, 1, 2 };
+        long[] states = { 3, 7, 7, 0, 9, Long.MAX_VALUE };
+        assertEquals(0, DepthFinder.firstKey(groups, states, 0, 0));
+        assertEquals(1, DepthFinder.firstKey(groups, states, 0, 7));
+        assertEquals(3, DepthFinder.firstKey(groups, states, 0, 8));
+        assertEquals(4, DepthFinder.firstKey(groups, states, 1, 1));
+        assertEquals(5, DepthFinder.firstKey(groups, states, 2, 0));
+        assertEquals(6, DepthFinder.firstKey(groups, states, 3, 0));
+    }
+
+    @Test
+    public void testTooManySettings() {
+        StringBuilder chars = new StringBuilder();
+        for (int c = 0; c < ToolUtils.BYTE_ALPHABET; c += 1) {
+            chars.append((char) (0x4e00 + c));
+        }
+        Alphabet alpha = new Alphabet(chars.toString());
+        List<Rotor> rotors = new ArrayList<>();
+        for (int k = 0; k < 9; k += 1) {
+            rotors.add(new MovingRotor("R" + k, new Permutation("", alpha),
+                                       ""));
+        }
+        new DepthFinder(new Machine(alpha, 8, 7, rotors));
+        try {
+            new DepthFinder(new Machine(alpha, 9, 8, rotors));
+            fail("overflowing settings accepted");
+        } catch (EnigmaException excp) {
+            assertEquals("too many rotor settings for depth finding",
+                         excp.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,215 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** A fast stand-in for a Machine with a fixed rotor order, made by
+ *  Machine.compile.  An Encryptor holds the settings and ring settings
+ *  of the rotors right of the reflector and a plugboard, and converts
+ *  characters exactly as the Machine it was made from would, but from
+ *  tables of the rotors' substitutions at every setting rather than
+ *  through Rotor objects.  The tables are for ring setting 0: a rotor at
+ *  setting S and ring setting R is found in them at offset S - R, while
+ *  its notches go by S.  Its concrete classes are generated for each
+ *  rotor order (see EncryptorCompiler), whatever the ring settings, or
+ *  are Interpreted where classes cannot be generated.
+ *  @author jordanta
+ */
+abstract class Encryptor {
+
+    /** An Encryptor with NUMROTORS slots, plugboard PLUG (a table of
+     *  alphabet indices, which I keep), and the ring setting of each slot
+     *  K in RINGS[K]. */
+    Encryptor(int numRotors, int[] plug, int[] rings) {
+        _numRotors = numRotors;
+        _plug = plug;
+        _rings = rings.clone();
+    }
+
+    /** Return the number of slots. */
+    final int numRotors() {
+        return _numRotors;
+    }
+
+    /** Set the plugboard to PLUG, a table of alphabet indices, which I
+     *  keep. */
+    final void setPlugboard(int[] plug) {
+        _plug = plug;
+    }
+
+    /** Return the plugboard, as a table of alphabet indices. */
+    final int[] plugboard() {
+        return _plug;
+    }
+
+    /** Return the ring setting of slot K. */
+    final int ring(int k) {
+        return _rings[k];
+    }
+
+    /** Return the offset in ring-setting-0 tables of size SIZE of the
+     *  rotor in slot K at setting SETTING. */
+    final int offset(int k, int setting, int size) {
+        int o = setting - _rings[k];
+        return o < 0 ? o + size : o;
+    }
+
+    /** Set the setting of each slot K (0 < K < numRotors()) to
+     *  SETTINGS[K]. */
+    abstract void setPositions(int[] settings);
+
+    /** Store the setting of each slot K (0 < K < numRotors()) in
+     *  SETTINGS[K]. */
+    abstract void positions(int[] settings);
+
+    /** Return the result of converting C (an alphabet index) after
+     *  advancing the rotors, as Machine.convert does. */
+    abstract int convert(int c);
+
+    /** Convert CHARS[FROM .. TO-1], alphabet indices, in place. */
+    void convert(int[] chars, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            chars[i] = convert(chars[i]);
+        }
+    }
+
+    /** Return true iff my class was generated for my rotor order. */
+    boolean generated() {
+        return true;
+    }
+
+    /** The tables of the rotors of one order at ring setting 0: for the
+     *  rotor in each slot K, the substitutions of C at setting S going
+     *  towards the reflector (FORWARD[K][S * size + C]) and back
+     *  (BACKWARD[K][S * size + C]), its notches (NOTCH[K][S] is true
+     *  where it lets the rotor to its left advance), and whether it
+     *  rotates. */
+    static final class Tables {
+
+        /** Tables for the rotors of MACH's slots, in their current
+         *  order, whatever their ring settings. */
+        Tables(Machine mach) {
+            int n = mach.numRotors();
+            size = mach.alphabet().size();
+            forward = new int[n][];
+            backward = new int[n][];
+            notch = new boolean[n][];
+            rotates = new boolean[n];
+            for (int k = 0; k < n; k += 1) {
+                Rotor r = mach.getRotor(k).copy();
+                int settings = r instanceof Reflector ? 1 : size;
+                forward[k] = new int[size * settings];
+                backward[k] = new int[size * settings];
+                notch[k] = new boolean[size];
+                rotates[k] = r.rotates();
+                for (int s = 0; s < settings; s += 1) {
+                    r.set(s);
+                    notch[k][s] = r.atNotch();
+                    for (int c = 0; c < size; c += 1) {
+                        forward[k][s * size + c] = r.convertForward(c);
+                        backward[k][s * size + c] = r.convertBackward(c);
+                    }
+                }
+            }
+        }
+
+        /** Size of the alphabet. */
+        final int size;
+
+        /** Substitutions of each slot's rotor at each setting. */
+        final int[][] forward, backward;
+
+        /** Notch positions of each slot's rotor. */
+        final boolean[][] notch;
+
+        /** Whether each slot's rotor rotates. */
+        final boolean[] rotates;
+    }
+
+    /** An Encryptor that loops over the slots of its Tables, used when
+     *  no class can be generated. */
+    static final class Interpreted extends Encryptor {
+
+        /** An encryptor using TABLES with plugboard PLUG and ring
+         *  settings RINGS. */
+        Interpreted(Tables tables, int[] plug, int[] rings) {
+            super(tables.forward.length, plug, rings);
+            _tables = tables;
+            _settings = new int[numRotors()];
+            _offsets = new int[numRotors()];
+            _move = new boolean[numRotors()];
+        }
+
+        @Override
+        void setPositions(int[] settings) {
+            for (int k = 1; k < numRotors(); k += 1) {
+                if (settings[k] < 0 || settings[k] >= _tables.size) {
+                    throw error("setting out of range");
+                }
+                _settings[k] = settings[k];
+                _offsets[k] = offset(k, settings[k], _tables.size);
+            }
+        }
+
+        @Override
+        void positions(int[] settings) {
+            System.arraycopy(_settings, 1, settings, 1, numRotors() - 1);
+        }
+
+        @Override
+        int convert(int c) {
+            int n = numRotors(), size = _tables.size;
+            _move[n - 1] = true;
+            for (int k = 1; k < n; k += 1) {
+                if (_tables.rotates[k - 1]
+                    && _tables.notch[k][_settings[k]]) {
+                    _move[k] = _move[k - 1] = true;
+                }
+            }
+            for (int k = 1; k < n; k += 1) {
+                if (_move[k] && _tables.rotates[k]) {
+                    _settings[k] =
+                        _settings[k] + 1 == size ? 0 : _settings[k] + 1;
+                    _offsets[k] =
+                        _offsets[k] + 1 == size ? 0 : _offsets[k] + 1;
+                }
+                _move[k] = false;
+            }
+            int[] plug = plugboard();
+            c = plug[c];
+            for (int k = n - 1; k > 0; k -= 1) {
+                c = _tables.forward[k][_offsets[k] * size + c];
+            }
+            c = _tables.forward[0][c];
+            for (int k = 1; k < n; k += 1) {
+                c = _tables.backward[k][_offsets[k] * size + c];
+            }
+            return plug[c];
+        }
+
+        @Override
+        boolean generated() {
+            return false;
+        }
+
+        /** Tables of my rotors. */
+        private final Tables _tables;
+
+        /** Current setting of each slot. */
+        private final int[] _settings;
+
+        /** Current offset in _tables of each slot. */
+        private final int[] _offsets;
+
+        /** Which slots move at the current keypress (scratch space). */
+        private final boolean[] _move;
+    }
+
+    /** Number of slots. */
+    private final int _numRotors;
+
+    /** Plugboard, as a table of alphabet indices. */
+    private int[] _plug;
+
+    /** Ring setting of each slot. */
+    private final int[] _rings;
+}
@@ -0,0 +1,314 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import static enigma.EnigmaException.*;
+
+/** Generates an Encryptor class for each rotor order of a machine.  The
+ *  class's conversion is written out slot by slot, with the rotors'
+ *  tables in static final fields, only the stepping tests that the
+ *  rotors' pawls and notches make possible, and each notch test
+ *  comparing against the actual notch settings, so that the JIT
+ *  compiler sees one small monomorphic method.  Classes are generated as
+ *  Java source, compiled in memory with the system Java compiler, and
+ *  defined as hidden classes whose tables are passed as class data.
+ *  The tables are for ring setting 0, and each instance holds its ring
+ *  settings, so a class is made once per configuration and rotor order
+ *  however many ring settings are used with it.  The first thread to
+ *  need a class compiles it, outside any lock; others wait for it.
+ *  Where there is no Java compiler (as in a bare runtime image),
+ *  Encryptor.Interpreted is used instead.
+ *  @author jordanta
+ */
+final class EncryptorCompiler {
+
+    /** Not instantiable. */
+    private EncryptorCompiler() {
+    }
+
+    /** Simple name of generated classes. */
+    static final String NAME = "GeneratedEncryptor";
+
+    /** Return an Encryptor for MACH's current rotor order and ring
+     *  settings, with MACH's current rotor settings and plugboard. */
+    static Encryptor compile(Machine mach) {
+        int n = mach.numRotors();
+        String[] order = new String[n];
+        int[] settings = new int[n], rings = new int[n];
+        StringBuilder key = new StringBuilder();
+        key.append(mach.alphabet().getChars()).append('\n')
+            .append(n).append(' ').append(mach.numPawls()).append('\n');
+        for (int k = 0; k < n; k += 1) {
+            Rotor r = mach.getRotor(k);
+            order[k] = r.name();
+            settings[k] = r.setting();
+            rings[k] = r.ring();
+            key.append(r.name()).append(' ')
+                .append(r.getClass().getSimpleName()).append(' ')
+                .append(r.notches()).append(' ')
+                .append(r.permutation().getClean()).append('\n');
+        }
+        Encryptor.Tables[] tables = new Encryptor.Tables[1];
+        FutureTask<MethodHandle> task = new FutureTask<>(() -> {
+                tables[0] = new Encryptor.Tables(mach);
+                return define(tables[0], order);
+            });
+        Future<MethodHandle> made = MAKERS.putIfAbsent(key.toString(), task);
+        if (made == null) {
+            made = task;
+            task.run();
+        }
+        MethodHandle maker;
+        try {
+            maker = made.get();
+        } catch (ExecutionException excp) {
+            MAKERS.remove(key.toString(), made);
+            throw error("cannot make encryptor: %s", excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted making encryptor");
+        }
+        int[] plug = new int[mach.alphabet().size()];
+        for (int c = 0; c < plug.length; c += 1) {
+            plug[c] = mach.plugboard() == null ? c
+                : mach.plugboard().permute(c);
+        }
+        Encryptor result;
+        if (maker == NO_COMPILER) {
+            result = new Encryptor.Interpreted(
+                tables[0] != null ? tables[0] : new Encryptor.Tables(mach),
+                plug, rings);
+        } else {
+            try {
+                result = (Encryptor) maker.invoke(plug, rings);
+            } catch (Throwable excp) {
+                throw error("cannot make encryptor: %s", excp);
+            }
+        }
+        result.setPositions(settings);
+        return result;
+    }
+
+    /** Return a handle on the constructor, taking a plugboard and ring
+     *  settings, of a class generated for TABLES, the tables of the rotor
+     *  order ORDER, or NO_COMPILER if none can be generated. */
+    private static MethodHandle define(Encryptor.Tables tables,
+                                       String[] order) {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            return NO_COMPILER;
+        }
+        byte[] code = compileSource(javac, source(tables, order));
+        if (code == null) {
+            return NO_COMPILER;
+        }
+        try {
+            int[][] data = new int[2 * tables.forward.length][];
+            for (int k = 0; k < tables.forward.length; k += 1) {
+                data[2 * k] = tables.forward[k];
+                data[2 * k + 1] = tables.backward[k];
+            }
+            MethodHandles.Lookup hidden = MethodHandles.lookup()
+                .defineHiddenClassWithClassData(code, data, true);
+            return hidden.findConstructor(hidden.lookupClass(),
+                      MethodType.methodType(void.class, int[].class,
+                                            int[].class));
+        } catch (ReflectiveOperationException | LinkageError excp) {
+            return NO_COMPILER;
+        }
+    }
+
+    /** Return the source of an Encryptor for TABLES, the tables of rotor
+     *  order ORDER. */
+    static String source(Encryptor.Tables tables, String[] order) {
+        int n = tables.forward.length, size = tables.size;
+        StringBuilder src = new StringBuilder();
+        src.append("package enigma;\n\n")
+            .append("import java.lang.invoke.MethodHandles;\n\n")
+            .append("/** Encryptor for rotor order ")
+            .append(String.join(" ", order).replace("*/", "* /"))
+            .append(". */\n")
+            .append("final class ").append(NAME)
+            .append(" extends Encryptor {\n\n")
+            .append("    private static final int[][] T = data();\n");
+        for (int k = 0; k < n; k += 1) {
+            src.append(String.format("    private static final int[] F%d"
+                                     + " = T[%d], B%d = T[%d];%n",
+                                     k, 2 * k, k, 2 * k + 1));
+        }
+        src.append("\n    private static int[][] data() {\n")
+            .append("        try {\n")
+            .append("            return MethodHandles.classData(")
+            .append("MethodHandles.lookup(), \"_\", int[][].class);\n")
+            .append("        } catch (IllegalAccessException e) {\n")
+            .append("            throw new ExceptionInInitializerError(e);\n")
+            .append("        }\n    }\n\n");
+        for (int k = 1; k < n; k += 1) {
+            src.append(String.format("    private int s%d, o%d;%n", k, k));
+        }
+        src.append("\n    ").append(NAME)
+            .append("(int[] plug, int[] rings) {\n")
+            .append("        super(").append(n).append(", plug, rings);\n")
+            .append("    }\n\n")
+            .append("    @Override\n")
+            .append("    void setPositions(int[] p) {\n");
+        for (int k = 1; k < n; k += 1) {
+            src.append(String.format("        if (p[%d] < 0 || p[%d] >= %d)"
+                                     + " {%n            throw new "
+                                     + "EnigmaException(\"setting out of "
+                                     + "range\");%n        }%n", k, k, size));
+        }
+        for (int k = 1; k < n; k += 1) {
+            src.append(String.format("        s%d = p[%d];%n"
+                                     + "        o%d = offset(%d, s%d, %d);%n",
+                                     k, k, k, k, k, size));
+        }
+        src.append("    }\n\n    @Override\n")
+            .append("    void positions(int[] p) {\n");
+        for (int k = 1; k < n; k += 1) {
+            src.append(String.format("        p[%d] = s%d;%n", k, k));
+        }
+        src.append("    }\n\n    @Override\n")
+            .append("    int convert(int c) {\n");
+        appendStep(src, tables);
+        src.append("        int[] plug = plugboard();\n")
+            .append("        c = plug[c];\n");
+        for (int k = n - 1; k > 0; k -= 1) {
+            src.append(String.format("        c = F%d[o%d * %d + c];%n",
+                                     k, k, size));
+        }
+        src.append("        c = F0[c];\n");
+        for (int k = 1; k < n; k += 1) {
+            src.append(String.format("        c = B%d[o%d * %d + c];%n",
+                                     k, k, size));
+        }
+        src.append("        return plug[c];\n    }\n}\n");
+        return src.toString();
+    }
+
+    /** Append to SRC the stepping of the rotors described by TABLES, as
+     *  Machine.advanceRotors does it: the fast rotor always moves, and a
+     *  rotor at a notch moves along with its left neighbor if that
+     *  neighbor rotates. */
+    private static void appendStep(StringBuilder src,
+                                   Encryptor.Tables tables) {
+        int n = tables.forward.length, size = tables.size;
+        boolean[] mayMove = new boolean[n];
+        mayMove[n - 1] = true;
+        src.append(String.format("        boolean m%d = true;%n", n - 1));
+        for (int k = 1; k < n - 1; k += 1) {
+            src.append(String.format("        boolean m%d = false;%n", k));
+        }
+        for (int k = 1; k < n; k += 1) {
+            String test = notchTest(tables.notch[k], "s" + k);
+            if (!tables.rotates[k - 1] || test == null) {
+                continue;
+            }
+            src.append("        if (").append(test).append(") {\n");
+            src.append(String.format("            m%d = true;%n", k));
+            if (k > 1) {
+                src.append(String.format("            m%d = true;%n",
+                                         k - 1));
+            }
+            src.append("        }\n");
+            mayMove[k] = mayMove[k - 1] = true;
+        }
+        for (int k = 1; k < n; k += 1) {
+            if (mayMove[k] && tables.rotates[k]) {
+                src.append(String.format("        if (m%d) {%n"
+                                         + "            s%d = s%d == %d"
+                                         + " ? 0 : s%d + 1;%n"
+                                         + "            o%d = o%d == %d"
+                                         + " ? 0 : o%d + 1;%n        }%n",
+                                         k, k, k, size - 1, k,
+                                         k, k, size - 1, k));
+            }
+        }
+    }
+
+    /** Return a Java expression true iff VAR is a setting where NOTCH is
+     *  true, or null if there is none. */
+    private static String notchTest(boolean[] notch, String var) {
+        StringBuilder test = new StringBuilder();
+        for (int s = 0; s < notch.length; s += 1) {
+            if (notch[s]) {
+                if (test.length() > 0) {
+                    test.append(" || ");
+                }
+                test.append(var).append(" == ").append(s);
+            }
+        }
+        return test.length() == 0 ? null : test.toString();
+    }
+
+    /** Return the class file compiled by JAVAC from SOURCE, the source of
+     *  class NAME, or null if it does not compile.  The file manager
+     *  javac uses is closed before I return. */
+    private static byte[] compileSource(JavaCompiler javac, String source) {
+        JavaFileObject file = new SimpleJavaFileObject(
+            URI.create("string:///enigma/" + NAME + ".java"),
+            JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignore) {
+                return source;
+            }
+        };
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        List<String> options =
+            Arrays.asList("-classpath", System.getProperty("java.class.path"),
+                          "-proc:none", "-g:none");
+        try (StandardJavaFileManager files =
+                 javac.getStandardFileManager(null, null, null)) {
+            JavaFileManager output =
+                new ForwardingJavaFileManager<JavaFileManager>(files) {
+                    @Override
+                    public JavaFileObject getJavaFileForOutput(
+                        Location location, String name,
+                        JavaFileObject.Kind kind, FileObject sibling) {
+                        return new SimpleJavaFileObject(
+                            URI.create("bytes:///" + name.replace('.', '/')
+                                       + kind.extension), kind) {
+                            @Override
+                            public OutputStream openOutputStream() {
+                                return code;
+                            }
+                        };
+                    }
+                };
+            Boolean ok = javac.getTask(null, output, diagnostic -> { },
+                                       options, null, List.of(file)).call();
+            return ok ? code.toByteArray() : null;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Stand-in in MAKERS for configurations with no generated class. */
+    private static final MethodHandle NO_COMPILER =
+        MethodHandles.constant(Object.class, null);
+
+    /** Constructors of the generated classes, made or being made, by a
+     *  description of the alphabet, slots, and rotors in the slots. */
+    private static final ConcurrentHashMap<String, Future<MethodHandle>>
+        MAKERS = new ConcurrentHashMap<>();
+}
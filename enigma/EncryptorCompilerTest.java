@@ -0,0 +1,110 @@
+package enigma;
+
+import javax.tools.ToolProvider;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the EncryptorCompiler class.
+ *  @author jordanta
+ */
+public class EncryptorCompilerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return TEXT converted by ENC. */
+    static String convert(Encryptor enc, String text) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < text.length(); i += 1) {
+            result.append(UPPER.toChar(enc.convert(
+                                           UPPER.toInt(text.charAt(i)))));
+        }
+        return result.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testCompile() {
+        String plain = "";
+        for (int i = 0; i < 40; i += 1) {
+            plain += "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        }
+        Machine mach = navalMachine();
+        Encryptor enc = mach.compile();
+        int[] plug = enc.plugboard();
+        Encryptor interp = new Encryptor.Interpreted(
+            new Encryptor.Tables(mach), plug, new int[5]);
+        int[] settings = new int[5];
+        enc.positions(settings);
+        interp.setPositions(settings);
+        assertEquals(ToolProvider.getSystemJavaCompiler() != null,
+                     enc.generated());
+        String cipher = mach.convert(plain);
+        for (int i = 0; i < plain.length(); i += 1) {
+            int c = UPPER.toInt(plain.charAt(i));
+            assertEquals(cipher.charAt(i), UPPER.toChar(enc.convert(c)));
+            assertEquals(cipher.charAt(i), UPPER.toChar(interp.convert(c)));
+        }
+        assertSame(enc.getClass(), mach.compile().getClass());
+    }
+
+    @Test
+    public void testOrders() {
+        Machine mach = smallMachine();
+        Main.setUp(mach, "* B I II AQ");
+        Encryptor first = mach.compile();
+        Main.setUp(mach, "* B II I ZE (AT)");
+        Encryptor second = mach.compile();
+        if (first.generated()) {
+            assertNotSame(first.getClass(), second.getClass());
+        }
+        int[] settings = new int[3];
+        second.positions(settings);
+        assertEquals(UPPER.toInt('Z'), settings[1]);
+        assertEquals(UPPER.toInt('E'), settings[2]);
+        assertEquals(mach.convert(PLAIN), convert(second, PLAIN));
+        try {
+            second.setPositions(new int[] { 0, 0, 26 });
+            fail("setting out of range accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testRings() {
+        Machine mach = smallMachine();
+        Main.setUp(mach, "* B I II AQ (AT)");
+        Encryptor first = mach.compile();
+        assertEquals(mach.convert(PLAIN), convert(first, PLAIN));
+        for (String rings : new String[] { "AB", "CX", "ZZ" }) {
+            Main.setUp(mach, "* B I II AQ " + rings + " (AT)");
+            Encryptor enc = mach.compile();
+            assertSame(first.getClass(), enc.getClass());
+            assertEquals(UPPER.toInt(rings.charAt(1)), enc.ring(2));
+            assertEquals(rings, mach.convert(PLAIN), convert(enc, PLAIN));
+        }
+    }
+
+    @Test
+    public void testSource() {
+        Machine mach = smallMachine();
+        Main.setUp(mach, "* B I II AA");
+        String src = EncryptorCompiler.source(
+            new Encryptor.Tables(mach), new String[] { "B", "I", "II" });
+        assertTrue(src.contains("final class " + EncryptorCompiler.NAME
+                                + " extends Encryptor"));
+        assertTrue(src.contains("if (s2 == " + UPPER.toInt('E') + ")"));
+        assertFalse(src.contains("if (s1 == "));
+    }
+
+}
@@ -3,13 +3,15 @@ package enigma;
 /** A general-purpose error-reporting exception for this package.  All
  *  anticipated user or I/O errors should be reported through this
  *  exception, with the message being the error message to be printed.
+ *  Since the message says all there is to say, no stack trace is
+ *  recorded, which keeps throwing one nearly as cheap as returning.
  *  @author P. N. Hilfinger
  */
 class EnigmaException extends RuntimeException {
 
     /** An exception whose getMessage() value is MSG. */
     EnigmaException(String msg) {
-        super(msg);
+        super(msg, null, false, false);
     }
 
     /** A utility method that returns a new exception with a message
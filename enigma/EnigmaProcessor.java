@@ -0,0 +1,247 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.SubmissionPublisher;
+
+import static enigma.EnigmaException.*;
+
+/** A Flow.Processor that converts messages, each tagged with its own
+ *  settings line, on a bounded pool of machines copied from one
+ *  configured machine, and publishes the converted messages in their
+ *  order of arrival.  Upstream demand is requested in batches whose
+ *  size shrinks as the downstream buffer fills, so a slow subscriber
+ *  throttles the producer rather than growing a queue.
+ *  @author jordanta
+ */
+class EnigmaProcessor extends SubmissionPublisher<String>
+    implements Flow.Processor<EnigmaProcessor.Message, String> {
+
+    /** A message TEXT to be converted under the settings line SETTINGS,
+     *  which has the same format as in the input to Main. */
+    static final class Message {
+
+        /** A message TEXT tagged with SETTINGS. */
+        Message(String settings, String text) {
+            _settings = settings;
+            _text = text;
+        }
+
+        /** Return my settings line. */
+        String settings() {
+            return _settings;
+        }
+
+        /** Return my text. */
+        String text() {
+            return _text;
+        }
+
+        /** The settings line. */
+        private final String _settings;
+
+        /** The message text. */
+        private final String _text;
+    }
+
+    /** Default largest batch requested from upstream at once. */
+    static final int DEFAULT_MAX_BATCH = 64;
+
+    /** A processor converting on POOLSIZE copies of PROTOTYPE, requesting
+     *  at most MAXBATCH messages at a time, and buffering at most
+     *  BUFFERSIZE converted messages per subscriber. */
+    EnigmaProcessor(Machine prototype, int poolSize, int maxBatch,
+                    int bufferSize) {
+        this(prototype, poolSize, maxBatch, bufferSize,
+             Executors.newCachedThreadPool(EnigmaProcessor::daemon));
+    }
+
+    /** A processor as for EnigmaProcessor(PROTOTYPE, POOLSIZE, MAXBATCH,
+     *  BUFFERSIZE) that delivers to subscribers on DELIVERY. */
+    private EnigmaProcessor(Machine prototype, int poolSize, int maxBatch,
+                            int bufferSize, ExecutorService delivery) {
+        super(delivery, bufferSize);
+        _delivery = delivery;
+        if (poolSize < 1 || maxBatch < 1) {
+            throw error("pool and batch sizes must be positive");
+        }
+        _machines = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i += 1) {
+            _machines.add(prototype.copy());
+        }
+        _workers = Executors.newFixedThreadPool(poolSize,
+                                                EnigmaProcessor::daemon);
+        _dispatch = Executors.newSingleThreadExecutor(
+                        EnigmaProcessor::daemon);
+        _maxBatch = maxBatch;
+        _pending = new ArrayList<>();
+    }
+
+    /** A processor converting on POOLSIZE copies of PROTOTYPE with
+     *  default batch and buffer sizes. */
+    EnigmaProcessor(Machine prototype, int poolSize) {
+        this(prototype, poolSize, DEFAULT_MAX_BATCH,
+             Flow.defaultBufferSize());
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (_upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        _upstream = subscription;
+        requestBatch();
+    }
+
+    @Override
+    public void onNext(Message item) {
+        List<Message> batch = null;
+        synchronized (this) {
+            _pending.add(item);
+            if (_pending.size() >= _requested) {
+                batch = _pending;
+                _pending = new ArrayList<>();
+            }
+        }
+        if (batch != null) {
+            List<Message> full = batch;
+            _dispatch.execute(() -> {
+                if (publish(full)) {
+                    requestBatch();
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        List<Message> rest = takePending();
+        _dispatch.execute(() -> {
+            publish(rest);
+            closeExceptionally(throwable);
+            shutdown();
+        });
+    }
+
+    @Override
+    public void onComplete() {
+        List<Message> rest = takePending();
+        _dispatch.execute(() -> {
+            if (publish(rest)) {
+                close();
+            }
+            shutdown();
+        });
+    }
+
+    /** Return the number of messages to request next: the free space
+     *  in the fullest subscriber buffer, limited to between 1 and the
+     *  maximum batch size. */
+    int batchSize() {
+        int free = getMaxBufferCapacity() - estimateMaximumLag();
+        return Math.max(1, Math.min(_maxBatch, free));
+    }
+
+    /** Request the next batch of messages from upstream. */
+    private void requestBatch() {
+        int n = batchSize();
+        synchronized (this) {
+            _requested = n;
+        }
+        _upstream.request(n);
+    }
+
+    /** Remove and return all messages received but not yet converted. */
+    private synchronized List<Message> takePending() {
+        List<Message> rest = _pending;
+        _pending = new ArrayList<>();
+        _requested = Integer.MAX_VALUE;
+        return rest;
+    }
+
+    /** Convert BATCH on the machine pool and publish the results in
+     *  order, blocking while subscriber buffers are full.  Return false
+     *  (after closing exceptionally) if any conversion failed. */
+    private boolean publish(List<Message> batch) {
+        List<Future<String>> results = new ArrayList<>();
+        for (Message msg : batch) {
+            results.add(_workers.submit(() -> convert(msg)));
+        }
+        try {
+            for (Future<String> result : results) {
+                submit(result.get());
+            }
+            return true;
+        } catch (ExecutionException excp) {
+            fail(excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            fail(excp);
+        }
+        return false;
+    }
+
+    /** Abandon processing because of CAUSE. */
+    private void fail(Throwable cause) {
+        _upstream.cancel();
+        closeExceptionally(cause);
+        shutdown();
+    }
+
+    /** Return the conversion of MSG on a machine borrowed from the pool. */
+    private String convert(Message msg) throws InterruptedException {
+        Machine mach = _machines.take();
+        try {
+            Main.setUp(mach, msg.settings());
+            return mach.convert(msg.text().replaceAll("\\s+", ""));
+        } finally {
+            _machines.put(mach);
+        }
+    }
+
+    /** Stop my worker threads.  Deliveries already queued still run. */
+    private void shutdown() {
+        _workers.shutdown();
+        _dispatch.shutdown();
+        _delivery.shutdown();
+    }
+
+    /** Return a daemon thread running R. */
+    private static Thread daemon(Runnable r) {
+        Thread t = new Thread(r, "enigma-processor");
+        t.setDaemon(true);
+        return t;
+    }
+
+    /** Machines not currently converting a message. */
+    private final BlockingQueue<Machine> _machines;
+
+    /** Threads that run conversions. */
+    private final ExecutorService _workers;
+
+    /** Thread that converts and publishes batches, one at a time. */
+    private final ExecutorService _dispatch;
+
+    /** Threads that deliver published messages to subscribers. */
+    private final ExecutorService _delivery;
+
+    /** Largest number of messages requested at once. */
+    private final int _maxBatch;
+
+    /** Subscription to my producer. */
+    private Flow.Subscription _upstream;
+
+    /** Messages received in the current batch. */
+    private List<Message> _pending;
+
+    /** Size of the batch currently requested. */
+    private int _requested;
+}
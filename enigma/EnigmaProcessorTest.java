@@ -0,0 +1,108 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the EnigmaProcessor class.
+ *  @author jordanta
+ */
+public class EnigmaProcessorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A subscriber that requests one item at a time and records what
+     *  it receives. */
+    private static class Collector implements Flow.Subscriber<String> {
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            _subscription = s;
+            s.request(1);
+        }
+
+        @Override
+        public void onNext(String item) {
+            received.add(item);
+            _subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+
+        final List<String> received = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        Throwable error;
+        private Flow.Subscription _subscription;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testOrderedConversion() throws InterruptedException {
+        Machine mach = navalMachine();
+        String[] settings = {
+            "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+            "* B Beta I III IV AAAA",
+            "* B Beta IV I III ZZZZ (AB)",
+        };
+        String text = "FROM HIS SHOULDER HIAWATHA";
+        EnigmaProcessor proc = new EnigmaProcessor(mach, 2, 2, 4);
+        Collector sink = new Collector();
+        proc.subscribe(sink);
+        SubmissionPublisher<EnigmaProcessor.Message> source =
+            new SubmissionPublisher<>();
+        source.subscribe(proc);
+        for (int i = 0; i < 10; i += 1) {
+            source.submit(new EnigmaProcessor.Message(settings[i % 3],
+                                                      text));
+        }
+        source.close();
+        assertTrue(sink.done.await(4, TimeUnit.SECONDS));
+        assertNull(sink.error);
+        assertEquals(10, sink.received.size());
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW", sink.received.get(0));
+        for (int i = 0; i < 10; i += 1) {
+            Main.setUp(mach, settings[i % 3]);
+            assertEquals(mach.convert(text.replaceAll(" ", "")),
+                         sink.received.get(i));
+        }
+    }
+
+    @Test
+    public void testBadSettings() throws InterruptedException {
+        Machine mach = navalMachine();
+        EnigmaProcessor proc = new EnigmaProcessor(mach, 1);
+        Collector sink = new Collector();
+        proc.subscribe(sink);
+        SubmissionPublisher<EnigmaProcessor.Message> source =
+            new SubmissionPublisher<>();
+        source.subscribe(proc);
+        source.submit(new EnigmaProcessor.Message("* B Beta I I III AAAA",
+                                                  "HELLO"));
+        source.close();
+        assertTrue(sink.done.await(4, TimeUnit.SECONDS));
+        assertTrue(sink.error instanceof EnigmaException);
+    }
+}
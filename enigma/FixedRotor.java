@@ -17,14 +17,8 @@ class FixedRotor extends Rotor {
     void advance() {
     }
 
-
-    @Override
-    void set(int c) {
-        super.set(c);
-    }
-
     @Override
-    int setting() {
-        return super.getSetting();
+    Rotor copy() {
+        return new FixedRotor(name(), permutation());
     }
 }
@@ -0,0 +1,464 @@
+package enigma;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** Exhaustive search for the rotor order and settings of a ciphertext
+ *  enciphered with a known plugboard.  Every key in the machine's
+ *  KeySpace is tried and scored by the index of coincidence of its
+ *  trial decryption, by the likelihood of its trigrams under a model
+ *  trained on sample plaintext, or by its agreement with a crib; the
+ *  best are reported as settings lines.  Trigram and crib scores are
+ *  computed as the decryption proceeds, and a trial is abandoned once it
+ *  can no longer beat the K-th best score found by any thread.  A search
+ *  may save its progress periodically to a checkpoint file, and resumes
+ *  from that file when restarted.
+ *  @author jordanta
+ */
+public final class KeySearch {
+
+    /** Default number of candidates reported. */
+    static final int DEFAULT_TOP = 10;
+
+    /** Default seconds between checkpoints. */
+    static final int DEFAULT_INTERVAL = 60;
+
+    /** Number of keys tried by one task. */
+    static final long CHUNK = 1 << 14;
+
+    /** Search for the key of a ciphertext as specified by ARGS:
+     *  ARGS[0] names the configuration file and ARGS[1] a file holding
+     *  the ciphertext, whose whitespace is ignored.  Options give the
+     *  number of candidates to report, the number of threads, a
+     *  checkpoint file and the seconds between checkpoints, and the
+     *  plugboard in cycle notation.  --ngrams=FILE scores by trigrams
+     *  trained on the text in FILE, and --crib=POS:TEXT by agreement
+     *  with plaintext TEXT at position POS, allowing --mismatches=N
+     *  disagreements (default 0). */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--top=(\\d+){0,1} --threads=(\\d+){0,1} "
+                                + "--checkpoint=(.+){0,1} "
+                                + "--interval=(\\d+){0,1} "
+                                + "--plugboard=(.*){0,1} "
+                                + "--ngrams=(.+){0,1} --crib=(.+){0,1} "
+                                + "--mismatches=(\\d+){0,1} "
+                                + "--=(.*){2}",
+                                args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.KeySearch [--top=K] "
+                            + "[--threads=N] [--checkpoint=FILE] "
+                            + "[--interval=SECONDS] [--plugboard=CYCLES] "
+                            + "[--ngrams=FILE | --crib=POS:TEXT "
+                            + "[--mismatches=N]] "
+                            + "CONFIG CIPHERTEXT");
+            }
+            List<String> files = options.get("--");
+            Machine mach = Main.readConfig(ToolUtils.getInput(files.get(0)));
+            KeySearch search =
+                new KeySearch(mach, ToolUtils.readText(files.get(1)),
+                              ToolUtils.option(options, "--plugboard", ""),
+                              Integer.parseInt(
+                                  ToolUtils.option(options, "--top",
+                                                   "" + DEFAULT_TOP)));
+            if (options.contains("--ngrams")) {
+                CorpusStats sample = new CorpusStats(mach.alphabet());
+                sample.scan(Paths.get(options.getLast("--ngrams")), 1,
+                            CorpusStats.CHUNK);
+                search.setNGrams(sample.trigramLogProbs());
+            }
+            if (options.contains("--crib")) {
+                String crib = options.getLast("--crib");
+                int colon = crib.indexOf(':');
+                if (colon < 1 || !crib.substring(0, colon)
+                    .matches("\\d+")) {
+                    throw error("crib must be POS:TEXT");
+                }
+                search.setCrib(crib.substring(colon + 1),
+                               Integer.parseInt(crib.substring(0, colon)),
+                               Integer.parseInt(
+                                   ToolUtils.option(options, "--mismatches",
+                                                    "0")));
+            }
+            if (options.contains("--checkpoint")) {
+                search.setCheckpoint(
+                    Paths.get(options.getLast("--checkpoint")),
+                    TimeUnit.SECONDS.toMillis(Long.parseLong(
+                        ToolUtils.option(options, "--interval",
+                                         "" + DEFAULT_INTERVAL))));
+            }
+            int threads = Integer.parseInt(
+                ToolUtils.option(options, "--threads",
+                    "" + Runtime.getRuntime().availableProcessors()));
+            search.print(search.run(threads));
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A search of the keys of machines like MACH for those that decrypt
+     *  CIPHERTEXT best with the plugboard PLUGBOARD (in cycle notation),
+     *  keeping the best TOP candidates. */
+    KeySearch(Machine mach, String ciphertext, String plugboard, int top) {
+        Alphabet alpha = mach.alphabet();
+        for (int i = 0; i < ciphertext.length(); i += 1) {
+            if (!alpha.contains(ciphertext.charAt(i))) {
+                throw error("ciphertext character '%c' not in alphabet",
+                            ciphertext.charAt(i));
+            }
+        }
+        if (top < 1) {
+            throw error("must keep at least one candidate");
+        }
+        _machine = mach;
+        _keys = new KeySpace(mach);
+        _trial = new TrialDecryptor(mach, plugboard, ciphertext);
+        _scorers = () -> new TrialDecryptor.Coincidence(alpha.size());
+        _ciphertext = ciphertext;
+        _plugboard = plugboard;
+        _top = top;
+    }
+
+    /** Score trial decryptions by the sum of the log probabilities of
+     *  their trigrams, LOGPROBS[(A * size + B) * size + C] being that of
+     *  trigram A B C. */
+    void setNGrams(float[] logProbs) {
+        int size = _machine.alphabet().size();
+        if (logProbs.length != size * size * size) {
+            throw error("wrong number of trigram probabilities");
+        }
+        _scorers = () -> new TrialDecryptor.NGrams(size, logProbs);
+        _scoring = "ngrams " + Arrays.hashCode(logProbs);
+    }
+
+    /** Score trial decryptions by the number of their characters that
+     *  agree with CRIB, known plaintext at position POS, keeping only
+     *  those with at most MISMATCHES disagreements. */
+    void setCrib(String crib, int pos, int mismatches) {
+        Alphabet alpha = _machine.alphabet();
+        int[] text = new int[crib.length()];
+        for (int i = 0; i < text.length; i += 1) {
+            text[i] = alpha.toInt(crib.charAt(i));
+            if (text[i] < 0) {
+                throw error("crib character '%c' not in alphabet",
+                            crib.charAt(i));
+            }
+        }
+        if (text.length == 0 || pos < 0
+            || pos + text.length > _ciphertext.length()) {
+            throw error("crib does not fit in the ciphertext");
+        }
+        _scorers = () -> new TrialDecryptor.Crib(text, pos, mismatches);
+        _scoring = "crib " + pos + ":" + crib + " " + mismatches;
+    }
+
+    /** Save progress to FILE every INTERVAL milliseconds, resuming from
+     *  FILE if it already holds a checkpoint of this search. */
+    void setCheckpoint(Path file, long interval) {
+        _checkpointFile = file;
+        _checkpointInterval = interval;
+    }
+
+    /** Return the keys I search. */
+    KeySpace keySpace() {
+        return _keys;
+    }
+
+    /** Return the text to decrypt. */
+    String ciphertext() {
+        return _ciphertext;
+    }
+
+    /** Return the plugboard, in cycle notation. */
+    String plugboard() {
+        return _plugboard;
+    }
+
+    /** Return the number of candidates kept. */
+    int top() {
+        return _top;
+    }
+
+    /** Return the number of keys tried so far by this process. */
+    long evaluated() {
+        return _evaluated.get();
+    }
+
+    /** Return the number of characters decrypted so far by this process
+     *  with trigram or crib scoring. */
+    long decrypted() {
+        return _decrypted.get();
+    }
+
+    /** Return the score a trial decryption must reach to be kept: the
+     *  K-th best score known to any thread, or negative infinity. */
+    double threshold() {
+        return Double.longBitsToDouble(_threshold.get());
+    }
+
+    /** Raise the threshold to SCORE, the K-th best score among some set
+     *  of keys, if SCORE is higher. */
+    void raise(double score) {
+        long bits = Double.doubleToLongBits(score);
+        for (long old = _threshold.get();
+             score > Double.longBitsToDouble(old);
+             old = _threshold.get()) {
+            if (_threshold.compareAndSet(old, bits)) {
+                break;
+            }
+        }
+    }
+
+    /** Try every key not already tried according to the checkpoint file,
+     *  using THREADS threads, and return the best candidates found,
+     *  best first. */
+    List<Candidate> run(int threads) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompletionService<Chunk> tasks =
+            new ExecutorCompletionService<>(pool);
+        try {
+            List<long[]> ranges = begin(CHUNK);
+            for (long[] r : ranges) {
+                tasks.submit(() -> search(r[0], r[1]));
+            }
+            for (int n = ranges.size(); n > 0; n -= 1) {
+                record(tasks.take().get());
+            }
+            return finish();
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw error("search failed: %s", excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("search interrupted");
+        } finally {
+            pool.shutdownNow();
+            end();
+        }
+    }
+
+    /** Start a search, resuming from the checkpoint file if there is
+     *  one, and return the ranges of keys still to be tried, each at most
+     *  MAXLENGTH keys long.  Progress is saved if the process is shut
+     *  down before a call to end(). */
+    synchronized List<long[]> begin(long maxLength) {
+        _done = new RangeSet();
+        _best = new TopK(_top);
+        _threshold.set(Double.doubleToLongBits(Double.NEGATIVE_INFINITY));
+        if (_checkpointFile != null) {
+            SearchCheckpoint cp =
+                SearchCheckpoint.read(_checkpointFile, fingerprint(),
+                                      _keys.size());
+            if (cp != null) {
+                _done = cp.completed();
+                _best.offerAll(cp.candidates());
+                raise(_best.threshold());
+            }
+            _saver = new Thread(this::saveCheckpoint);
+            Runtime.getRuntime().addShutdownHook(_saver);
+        }
+        _lastSave = System.nanoTime();
+        List<long[]> ranges = new ArrayList<>();
+        long size = _keys.size();
+        for (long lo = _done.firstMissing(0); lo < size;
+             lo = _done.firstMissing(lo)) {
+            long hi = Math.min(Math.min(size, lo + maxLength),
+                               _done.firstPresent(lo));
+            ranges.add(new long[] { lo, hi });
+            lo = hi;
+        }
+        return ranges;
+    }
+
+    /** Record the completion of CHUNK, saving progress if a checkpoint
+     *  is due. */
+    synchronized void record(Chunk chunk) {
+        _done.add(chunk.lo, chunk.hi);
+        _best.offerAll(chunk.top.best());
+        raise(_best.threshold());
+        if (System.nanoTime() - _lastSave
+            >= TimeUnit.MILLISECONDS.toNanos(_checkpointInterval)) {
+            saveCheckpoint();
+        }
+    }
+
+    /** Save progress and return the best candidates, best first. */
+    synchronized List<Candidate> finish() {
+        saveCheckpoint();
+        return _best.best();
+    }
+
+    /** Stop saving progress at shutdown. */
+    synchronized void end() {
+        if (_saver != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(_saver);
+            } catch (IllegalStateException excp) {
+                /* Already shutting down; the hook saves. */
+            }
+            _saver = null;
+        }
+    }
+
+    /** The keys [LO, HI) and the best candidates among them. */
+    static final class Chunk {
+
+        /** A chunk of keys [LO, HI) whose best candidates are TOP. */
+        Chunk(long lo, long hi, TopK top) {
+            this.lo = lo;
+            this.hi = hi;
+            this.top = top;
+        }
+
+        /** Bounds of the keys tried. */
+        final long lo, hi;
+
+        /** Best candidates among them. */
+        final TopK top;
+    }
+
+    /** Write my progress to the checkpoint file, if there is one. */
+    private synchronized void saveCheckpoint() {
+        if (_checkpointFile != null && _done != null) {
+            new SearchCheckpoint(fingerprint(), _keys.size(), _done,
+                                 _best.best()).write(_checkpointFile);
+        }
+        _lastSave = System.nanoTime();
+    }
+
+    /** Try keys [LO, HI) and return the best candidates.  The keys are
+     *  decrypted in groups by a TrialDecryptor.  With a Bounded scorer,
+     *  trials that cannot beat the shared threshold are abandoned. */
+    Chunk search(long lo, long hi) {
+        TopK top = new TopK(_top);
+        TrialDecryptor.Scorer scorer = _scorers.get();
+        TrialDecryptor.Bounded bounded =
+            scorer instanceof TrialDecryptor.Bounded
+            ? (TrialDecryptor.Bounded) scorer : null;
+        for (long key = lo; key < hi; ) {
+            int lanes = bounded == null
+                ? _trial.decrypt(_keys, key, hi, scorer)
+                : _trial.decrypt(_keys, key, hi, bounded, this::threshold);
+            for (int l = 0; l < lanes; l += 1) {
+                double score = scorer.score(l);
+                if (score > top.threshold()) {
+                    top.offer(new Candidate(key + l, score));
+                }
+            }
+            if (bounded != null && top.size() == top.capacity()) {
+                raise(top.threshold());
+            }
+            key += lanes;
+        }
+        _evaluated.addAndGet(hi - lo);
+        if (bounded != null) {
+            _decrypted.addAndGet(bounded.decrypted());
+        }
+        return new Chunk(lo, hi, top);
+    }
+
+    /** Return the index of coincidence of TEXT, whose characters are
+     *  in ALPHA. */
+    static double score(String text, Alphabet alpha) {
+        int[] counts = new int[alpha.size()];
+        for (int i = 0; i < text.length(); i += 1) {
+            counts[alpha.toInt(text.charAt(i))] += 1;
+        }
+        long n = text.length(), sum = 0;
+        for (int c : counts) {
+            sum += (long) c * (c - 1);
+        }
+        return n < 2 ? 0.0 : (double) sum / (n * (n - 1));
+    }
+
+    /** Return a value identifying this search: its machine, ciphertext,
+     *  plugboard, scoring, and the division of its keys into tasks. */
+    long fingerprint() {
+        return KeySpace.fingerprint(KeySpace.describe(_machine)
+                                    + _plugboard + "\n" + _ciphertext
+                                    + "\n" + CHUNK + _scoring);
+    }
+
+    /** Print CANDIDATES on the standard output, one settings line and
+     *  score per line. */
+    void print(List<Candidate> candidates) {
+        for (Candidate c : candidates) {
+            System.out.printf("%s  %.6f%n",
+                              _keys.settingsLine(c.key(), _plugboard),
+                              c.score());
+        }
+    }
+
+    /** The machine searched. */
+    private final Machine _machine;
+
+    /** Decrypts the ciphertext under the keys searched. */
+    private final TrialDecryptor _trial;
+
+    /** The keys searched. */
+    private final KeySpace _keys;
+
+    /** Text to decrypt. */
+    private final String _ciphertext;
+
+    /** Plugboard, in cycle notation. */
+    private final String _plugboard;
+
+    /** Number of candidates kept. */
+    private final int _top;
+
+    /** Makes a scorer for each task. */
+    private Supplier<TrialDecryptor.Scorer> _scorers;
+
+    /** Description of the scoring, empty for the index of
+     *  coincidence. */
+    private String _scoring = "";
+
+    /** Bits of the threshold() shared by all tasks. */
+    private final AtomicLong _threshold =
+        new AtomicLong(Double.doubleToLongBits(Double.NEGATIVE_INFINITY));
+
+    /** Checkpoint file, or null if progress is not saved. */
+    private Path _checkpointFile;
+
+    /** Milliseconds between checkpoints. */
+    private long _checkpointInterval;
+
+    /** Keys tried, here or in earlier runs. */
+    private RangeSet _done;
+
+    /** Best candidates among the keys tried. */
+    private TopK _best;
+
+    /** System.nanoTime() of the last checkpoint. */
+    private long _lastSave;
+
+    /** Shutdown hook that saves progress, or null. */
+    private Thread _saver;
+
+    /** Keys tried in this process. */
+    private final AtomicLong _evaluated = new AtomicLong();
+
+    /** Characters decrypted in this process by Bounded scorers. */
+    private final AtomicLong _decrypted = new AtomicLong();
+}
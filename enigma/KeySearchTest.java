@@ -0,0 +1,273 @@
+package enigma;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the KeySearch class.
+ *  @author jordanta
+ */
+public class KeySearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Directory for checkpoint files. */
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Plugboard used for the ciphertext. */
+    static final String PLUGS = "(AT) (HQ)";
+
+    /** Return PLAIN enciphered under SETTINGS. */
+    static String encipher(String settings) {
+        return TestUtils.encipher(settings, PLAIN);
+    }
+
+    /** Return a search for the key of CIPHER. */
+    static KeySearch search(String cipher) {
+        return new KeySearch(smallMachine(), cipher,
+                             PLUGS, 3);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testKeySpace() {
+        KeySpace keys = new KeySpace(smallMachine());
+        assertEquals(2, keys.numOrders());
+        assertEquals(2 * 26 * 26, keys.size());
+        long key = keys.size() - 1;
+        assertEquals("ZZ", keys.setting(key));
+        assertEquals("* B II I ZZ (AT)",
+                     keys.settingsLine(key, "(AT)"));
+        assertEquals("AB", keys.setting(1));
+    }
+
+    @Test
+    public void testTrialDecryptor() {
+        String cipher = encipher("* B II I QF " + PLUGS);
+        Machine mach = smallMachine();
+        KeySpace keys = new KeySpace(mach);
+        TrialDecryptor trial = new TrialDecryptor(mach, PLUGS, cipher);
+        TrialDecryptor.Scorer scorer = new TrialDecryptor.Coincidence(26);
+        mach.setPlugboard(new Permutation(PLUGS, mach.alphabet()));
+        int groups = 0;
+        for (long key = 0; key < keys.size(); groups += 1) {
+            int lanes = trial.decrypt(keys, key, keys.size(), scorer);
+            for (int l = 0; l < lanes; l += 1) {
+                mach.insertRotors(keys.rotors(key + l));
+                mach.setRotors(keys.setting(key + l));
+                assertEquals(KeySearch.score(mach.convert(cipher),
+                                             mach.alphabet()),
+                             scorer.score(l), 0.0);
+            }
+            key += lanes;
+        }
+        assertEquals(2 * ((26 * 26 + TrialDecryptor.LANES - 1)
+                          / TrialDecryptor.LANES), groups);
+    }
+
+    @Test
+    public void testNGramSearch() {
+        String cipher = encipher("* B II I QF " + PLUGS);
+        Machine mach = smallMachine();
+        CorpusStats sample = new CorpusStats(mach.alphabet());
+        sample.scan(PLAIN.repeat(50));
+        float[] logProbs = sample.trigramLogProbs();
+        KeySearch search =
+            new KeySearch(mach.copy(), cipher, PLUGS, 1);
+        search.setNGrams(logProbs);
+        KeySpace keys = search.keySpace();
+        TopK expected = new TopK(1);
+        mach.setPlugboard(new Permutation(PLUGS, mach.alphabet()));
+        for (long key = 0; key < keys.size(); key += 1) {
+            mach.insertRotors(keys.rotors(key));
+            mach.setRotors(keys.setting(key));
+            String plain = mach.convert(cipher);
+            double sum = 0;
+            for (int i = 2; i < plain.length(); i += 1) {
+                int t = 0;
+                for (int k = i - 2; k <= i; k += 1) {
+                    t = t * 26 + mach.alphabet().toInt(plain.charAt(k));
+                }
+                sum += logProbs[t];
+            }
+            expected.offer(new Candidate(key, sum));
+        }
+        List<Candidate> best = search.run(1);
+        assertEquals(expected.best(), best);
+        assertEquals("* B II I QF " + PLUGS,
+                     keys.settingsLine(best.get(0).key(), PLUGS));
+        assertTrue(search.decrypted() < keys.size() * cipher.length());
+    }
+
+    @Test
+    public void testCribSearch() {
+        String cipher = encipher("* B I II DG " + PLUGS);
+        KeySearch search = search(cipher);
+        int pos = PLAIN.indexOf("HIAWATHA");
+        search.setCrib("HIAWATHA", pos, 1);
+        List<Candidate> best = search.run(2);
+        assertEquals(1, best.size());
+        assertEquals("* B I II DG " + PLUGS,
+                     search.keySpace().settingsLine(best.get(0).key(),
+                                                    PLUGS));
+        assertEquals(8.0, best.get(0).score(), 0.0);
+        assertTrue(search.decrypted() < search.keySpace().size() * 3);
+    }
+
+    @Test
+    public void testFindsKey() {
+        KeySearch search = search(encipher("* B II I QF " + PLUGS));
+        List<Candidate> best = search.run(2);
+        assertEquals(3, best.size());
+        assertEquals("* B II I QF " + PLUGS,
+                     search.keySpace().settingsLine(best.get(0).key(),
+                                                    PLUGS));
+        assertEquals(search.keySpace().size(), search.evaluated());
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        String cipher = encipher("* B I II DG " + PLUGS);
+        Path file = tmp.newFile("search.ckpt").toPath();
+        KeySearch first = search(cipher);
+        first.setCheckpoint(file, 0);
+        List<Candidate> best = first.run(2);
+        assertTrue(file.toFile().length() > 0);
+
+        KeySearch again = search(cipher);
+        again.setCheckpoint(file, 0);
+        assertEquals(best, again.run(2));
+        assertEquals(0, again.evaluated());
+    }
+
+    @Test
+    public void testPartialResume() throws IOException {
+        String cipher = encipher("* B I II DG " + PLUGS);
+        KeySearch search = search(cipher);
+        long half = search.keySpace().size() / 2;
+        RangeSet done = new RangeSet();
+        done.add(0, half);
+        Path file = tmp.newFile("half.ckpt").toPath();
+        new SearchCheckpoint(search.fingerprint(), search.keySpace().size(),
+                             done, new ArrayList<>()).write(file);
+        search.setCheckpoint(file, 0);
+        search.run(1);
+        assertEquals(search.keySpace().size() - half, search.evaluated());
+        SearchCheckpoint cp =
+            SearchCheckpoint.read(file, search.fingerprint(),
+                                  search.keySpace().size());
+        assertTrue(cp.completed().covers(0, search.keySpace().size()));
+        assertEquals(3, cp.candidates().size());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testWrongCheckpoint() throws IOException {
+        Path file = tmp.newFile("other.ckpt").toPath();
+        KeySearch search = search(encipher("* B I II DG"));
+        new SearchCheckpoint(search.fingerprint() + 1,
+                             search.keySpace().size(), new RangeSet(),
+                             new ArrayList<>()).write(file);
+        search.setCheckpoint(file, 0);
+        search.run(1);
+    }
+
+    /** Start a thread that connects to PORT as a worker, takes one lease,
+     *  holds it for HOLD milliseconds without answering, and disconnects.
+     *  Count down LEASED once it has the lease. */
+    private static Thread faultyWorker(int port, long hold,
+                                       CountDownLatch leased) {
+        Thread t = new Thread(() -> {
+            try (Socket s = new Socket("localhost", port)) {
+                DataInputStream inp =
+                    new DataInputStream(s.getInputStream());
+                inp.readInt();
+                inp.readLong();
+                inp.readInt();
+                for (int i = 0; i < 3; i += 1) {
+                    ToolUtils.readString(inp);
+                }
+                inp.readLong();
+                inp.readLong();
+                leased.countDown();
+                Thread.sleep(hold);
+            } catch (IOException | InterruptedException excp) {
+                leased.countDown();
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    @Test
+    public void testCoordinator() throws Exception {
+        String cipher = encipher("* B II I QF " + PLUGS);
+        List<Candidate> expected = search(cipher).run(1);
+        KeySearch search = search(cipher);
+        SearchCoordinator coord =
+            new SearchCoordinator(search, SMALL_CONFIG, 100, 300);
+        try (ServerSocket server = new ServerSocket(0)) {
+            int port = server.getLocalPort();
+            CountDownLatch leased = new CountDownLatch(2);
+            faultyWorker(port, 0, leased);
+            faultyWorker(port, 1000, leased);
+            Thread worker = new Thread(() -> {
+                try (Socket s = new Socket("localhost", port)) {
+                    leased.await();
+                    new SearchWorker(2).work(s);
+                } catch (IOException | InterruptedException excp) {
+                    return;
+                }
+            });
+            worker.start();
+            assertEquals(expected, coord.serve(server));
+            worker.join();
+        }
+    }
+
+    @Test
+    public void testCoordinatorFailure() throws Exception {
+        KeySearch search = search(encipher("* B II I QF"));
+        search.setCheckpoint(
+            tmp.getRoot().toPath().resolve("missing").resolve("ckpt"), 0);
+        SearchCoordinator coord =
+            new SearchCoordinator(search, SMALL_CONFIG, 100, 300);
+        try (ServerSocket server = new ServerSocket(0)) {
+            int port = server.getLocalPort();
+            Thread worker = new Thread(() -> {
+                try (Socket s = new Socket("localhost", port)) {
+                    new SearchWorker(1).work(s);
+                } catch (IOException excp) {
+                    return;
+                }
+            });
+            worker.start();
+            try {
+                coord.serve(server);
+                fail("unwritable checkpoint accepted");
+            } catch (EnigmaException excp) {
+                assertTrue(excp.getMessage()
+                           .startsWith("could not write checkpoint"));
+            }
+            worker.join();
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package enigma;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** Generates key sheets: lists of distinct random keys for a machine,
+ *  each printed as a settings line in the input format of Main.  A key
+ *  is a legal rotor order (as in KeySpace), the settings of the rotors,
+ *  optionally their ring settings, and a plugboard of a given number of
+ *  pairs.  Keys are drawn in chunks on several threads, each chunk from
+ *  a random sequence determined by the seed and its position.  The
+ *  chunks are written in order, and as each key is written it is kept
+ *  only if its 64-bit fingerprint is not yet in a LongHashSet, so no key
+ *  appears twice on a sheet; a key rejected (or whose fingerprint merely
+ *  collides with another's) is replaced by the next key of its chunk's
+ *  sequence.  Since keys are accepted in order, a sheet is reproducible
+ *  from its seed, whatever the number of threads.  So that few keys are
+ *  redrawn, a sheet may hold at most MAX_FILL of the possible keys.
+ *  @author jordanta
+ */
+public final class KeySheet {
+
+    /** Generate a key sheet as specified by ARGS:
+     *      --count=N [--pairs=P] [--rings] [--seed=S] [--threads=T]
+     *      CONFIG [OUTPUT]
+     *  The sheet has N keys for the machine described by CONFIG, with P
+     *  plugboard pairs (by default, 10 or as many as the alphabet
+     *  allows), random ring settings if --rings is given, drawn with
+     *  seed S on T threads.  It is written to OUTPUT, if given, and
+     *  otherwise to the standard output.  Exits normally if there are no
+     *  errors; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--count=(\\d+) --pairs=(\\d+){0,1} --rings "
+                                + "--seed=(-?\\d+){0,1} "
+                                + "--threads=(\\d+){0,1} --=(.*){1,2}",
+                                args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.KeySheet --count=N "
+                            + "[--pairs=P] [--rings] [--seed=S] "
+                            + "[--threads=T] CONFIG [OUTPUT]");
+            }
+            List<String> files = options.get("--");
+            Machine mach = Main.readConfig(ToolUtils.getInput(files.get(0)));
+            int pairs = Integer.parseInt(
+                ToolUtils.option(options, "--pairs",
+                                 "" + Math.min(PAIRS,
+                                               mach.alphabet().size() / 2)));
+            KeySheet sheet =
+                new KeySheet(mach, pairs, options.contains("--rings"));
+            int threads = Integer.parseInt(
+                ToolUtils.option(options, "--threads",
+                       "" + Runtime.getRuntime().availableProcessors()));
+            long seed = Long.parseLong(
+                ToolUtils.option(options, "--seed", "" + System.nanoTime()));
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                     files.size() > 1 ? new FileOutputStream(files.get(1))
+                     : System.out, StandardCharsets.UTF_8))) {
+                sheet.write(out, Integer.parseInt(options.getLast("--count")),
+                            seed, threads);
+            } catch (IOException excp) {
+                throw error("I/O error: %s", excp.getMessage());
+            }
+            return;
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: number too large%n");
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A generator of keys for MACH with PAIRS plugboard pairs, and
+     *  random ring settings iff RINGS.  A key has a reflector in slot 0,
+     *  distinct rotors without pawls in the next slots, and distinct
+     *  moving rotors in the last numPawls() slots, as KeySpace does; one
+     *  such order is checked by inserting it into MACH and setting its
+     *  rotors. */
+    KeySheet(Machine mach, int pairs, boolean rings) {
+        _alphabet = mach.alphabet();
+        _numRotors = mach.numRotors();
+        _firstMoving = _numRotors - mach.numPawls();
+        _pairs = pairs;
+        _rings = rings;
+        List<String> reflectors = new ArrayList<>();
+        List<String> fixed = new ArrayList<>();
+        List<String> moving = new ArrayList<>();
+        for (Rotor r : mach.allRotors()) {
+            if (r instanceof Reflector) {
+                reflectors.add(r.name());
+            } else if (r.rotates()) {
+                moving.add(r.name());
+            } else {
+                fixed.add(r.name());
+            }
+        }
+        _reflectors = reflectors.toArray(new String[0]);
+        _fixed = fixed.toArray(new String[0]);
+        _moving = moving.toArray(new String[0]);
+        if (_reflectors.length == 0 || _firstMoving < 1
+            || _fixed.length < _firstMoving - 1
+            || _moving.length < _numRotors - _firstMoving) {
+            throw error("no legal rotor orders");
+        }
+        if (pairs < 0 || 2 * pairs > _alphabet.size()) {
+            throw error("too many plugboard pairs: %d", pairs);
+        }
+        String[] order = new String[_numRotors];
+        order[0] = _reflectors[0];
+        for (int k = 1; k < _numRotors; k += 1) {
+            order[k] = k < _firstMoving ? _fixed[k - 1]
+                : _moving[k - _firstMoving];
+        }
+        char[] setting = new char[_numRotors - 1];
+        Arrays.fill(setting, _alphabet.toChar(0));
+        mach.insertRotors(order);
+        mach.setRotors(new String(setting), rings ? new String(setting)
+                       : null);
+    }
+
+    /** Return the number of distinct keys I may generate (approximately,
+     *  if it is large). */
+    double numKeys() {
+        int size = _alphabet.size();
+        double result = _reflectors.length;
+        for (int k = 1; k < _numRotors; k += 1) {
+            result *= k < _firstMoving ? _fixed.length - (k - 1)
+                : _moving.length - (k - _firstMoving);
+            result *= _rings ? (double) size * size : size;
+        }
+        for (int i = 0; i < _pairs; i += 1) {
+            result *= (double) (size - 2 * i) * (size - 2 * i - 1)
+                / (2 * (i + 1));
+        }
+        return result;
+    }
+
+    /** Write COUNT distinct keys, one settings line each, to OUT, drawing
+     *  them with seed SEED on THREADS threads. */
+    void write(Writer out, int count, long seed, int threads)
+        throws IOException {
+        if (count > MAX_FILL * numKeys()) {
+            throw error("only %.0f distinct keys; at most %.0f may be drawn",
+                        numKeys(), Math.floor(MAX_FILL * numKeys()));
+        }
+        LongHashSet seen = new LongHashSet(count);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "keysheet");
+                t.setDaemon(true);
+                return t;
+            });
+        ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+        try {
+            for (long index = 0; index * CHUNK < count; index += 1) {
+                long chunk = index;
+                int n = (int) Math.min(CHUNK, count - index * CHUNK);
+                while (pending.size() >= 2 * threads) {
+                    writeNext(pending, out, seen);
+                }
+                pending.add(pool.submit(() -> chunk(seed, chunk, n)));
+            }
+            while (!pending.isEmpty()) {
+                writeNext(pending, out, seen);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Return the first N keys of the random sequence for chunk INDEX
+     *  of the sheet with seed SEED. */
+    private Chunk chunk(long seed, long index, int n) {
+        Chunk result = new Chunk(new SplittableRandom(
+            LongHashSet.mix(seed ^ LongHashSet.mix(index + 1))), n);
+        for (int i = 0; i < n; i += 1) {
+            result.fingerprints[i] = draw(result, result.lines);
+            result.ends[i] = result.lines.length();
+        }
+        return result;
+    }
+
+    /** Append the settings line of the next key of CHUNK's random
+     *  sequence to OUT, and return the key's fingerprint. */
+    private long draw(Chunk chunk, StringBuilder out) {
+        SplittableRandom rand = chunk.rand;
+        int size = _alphabet.size();
+        int[] rotors = chunk.rotors, settings = chunk.settings;
+        int[] letters = chunk.letters, partner = chunk.partner;
+        rotors[0] = rand.nextInt(_reflectors.length);
+        long fingerprint = LongHashSet.mix(rotors[0]);
+        for (int k = 1; k < _numRotors; k += 1) {
+            int first = k < _firstMoving ? 1 : _firstMoving;
+            int pool = k < _firstMoving ? _fixed.length : _moving.length;
+            do {
+                rotors[k] = rand.nextInt(pool);
+            } while (used(rotors, first, k));
+            settings[k] = rand.nextInt(size);
+            settings[_numRotors + k] = _rings ? rand.nextInt(size) : 0;
+            fingerprint = LongHashSet.mix(fingerprint + rotors[k]);
+            fingerprint = LongHashSet.mix(
+                fingerprint + settings[k] * size
+                + settings[_numRotors + k]);
+        }
+        for (int c = 0; c < size; c += 1) {
+            letters[c] = partner[c] = c;
+        }
+        for (int p = 0; p < 2 * _pairs; p += 2) {
+            int a = pick(rand, letters, p),
+                b = pick(rand, letters, p + 1);
+            partner[a] = b;
+            partner[b] = a;
+        }
+        for (int c = 0; c < size; c += 1) {
+            fingerprint = LongHashSet.mix(fingerprint + partner[c]);
+        }
+        append(out, rotors, settings, partner);
+        return fingerprint;
+    }
+
+    /** Return true iff ROTORS[K] equals one of ROTORS[FIRST .. K-1]. */
+    private static boolean used(int[] rotors, int first, int k) {
+        for (int j = first; j < k; j += 1) {
+            if (rotors[j] == rotors[k]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Append to OUT the settings line, ended by a newline, of the key
+     *  with the rotors numbered ROTORS in their pools, the settings
+     *  SETTINGS[1 .. numRotors-1] and ring settings after them, and the
+     *  plugboard that takes each letter C to PARTNER[C]. */
+    private void append(StringBuilder out, int[] rotors, int[] settings,
+                        int[] partner) {
+        out.append("* ").append(_reflectors[rotors[0]]);
+        for (int k = 1; k < _numRotors; k += 1) {
+            out.append(' ').append(k < _firstMoving ? _fixed[rotors[k]]
+                                   : _moving[rotors[k]]);
+        }
+        out.append(' ');
+        for (int k = 1; k < _numRotors; k += 1) {
+            out.append(_alphabet.toChar(settings[k]));
+        }
+        if (_rings) {
+            out.append(' ');
+            for (int k = 1; k < _numRotors; k += 1) {
+                out.append(_alphabet.toChar(settings[_numRotors + k]));
+            }
+        }
+        for (int c = 0; c < partner.length; c += 1) {
+            if (partner[c] > c) {
+                out.append(" (").append(_alphabet.toChar(c))
+                    .append(_alphabet.toChar(partner[c])).append(')');
+            }
+        }
+        out.append('\n');
+    }
+
+    /** Return a random one of LETTERS[K ..], swapping it into
+     *  LETTERS[K], using RAND. */
+    private static int pick(SplittableRandom rand, int[] letters, int k) {
+        int j = k + rand.nextInt(letters.length - k);
+        int result = letters[j];
+        letters[j] = letters[k];
+        letters[k] = result;
+        return result;
+    }
+
+    /** Write the keys of the first chunk of PENDING that are not in
+     *  SEEN to OUT, adding them to SEEN and replacing each of the others
+     *  by the next new key of the chunk's sequence.  Remove the chunk. */
+    private void writeNext(ArrayDeque<Future<Chunk>> pending, Writer out,
+                           LongHashSet seen) throws IOException {
+        try {
+            Chunk chunk = pending.remove().get();
+            StringBuilder redrawn = new StringBuilder(LINE);
+            for (int i = 0, start = 0; i < chunk.ends.length; i += 1) {
+                if (seen.add(chunk.fingerprints[i])) {
+                    out.append(chunk.lines, start, chunk.ends[i]);
+                } else {
+                    int tries;
+                    for (tries = 0; tries < MAX_REDRAWS; tries += 1) {
+                        redrawn.setLength(0);
+                        if (seen.add(draw(chunk, redrawn))) {
+                            break;
+                        }
+                    }
+                    if (tries == MAX_REDRAWS) {
+                        throw error("could not draw a new key in %d tries",
+                                    MAX_REDRAWS);
+                    }
+                    out.append(redrawn);
+                }
+                start = chunk.ends[i];
+            }
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw new IllegalStateException("key generation failed",
+                                            excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        }
+    }
+
+    /** Keys drawn for one task, and the random sequence from which any
+     *  replacements for them are drawn. */
+    private final class Chunk {
+
+        /** A chunk of N keys to be drawn from RAND. */
+        Chunk(SplittableRandom rand, int n) {
+            this.rand = rand;
+            fingerprints = new long[n];
+            ends = new int[n];
+            lines = new StringBuilder(n * LINE);
+            int size = _alphabet.size();
+            rotors = new int[_numRotors];
+            settings = new int[2 * _numRotors];
+            letters = new int[size];
+            partner = new int[size];
+        }
+
+        /** The random sequence of the chunk. */
+        final SplittableRandom rand;
+
+        /** Fingerprints of the keys drawn. */
+        final long[] fingerprints;
+
+        /** End of each key's line in LINES. */
+        final int[] ends;
+
+        /** Settings lines of the keys drawn. */
+        final StringBuilder lines;
+
+        /** Scratch space for draw: rotor numbers, settings and ring
+         *  settings, plugboard letters, and plugboard partners. */
+        final int[] rotors, settings, letters, partner;
+    }
+
+    /** Default number of plugboard pairs. */
+    private static final int PAIRS = 10;
+
+    /** Keys drawn by one task. */
+    static final int CHUNK = 4096;
+
+    /** Largest fraction of the possible keys a sheet may hold. */
+    static final double MAX_FILL = 0.5;
+
+    /** Most keys drawn to replace one already on the sheet.  With at
+     *  most MAX_FILL of the keys taken, each draw fails with probability
+     *  at most MAX_FILL, so running out means the fingerprints collide. */
+    static final int MAX_REDRAWS = 64;
+
+    /** Typical length of a settings line. */
+    private static final int LINE = 64;
+
+    /** Names of the reflectors, of the rotors without pawls, and of
+     *  the moving rotors. */
+    private final String[] _reflectors, _fixed, _moving;
+
+    /** Number of slots, and the first slot with a pawl. */
+    private final int _numRotors, _firstMoving;
+
+    /** Alphabet of the machine. */
+    private final Alphabet _alphabet;
+
+    /** Number of plugboard pairs. */
+    private final int _pairs;
+
+    /** True iff ring settings are drawn. */
+    private final boolean _rings;
+}
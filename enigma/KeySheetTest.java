@@ -0,0 +1,90 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the KeySheet and LongHashSet
+ *  classes.
+ *  @author jordanta
+ */
+public class KeySheetTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a sheet of COUNT keys drawn by SHEET with SEED on THREADS
+     *  threads. */
+    static String sheet(KeySheet sheet, int count, long seed, int threads)
+        throws IOException {
+        StringWriter out = new StringWriter();
+        sheet.write(out, count, seed, threads);
+        return out.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testHashSet() {
+        LongHashSet set = new LongHashSet(1000);
+        HashSet<Long> expected = new HashSet<>();
+        Random rand = new Random(48);
+        for (int i = 0; i < 1000; i += 1) {
+            long x = i % 10 == 0 ? 0 : rand.nextInt(700) * 0x10000000000L;
+            assertEquals(expected.add(x), set.add(x));
+        }
+        assertEquals(expected.size(), set.size());
+        for (long x = 0; x < 700; x += 1) {
+            assertEquals(expected.contains(x * 0x10000000000L),
+                         set.contains(x * 0x10000000000L));
+        }
+    }
+
+    @Test
+    public void testSheet() throws IOException {
+        KeySheet keys = new KeySheet(smallMachine(), 3, true);
+        int count = 3 * KeySheet.CHUNK + 17;
+        String text = sheet(keys, count, 7, 4);
+        String[] lines = text.split("\n");
+        assertEquals(count, lines.length);
+        assertEquals(count, new HashSet<>(Arrays.asList(lines)).size());
+        Machine mach = smallMachine();
+        for (String line : lines) {
+            assertTrue(line, line.matches(
+                           "\\* B I{1,2} I{1,2} [A-Z]{2} [A-Z]{2}"
+                           + "( \\([A-Z]{2}\\)){3}"));
+            Main.setUp(mach, line);
+        }
+        assertEquals(text, sheet(keys, count, 7, 1));
+        assertNotEquals(text, sheet(keys, count, 8, 1));
+    }
+
+    @Test
+    public void testSmallSpace() throws IOException {
+        KeySheet keys = new KeySheet(smallMachine(), 0, false);
+        assertEquals(2 * 26 * 26, keys.numKeys(), 0);
+        String text = sheet(keys, 26 * 26, 1, 2);
+        assertEquals(26 * 26,
+                     new HashSet<>(Arrays.asList(text.split("\n"))).size());
+        assertEquals(text, sheet(keys, 26 * 26, 1, 3));
+        try {
+            sheet(keys, 26 * 26 + 1, 1, 2);
+            fail("more than half the possible keys drawn");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+}
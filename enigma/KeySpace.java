@@ -0,0 +1,181 @@
+package enigma;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static enigma.EnigmaException.*;
+
+/** The keys that may be tried on a machine: every legal placement of its
+ *  available rotors in its slots, combined with every setting of the
+ *  rotors to the right of the reflector.  Keys are numbered from 0 so that
+ *  consecutive keys share a rotor order and differ in their settings,
+ *  with the fast rotor's setting varying fastest.
+ *  @author jordanta
+ */
+class KeySpace {
+
+    /** The keys for a machine like MACH: a reflector in slot 0, rotors
+     *  without pawls in the next slots, and moving rotors in the last
+     *  numPawls() slots, never using one rotor twice. */
+    KeySpace(Machine mach) {
+        _alphabet = mach.alphabet();
+        _numRotors = mach.numRotors();
+        List<String> reflectors = new ArrayList<>();
+        List<String> fixed = new ArrayList<>();
+        List<String> moving = new ArrayList<>();
+        for (Rotor r : mach.allRotors()) {
+            if (r instanceof Reflector) {
+                reflectors.add(r.name());
+            } else if (r.rotates()) {
+                moving.add(r.name());
+            } else {
+                fixed.add(r.name());
+            }
+        }
+        _orders = new ArrayList<>();
+        String[] order = new String[_numRotors];
+        int firstMoving = _numRotors - mach.numPawls();
+        for (String reflector : reflectors) {
+            order[0] = reflector;
+            addOrders(order, 1, firstMoving, fixed, moving);
+        }
+        long positions = 1;
+        for (int i = 1; i < _numRotors; i += 1) {
+            if (positions > Long.MAX_VALUE / _alphabet.size()) {
+                throw error("key space too large");
+            }
+            positions *= _alphabet.size();
+        }
+        _positions = positions;
+        if (!_orders.isEmpty()
+            && _positions > Long.MAX_VALUE / _orders.size()) {
+            throw error("key space too large");
+        }
+    }
+
+    /** Add to _orders every completion of ORDER from slot K on, taking
+     *  slots before FIRSTMOVING from FIXED and the rest from MOVING. */
+    private void addOrders(String[] order, int k, int firstMoving,
+                           List<String> fixed, List<String> moving) {
+        if (k == order.length) {
+            _orders.add(order.clone());
+            return;
+        }
+        List<String> pool = k < firstMoving ? fixed : moving;
+        for (String name : pool) {
+            boolean used = false;
+            for (int j = 1; j < k; j += 1) {
+                used |= order[j].equals(name);
+            }
+            if (!used) {
+                order[k] = name;
+                addOrders(order, k + 1, firstMoving, fixed, moving);
+            }
+        }
+    }
+
+    /** Return a description of MACH's alphabet, slots and available
+     *  rotors, which determine its key space. */
+    static String describe(Machine mach) {
+        StringBuilder desc = new StringBuilder();
+        desc.append(mach.alphabet().getChars()).append('\n')
+            .append(mach.numRotors()).append(' ')
+            .append(mach.numPawls()).append('\n');
+        for (Rotor r : mach.allRotors()) {
+            desc.append(r.name()).append(' ')
+                .append(r.getClass().getSimpleName()).append(' ')
+                .append(r.notches()).append(' ')
+                .append(r.permutation().getClean()).append('\n');
+        }
+        return desc.toString();
+    }
+
+    /** Return a 64-bit fingerprint of the string DESC. */
+    static long fingerprint(String desc) {
+        byte[] bytes = desc.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (crc.getValue() << Integer.SIZE)
+            ^ (desc.hashCode() & 0xffffffffL);
+    }
+
+    /** Return the number of keys. */
+    long size() {
+        return _orders.size() * _positions;
+    }
+
+    /** Return the number of rotor orders. */
+    int numOrders() {
+        return _orders.size();
+    }
+
+    /** Return the number of settings for each rotor order. */
+    long numPositions() {
+        return _positions;
+    }
+
+    /** Return the rotor names, reflector first, of rotor order K. */
+    String[] order(int k) {
+        return _orders.get(k);
+    }
+
+    /** Return the number of the rotor order used by KEY. */
+    int orderIndex(long key) {
+        return (int) (key / _positions);
+    }
+
+    /** Return the rotor names, reflector first, used by KEY.  Keys with
+     *  the same order return the same array, which must not be
+     *  modified. */
+    String[] rotors(long key) {
+        return _orders.get(orderIndex(key));
+    }
+
+    /** Store into SETTINGS[1 .. numRotors()-1] the alphabet indices of the
+     *  rotor settings used by KEY. */
+    void settings(long key, int[] settings) {
+        long p = key % _positions;
+        int size = _alphabet.size();
+        for (int i = _numRotors - 1; i > 0; i -= 1) {
+            settings[i] = (int) (p % size);
+            p /= size;
+        }
+    }
+
+    /** Return the setting string (as for Machine.setRotors) used by
+     *  KEY. */
+    String setting(long key) {
+        int[] settings = new int[_numRotors];
+        settings(key, settings);
+        char[] result = new char[_numRotors - 1];
+        for (int i = 1; i < _numRotors; i += 1) {
+            result[i - 1] = _alphabet.toChar(settings[i]);
+        }
+        return new String(result);
+    }
+
+    /** Return the settings line (as in the input to Main) for KEY with
+     *  plugboard PLUGBOARD, given in cycle notation. */
+    String settingsLine(long key, String plugboard) {
+        String line = "* " + String.join(" ", rotors(key))
+            + " " + setting(key);
+        if (!plugboard.isEmpty()) {
+            line += " " + plugboard;
+        }
+        return line;
+    }
+
+    /** Alphabet of the machine. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Legal rotor orders, each giving a rotor name for every slot. */
+    private final List<String[]> _orders;
+
+    /** Number of settings of the rotors right of the reflector. */
+    private final long _positions;
+}
@@ -0,0 +1,436 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/** Splits the input of Main into lines in one pass over its characters:
+ *  settings lines (whose first non-blank character is '*'), message
+ *  lines, which must consist of characters of the alphabet and blanks,
+ *  and blank lines.  Blank lines are reported only when a non-blank line
+ *  follows them, so blank lines at the end of the input are dropped, as
+ *  Main has always done.  The Settings class likewise splits a settings
+ *  line into its parts.
+ *
+ *  Characters are looked up in a table, and only offsets are recorded as
+ *  a line is read: the line and column of an error are worked out when
+ *  the error is reported, and are given at the front of its message as
+ *  "LINE:COLUMN: ".  (EnigmaExceptions carry no stack trace, so that
+ *  failing is as cheap as succeeding.)
+ *  @author jordanta
+ */
+final class Lexer {
+
+    /** Kinds of line returned by next. */
+    static final int END = -1, BLANK = 0, SETTINGS = 1, MESSAGE = 2;
+
+    /** Size of my buffer, in characters. */
+    private static final int BUFFER = 1 << 16;
+
+    /** A lexer for the lines of INPUT, whose messages are in ALPHABET. */
+    Lexer(Reader input, Alphabet alphabet) {
+        _input = input;
+        _letters = letters(alphabet);
+    }
+
+    /** Read the next line, returning its kind (END at the end of the
+     *  input).  The text of a settings or message line is then
+     *  available from text(), and its number from line(). */
+    int next() {
+        if (_blanks > 0) {
+            _blanks -= 1;
+            return BLANK;
+        }
+        if (_pending != BLANK) {
+            int kind = _pending;
+            _pending = BLANK;
+            return kind;
+        }
+        while (true) {
+            int kind = readLine();
+            if (kind == END) {
+                return END;
+            } else if (kind != BLANK) {
+                if (_blanks == 0) {
+                    return kind;
+                }
+                _pending = kind;
+                _blanks -= 1;
+                return BLANK;
+            }
+            _blanks += 1;
+        }
+    }
+
+    /** Return the text of the last settings line (without its line
+     *  terminator) or message line (without its blanks) read. */
+    String text() {
+        return _text.toString();
+    }
+
+    /** Return the number (from 1) of the last settings or message line
+     *  read. */
+    int line() {
+        return _textLine;
+    }
+
+    /** Return true iff next can return without waiting for more input:
+     *  either I hold unread characters, or INPUT has some ready. */
+    boolean ready() {
+        try {
+            return _pos < _limit || _input.ready();
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Read one line of input, returning its kind, and leaving its text
+     *  in _text if it is a settings or message line. */
+    private int readLine() {
+        int i = skipBlanks();
+        if (i < 0) {
+            return END;
+        }
+        char ch = _buffer[i];
+        if (ch == '\n') {
+            newLine(i);
+            return BLANK;
+        }
+        _text.setLength(0);
+        _textLine = _line;
+        if (ch == '*') {
+            _settings = true;
+            return readSettings(i);
+        }
+        if (!_settings) {
+            throw error(_line, column(i), "message without settings line");
+        }
+        return readMessage(i);
+    }
+
+    /** Skip blanks other than newlines, returning the position of the
+     *  next other character in _buffer, or -1 at the end of the
+     *  input. */
+    private int skipBlanks() {
+        while (true) {
+            if (_pos == _limit && !fill()) {
+                return -1;
+            }
+            char ch = _buffer[_pos];
+            if (ch == '\n' || !Character.isWhitespace(ch)) {
+                return _pos;
+            }
+            _pos += 1;
+        }
+    }
+
+    /** Read a settings line starting at position I of _buffer. */
+    private int readSettings(int i) {
+        while (true) {
+            int start = i;
+            while (i < _limit && _buffer[i] != '\n') {
+                i += 1;
+            }
+            _text.append(_buffer, start, i - start);
+            _pos = i;
+            if (i < _limit) {
+                newLine(i);
+                break;
+            } else if (!fill()) {
+                break;
+            }
+            i = _pos;
+        }
+        int end = _text.length();
+        if (end > 0 && _text.charAt(end - 1) == '\r') {
+            _text.setLength(end - 1);
+        }
+        return SETTINGS;
+    }
+
+    /** Read a message line starting at position I of _buffer, checking
+     *  that each of its characters is a blank or in the alphabet. */
+    private int readMessage(int i) {
+        boolean[] letters = _letters;
+        while (true) {
+            int start = i;
+            for (; i < _limit; i += 1) {
+                char ch = _buffer[i];
+                if (ch < letters.length && letters[ch]) {
+                    continue;
+                }
+                _text.append(_buffer, start, i - start);
+                start = i + 1;
+                if (ch == '\n') {
+                    break;
+                } else if (!Character.isWhitespace(ch)) {
+                    throw error(_line, column(i),
+                                "character '%c' not in alphabet", ch);
+                }
+            }
+            if (i < _limit) {
+                _pos = i;
+                newLine(i);
+                return MESSAGE;
+            }
+            _text.append(_buffer, start, i - start);
+            _pos = i;
+            if (!fill()) {
+                return MESSAGE;
+            }
+            i = _pos;
+        }
+    }
+
+    /** Note that the newline at position I of _buffer ends a line, and
+     *  move past it. */
+    private void newLine(int i) {
+        _line += 1;
+        _pos = i + 1;
+        _lineStart = _bufferStart + _pos;
+    }
+
+    /** Return the column (from 1) of position I of _buffer. */
+    private int column(int i) {
+        return (int) (_bufferStart + i - _lineStart) + 1;
+    }
+
+    /** Replace the contents of _buffer with more input, returning false
+     *  at the end of the input. */
+    private boolean fill() {
+        _bufferStart += _limit;
+        _pos = _limit = 0;
+        try {
+            int n;
+            do {
+                n = _input.read(_buffer, 0, _buffer.length);
+            } while (n == 0);
+            if (n < 0) {
+                return false;
+            }
+            _limit = n;
+            return true;
+        } catch (IOException excp) {
+            throw EnigmaException.error("%d: could not read input: %s",
+                                        _line, excp.getMessage());
+        }
+    }
+
+    /** Return a table of the characters of ALPHABET: element C is true
+     *  iff C is in ALPHABET. */
+    static boolean[] letters(Alphabet alphabet) {
+        int max = 0;
+        for (int c = 0; c < alphabet.size(); c += 1) {
+            max = Math.max(max, alphabet.toChar(c));
+        }
+        boolean[] result = new boolean[max + 1];
+        for (int c = 0; c < alphabet.size(); c += 1) {
+            result[alphabet.toChar(c)] = true;
+        }
+        return result;
+    }
+
+    /** Return an error whose message is formed from MSGFORMAT and
+     *  ARGUMENTS as for EnigmaException.error, preceded by LINE and
+     *  COLUMN, or by COLUMN alone if LINE is not positive. */
+    static EnigmaException error(int line, int column, String msgFormat,
+                                 Object... arguments) {
+        String where = line > 0 ? line + ":" + column + ": "
+            : "column " + column + ": ";
+        return EnigmaException.error(where + msgFormat, arguments);
+    }
+
+    /** The parts of a settings line: the asterisk, the names of the
+     *  rotors, their settings, optionally their ring settings, and the
+     *  plugboard cycles, separated by blanks.  The characters of the
+     *  settings and cycles are checked against the alphabet, and each
+     *  part's column is kept for reporting later errors. */
+    static final class Settings {
+
+        /** The parts of settings line LINE, number LINENUM (or 0 if it is
+         *  not from a numbered line), for a machine with NUMROTORS slots
+         *  and alphabet ALPHABET. */
+        Settings(String line, int lineNum, int numRotors,
+                 Alphabet alphabet) {
+            _line = line;
+            _lineNum = lineNum;
+            _letters = letters(alphabet);
+            int p = skip(0);
+            if (p == line.length() || line.charAt(p) != '*'
+                || end(p) != p + 1) {
+                throw error(p, "settings line must start with '*'");
+            }
+            p = skip(p + 1);
+            rotors = new String[numRotors];
+            columns = new int[numRotors];
+            for (int k = 0; k < numRotors; k += 1) {
+                if (p == line.length()) {
+                    throw error(p, "expected %d rotor names", numRotors);
+                }
+                int e = end(p);
+                for (int q = p; q < e; q += 1) {
+                    if (line.charAt(q) == '(' || line.charAt(q) == ')') {
+                        throw error(q, "parenthesis in rotor name");
+                    }
+                }
+                rotors[k] = line.substring(p, e);
+                columns[k] = p + 1;
+                p = skip(e);
+            }
+            if (p == line.length() || line.charAt(p) == '(') {
+                throw error(p, "missing rotor settings");
+            }
+            settingColumn = p + 1;
+            setting = positions(p, numRotors - 1, "settings");
+            p = skip(end(p));
+            if (p < line.length() && line.charAt(p) != '(') {
+                rings = positions(p, numRotors - 1, "ring settings");
+                p = skip(end(p));
+            } else {
+                rings = null;
+            }
+            cyclesColumn = p + 1;
+            StringBuilder cycles = new StringBuilder();
+            while (p < line.length()) {
+                int e = end(p);
+                cycles.append(cycles(p, e));
+                p = skip(e);
+            }
+            this.cycles = cycles.toString();
+        }
+
+        /** Return an error at column COLUMN of my line, with a message
+         *  formed from MSGFORMAT and ARGUMENTS. */
+        EnigmaException errorAt(int column, String msgFormat,
+                                Object... arguments) {
+            return Lexer.error(_lineNum, column, msgFormat, arguments);
+        }
+
+        /** Return an error at position P of my line. */
+        private EnigmaException error(int p, String msgFormat,
+                                      Object... arguments) {
+            return errorAt(p + 1, msgFormat, arguments);
+        }
+
+        /** Return the position of the first non-blank character of my
+         *  line at or after P, or the line's length. */
+        private int skip(int p) {
+            while (p < _line.length()
+                   && Character.isWhitespace(_line.charAt(p))) {
+                p += 1;
+            }
+            return p;
+        }
+
+        /** Return the position just after the token starting at P. */
+        private int end(int p) {
+            while (p < _line.length()
+                   && !Character.isWhitespace(_line.charAt(p))) {
+                p += 1;
+            }
+            return p;
+        }
+
+        /** Return true iff CH is in the alphabet. */
+        private boolean letter(char ch) {
+            return ch < _letters.length && _letters[ch];
+        }
+
+        /** Return the token at P, checking that it consists of N
+         *  characters of the alphabet, which are the rotor positions
+         *  described by WHAT. */
+        private String positions(int p, int n, String what) {
+            int e = end(p);
+            for (int q = p; q < e; q += 1) {
+                if (!letter(_line.charAt(q))) {
+                    throw error(q, "%s: '%c' not in alphabet", what,
+                                _line.charAt(q));
+                }
+            }
+            if (e - p != n) {
+                throw error(p, "expected %d %s", n, what);
+            }
+            return _line.substring(p, e);
+        }
+
+        /** Return the characters from position P to E of my line,
+         *  checking that they are parenthesized cycles of characters of
+         *  the alphabet. */
+        private String cycles(int p, int e) {
+            for (int q = p; q < e; q += 1) {
+                char ch = _line.charAt(q);
+                boolean open = q == p || _line.charAt(q - 1) == ')';
+                if (open ? ch != '(' : ch != ')' && !letter(ch)) {
+                    throw error(q, ch == '(' || ch == ')'
+                                ? "misplaced '%c' in plugboard"
+                                : "plugboard: '%c' not in alphabet", ch);
+                }
+            }
+            if (_line.charAt(e - 1) != ')') {
+                throw error(e, "unclosed plugboard cycle");
+            }
+            return _line.substring(p, e);
+        }
+
+        /** Names of the rotors, reflector first. */
+        final String[] rotors;
+
+        /** Column of each rotor name. */
+        final int[] columns;
+
+        /** Settings of the rotors right of the reflector, and their ring
+         *  settings (null if not given). */
+        final String setting, rings;
+
+        /** The plugboard cycles, run together. */
+        final String cycles;
+
+        /** Columns of the settings and of the plugboard cycles. */
+        final int settingColumn, cyclesColumn;
+
+        /** The settings line. */
+        private final String _line;
+
+        /** Its line number, or 0. */
+        private final int _lineNum;
+
+        /** Table of the characters of the alphabet (see letters). */
+        private final boolean[] _letters;
+    }
+
+    /** Source of input. */
+    private final Reader _input;
+
+    /** Table of the characters of the alphabet (see letters). */
+    private final boolean[] _letters;
+
+    /** Characters read from _input: the unread ones are from _pos to
+     *  _limit. */
+    private final char[] _buffer = new char[BUFFER];
+
+    /** Position of the next unread character in _buffer, and of the end
+     *  of its contents. */
+    private int _pos, _limit;
+
+    /** Offset in the input of _buffer[0] and of the start of the current
+     *  line. */
+    private long _bufferStart, _lineStart;
+
+    /** Number of the current line. */
+    private int _line = 1;
+
+    /** Number of the last settings or message line. */
+    private int _textLine;
+
+    /** Text of the last settings or message line. */
+    private final StringBuilder _text = new StringBuilder();
+
+    /** Number of blank lines read but not yet returned. */
+    private int _blanks;
+
+    /** Kind of the line read but held back behind blank lines, or
+     *  BLANK if none. */
+    private int _pending = BLANK;
+
+    /** True once a settings line has been read. */
+    private boolean _settings;
+}
@@ -0,0 +1,147 @@
+package enigma;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Lexer class.
+ *  @author jordanta
+ */
+public class LexerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the lines of INPUT as the Lexer returns them, each as its
+     *  kind followed by its text, if any. */
+    static List<String> lines(String input) {
+        Lexer lexer = new Lexer(new StringReader(input), new Alphabet());
+        List<String> result = new ArrayList<>();
+        for (int kind = lexer.next(); kind != Lexer.END;
+             kind = lexer.next()) {
+            result.add(kind == Lexer.BLANK ? "blank"
+                       : (kind == Lexer.SETTINGS ? "settings " : "message ")
+                       + lexer.line() + " " + lexer.text());
+        }
+        return result;
+    }
+
+    /** Return the message of the error raised by lexing INPUT, or null
+     *  if there is none. */
+    static String error(String input) {
+        try {
+            lines(input);
+            return null;
+        } catch (EnigmaException excp) {
+            assertEquals(0, excp.getStackTrace().length);
+            return excp.getMessage();
+        }
+    }
+
+    /** Return the message of the error raised by splitting settings line
+     *  LINE for a machine with 5 slots, or null if there is none. */
+    static String settingsError(String line) {
+        try {
+            new Lexer.Settings(line, 7, 5, new Alphabet());
+            return null;
+        } catch (EnigmaException excp) {
+            return excp.getMessage();
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testLines() {
+        assertEquals(List.of("blank", "settings 2 * B I II AB (AB)",
+                             "message 3 HELLOWORLD", "blank", "blank",
+                             "message 6 ABC", "settings 7 * B II I AA"),
+                     lines("\n* B I II AB (AB)\r\nHEL LO\tWORLD\r\n\n"
+                           + "   \n ABC\n * B II I AA\n\n\n"));
+        assertEquals(List.of(), lines(""));
+        assertEquals(List.of("settings 1 * B"), lines("* B"));
+    }
+
+    @Test
+    public void testLongLines() {
+        StringBuilder input = new StringBuilder("* B I II AA\n");
+        StringBuilder letters = new StringBuilder();
+        for (int i = 0; i < 100000; i += 1) {
+            char ch = (char) ('A' + i % 26);
+            letters.append(ch);
+            input.append(ch).append(i % 7 == 0 ? " " : "");
+        }
+        input.append("\nabc");
+        Lexer lexer =
+            new Lexer(new StringReader(input.toString()), new Alphabet());
+        assertEquals(Lexer.SETTINGS, lexer.next());
+        assertEquals(Lexer.MESSAGE, lexer.next());
+        assertEquals(letters.toString(), lexer.text());
+        try {
+            lexer.next();
+            fail("lower-case letters accepted");
+        } catch (EnigmaException excp) {
+            assertEquals("3:1: character 'a' not in alphabet",
+                         excp.getMessage());
+        }
+    }
+
+    @Test
+    public void testErrors() {
+        assertEquals("2:2: message without settings line",
+                     error("\n HELLO\n* B I II AA\n"));
+        assertEquals("2:5: character '1' not in alphabet",
+                     error("* B\nHEL 1O\n"));
+        assertNull(error("* B\nHELLO\n"));
+    }
+
+    @Test
+    public void testSettings() {
+        Lexer.Settings s = new Lexer.Settings(
+            " * B Beta I II III AXLE BCDE (AB)(CD) (EF)", 3, 5,
+            new Alphabet());
+        assertArrayEquals(new String[] {"B", "Beta", "I", "II", "III"},
+                          s.rotors);
+        assertArrayEquals(new int[] {4, 6, 11, 13, 16}, s.columns);
+        assertEquals("AXLE", s.setting);
+        assertEquals("BCDE", s.rings);
+        assertEquals("(AB)(CD)(EF)", s.cycles);
+        assertEquals(30, s.cyclesColumn);
+        s = new Lexer.Settings("* B Beta I II III AXLE", 3, 5,
+                               new Alphabet());
+        assertNull(s.rings);
+        assertEquals("", s.cycles);
+        try {
+            new Lexer.Settings("* B", 0, 5, new Alphabet());
+            fail("missing rotors accepted");
+        } catch (EnigmaException excp) {
+            assertEquals("column 4: expected 5 rotor names",
+                         excp.getMessage());
+        }
+        assertEquals("7:1: settings line must start with '*'",
+                     settingsError("*B Beta I II III AXLE"));
+        assertEquals("7:16: expected 5 rotor names",
+                     settingsError("* B Beta I II  "));
+        assertEquals("7:19: missing rotor settings",
+                     settingsError("* B Beta I II III (AB)"));
+        assertEquals("7:20: settings: 'x' not in alphabet",
+                     settingsError("* B Beta I II III AxLE"));
+        assertEquals("7:24: expected 4 ring settings",
+                     settingsError("* B Beta I II III AXLE ABC"));
+        assertEquals("7:29: plugboard: 'x' not in alphabet",
+                     settingsError("* B Beta I II III AXLE (AB)(x)"));
+        assertEquals("7:27: unclosed plugboard cycle",
+                     settingsError("* B Beta I II III AXLE (AB"));
+        assertEquals("7:26: misplaced '(' in plugboard",
+                     settingsError("* B Beta I II III AXLE (A(B)"));
+    }
+
+}
@@ -0,0 +1,103 @@
+package enigma;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static enigma.EnigmaException.*;
+
+/** A set of longs of bounded size that several threads may add to at
+ *  once.  The elements are kept in one array of longs by open addressing
+ *  with linear probing, and an element is added by a compare-and-set on
+ *  an empty slot, so the set needs no locks and no boxing.  Its capacity
+ *  is fixed when it is made.
+ *  @author jordanta
+ */
+final class LongHashSet {
+
+    /** An empty set with room for at least EXPECTED elements. */
+    LongHashSet(int expected) {
+        long slots = Math.max(MIN_SLOTS, Long.highestOneBit(
+                                  Math.max(1L, 2L * expected - 1)) << 1);
+        if (expected < 0 || slots > MAX_SLOTS) {
+            throw error("too many keys for one set: %d", expected);
+        }
+        _slots = new AtomicLongArray((int) slots);
+        _mask = (int) slots - 1;
+        _limit = (int) (slots / 4 * 3);
+    }
+
+    /** Add KEY to me, returning true iff it was not already present. */
+    boolean add(long key) {
+        if (key == 0) {
+            return !_zero.getAndSet(true) && count();
+        }
+        for (int i = (int) mix(key) & _mask; ; i = (i + 1) & _mask) {
+            long k = _slots.get(i);
+            if (k == key) {
+                return false;
+            }
+            if (k == 0) {
+                if (_slots.compareAndSet(i, 0, key)) {
+                    return count();
+                }
+                i = (i - 1) & _mask;
+            }
+        }
+    }
+
+    /** Return true iff KEY is in me. */
+    boolean contains(long key) {
+        if (key == 0) {
+            return _zero.get();
+        }
+        for (int i = (int) mix(key) & _mask; ; i = (i + 1) & _mask) {
+            long k = _slots.get(i);
+            if (k == key) {
+                return true;
+            }
+            if (k == 0) {
+                return false;
+            }
+        }
+    }
+
+    /** Return the number of elements in me. */
+    int size() {
+        return _size.get();
+    }
+
+    /** Count a newly added element, returning true. */
+    private boolean count() {
+        if (_size.incrementAndGet() > _limit) {
+            throw error("key set full");
+        }
+        return true;
+    }
+
+    /** Return X with its bits mixed, so that keys differing in any bit
+     *  are spread over the table. */
+    static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+
+    /** Smallest and largest numbers of slots. */
+    private static final long MIN_SLOTS = 16, MAX_SLOTS = 1L << 30;
+
+    /** Elements, or 0 in empty slots. */
+    private final AtomicLongArray _slots;
+
+    /** Number of slots less one. */
+    private final int _mask;
+
+    /** Most elements I hold before probing gets slow. */
+    private final int _limit;
+
+    /** Number of elements. */
+    private final AtomicInteger _size = new AtomicInteger();
+
+    /** True iff 0 is an element. */
+    private final AtomicBoolean _zero = new AtomicBoolean();
+}
@@ -1,7 +1,12 @@
 package enigma;
 
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
 
 
 /** Class that represents a complete enigma machine.
@@ -14,19 +19,163 @@ class Machine {
      *  available rotors. */
     Machine(Alphabet alpha, int numRotors, int pawls,
             Collection<Rotor> allRotors) {
+        this(alpha, numRotors, pawls, new RotorCatalog(alpha, allRotors));
+        int id = 0;
+        for (Rotor r : allRotors) {
+            _rotorById[id] = r;
+            id += 1;
+        }
+    }
+
+    /** A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
+     *  and 0 <= PAWLS < NUMROTORS pawls, whose available rotors are those
+     *  of CATALOG.  Each rotor is made from its description when first
+     *  needed. */
+    Machine(Alphabet alpha, int numRotors, int pawls, RotorCatalog catalog) {
+        if (numRotors > Long.SIZE) {
+            throw error("too many rotor slots");
+        }
         _alphabet = alpha;
+        _size = alpha.size();
         _numRotors = numRotors;
         _pawls = pawls;
-        _allRotors = allRotors;
-        _allRotorsMap = new HashMap<String, Rotor>();
-        for (Rotor r:_allRotors) {
-            String name = r.name();
-            _allRotorsMap.put(name, r);
-        }
+        _catalog = catalog;
+        _rotorById = new Rotor[catalog.size()];
+        _idBits = bitsFor(_rotorById.length);
+        _settingBits = bitsFor(alpha.size());
+        _bytePath = alpha.size() <= Byte.MAX_VALUE + 1
+            && alpha.getChars().chars().allMatch(ch -> ch < BYTE_CHARS);
         _slots = new Rotor[numRotors];
+        _slotIds = new int[numRotors];
         _plugboard = null;
+        _forward = new int[numRotors][];
+        _backward = new int[numRotors][];
+        _offsets = new int[numRotors];
+        _rings = new int[numRotors];
+        _notches = new long[numRotors][(_size + Long.SIZE - 1) / Long.SIZE];
+        _inner = new int[numRotors][alpha.size()];
+        _innerStamp = new int[numRotors][alpha.size()];
+        _stamp = new int[numRotors];
+        _weights = new int[numRotors];
+        invalidateInner(0);
+    }
+
+
+    /** Return a new machine with my alphabet, slot and pawl counts, and
+     *  copies of all my available rotors, so that it may be used
+     *  concurrently with me. Its slots are empty and it has no
+     *  plugboard.  It shares my rotor catalog. */
+    Machine copy() {
+        Machine result =
+            new Machine(_alphabet, _numRotors, _pawls, _catalog);
+        result.setTables(_tables);
+        return result;
+    }
+
+    /** Use the precomputed substitutions in TABLES (built for machines
+     *  like me) whenever my rotor order is among them, or stop using
+     *  precomputed substitutions if TABLES is null.  Copies of me share
+     *  TABLES. */
+    void setTables(TableStore tables) {
+        _tables = tables;
+        _table = null;
+        Arrays.fill(_weights, 0);
+        if (tables != null) {
+            TableStore.numStates(this);
+            int weight = 1;
+            for (int i = _numRotors - 1; i > 0; i -= 1) {
+                _weights[i] = weight;
+                weight *= _alphabet.size();
+            }
+            if (_slots[0] != null) {
+                _table = tables.table(slotNames());
+                resetState();
+            }
+        }
+        chooseEngine();
+    }
+
+    /** Recompute _state from the settings of my rotors. */
+    private void resetState() {
+        _state = 0;
+        for (int i = 1; i < _numRotors; i += 1) {
+            _state += _offsets[i] * _weights[i];
+        }
+    }
+
+    /** Return the setting of the rotor in slot K. */
+    private int setting(int k) {
+        int s = _offsets[k] + _rings[k];
+        return s >= _size ? s - _size : s;
+    }
+
+    /** Make slot K use rotor number ID (in _catalog) at ring setting
+     *  RING and setting SETTING. */
+    private void loadSlot(int k, int id, int ring, int setting) {
+        RotorCatalog.Tables tables = _catalog.tables(id);
+        _slots[k] = rotor(id);
+        _slotIds[k] = id;
+        _forward[k] = tables.forward;
+        _backward[k] = tables.backward;
+        if (_slots[k].rotates()) {
+            _rotating |= 1L << k;
+        } else {
+            _rotating &= ~(1L << k);
+        }
+        _rings[k] = -1;
+        setSlot(k, ring, setting);
+    }
+
+    /** Set slot K to ring setting RING and setting SETTING, returning
+     *  true iff either changes. */
+    private boolean setSlot(int k, int ring, int setting) {
+        int offset = setting - ring < 0 ? setting - ring + _size
+            : setting - ring;
+        if (ring != _rings[k]) {
+            long[] notch = _catalog.tables(_slotIds[k]).notch;
+            long[] mine = _notches[k];
+            Arrays.fill(mine, 0);
+            for (int o = 0, s = ring; o < _size; o += 1, s += 1) {
+                if (s == _size) {
+                    s = 0;
+                }
+                if ((notch[s >>> 6] >>> s & 1) != 0) {
+                    mine[o >>> 6] |= 1L << o;
+                }
+            }
+            _rings[k] = ring;
+            _offsets[k] = offset;
+            return true;
+        } else if (offset != _offsets[k]) {
+            _offsets[k] = offset;
+            return true;
+        }
+        return false;
     }
 
+    /** Return my rotor number ID, making it if it is not yet made. */
+    private Rotor rotor(int id) {
+        if (_rotorById[id] == null) {
+            _rotorById[id] = _catalog.rotor(id);
+        }
+        return _rotorById[id];
+    }
+
+    /** Bring the setting and ring setting of the Rotor in slot K up to
+     *  date with my tables. */
+    private void syncRotor(int k) {
+        _slots[k].setRing(_rings[k]);
+        _slots[k].set(setting(k));
+    }
+
+    /** Return the names of the rotors in my slots, reflector first. */
+    private String[] slotNames() {
+        String[] names = new String[_numRotors];
+        for (int i = 0; i < _numRotors; i += 1) {
+            names[i] = _slots[i].name();
+        }
+        return names;
+    }
 
     /** Return the number of rotor slots I have. */
     int numRotors() {
@@ -39,9 +188,10 @@ class Machine {
     }
 
     /** Return Rotor #K, where Rotor #0 is the reflector, and Rotor
-     *  #(numRotors()-1) is the fast Rotor.  Modifying this Rotor has
-     *  undefined results. */
+     *  #(numRotors()-1) is the fast Rotor, at its current setting and
+     *  ring setting.  Modifying this Rotor has undefined results. */
     Rotor getRotor(int k) {
+        syncRotor(k);
         return _slots[k];
     }
 
@@ -49,44 +199,213 @@ class Machine {
         return _alphabet;
     }
 
+    /** Return the catalog of the rotors available to me. */
+    RotorCatalog catalog() {
+        return _catalog;
+    }
+
+    /** Return all the rotors available to me, making any not yet
+     *  made. */
+    Collection<Rotor> allRotors() {
+        List<Rotor> result = new ArrayList<>();
+        for (int id = 0; id < _rotorById.length; id += 1) {
+            result.add(rotor(id));
+        }
+        return result;
+    }
+
     /** Set my rotor slots to the rotors named ROTORS from my set of
      *  available rotors (ROTORS[0] names the reflector).
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
+        int changed = _numRotors;
+        for (int i = 0; i < _numRotors; i += 1) {
+            if (_slots[i] != null) {
+                syncRotor(i);
+            }
+        }
         for (int i = 0; i < rotors.length; ++i) {
-            if (_allRotorsMap.get(rotors[i]) == null) {
+            int id = _catalog.id(rotors[i]);
+            if (id < 0) {
                 throw new EnigmaException("Bad rotor name");
             }
             for (int j = 0; j < i; j++) {
-                if (_allRotorsMap.get(rotors[i]).name()
-                        == _allRotorsMap.get(rotors[j]).name()) {
+                if (rotors[i].equals(rotors[j])) {
                     throw new EnigmaException("Duplicate rotor names");
                 }
             }
-            _slots[i] = _allRotorsMap.get(rotors[i]);
+            Rotor r = rotor(id);
+            if (_slots[i] != r) {
+                changed = Math.min(changed, i);
+                loadSlot(i, id, r.ring(), r.setting());
+            }
+        }
+        invalidateInner(changed);
+        if (_tables != null) {
+            _table = _tables.table(slotNames());
+            resetState();
+            chooseEngine();
         }
         if (!(_slots[0] instanceof Reflector)) {
             throw new EnigmaException("Reflector in wrong place");
         }
-
     }
 
     /** Set my rotors according to SETTING, which must be a string of
      *  numRotors()-1 characters in my alphabet. The first letter refers
-     *  to the leftmost rotor setting (not counting the reflector).  */
+     *  to the leftmost rotor setting (not counting the reflector).  All
+     *  ring settings are set to the first letter of my alphabet. */
     void setRotors(String setting) {
+        setRotors(setting, null);
+    }
+
+    /** Set my rotors according to SETTING, as for setRotors(SETTING),
+     *  and their ring settings according to RINGS, a string of the same
+     *  form, or to the first letter of my alphabet if RINGS is null.  The
+     *  rings are folded into the rotors' wirings here, so that they cost
+     *  nothing per character. */
+    void setRotors(String setting, String rings) {
         if (setting.length() != _numRotors - 1) {
             throw new EnigmaException("Incorrect number of settings");
         }
-        char[] etting = setting.toCharArray();
+        if (rings != null && rings.length() != _numRotors - 1) {
+            throw error("Incorrect number of ring settings");
+        }
         String a = _alphabet.getChars();
+        _state = 0;
+        int changed = _numRotors;
         for (int i = 1; i < _numRotors; i++) {
-            int index = a.indexOf(etting[i - 1]);
-            _slots[i].set(index);
+            int ring = rings == null ? 0 : a.indexOf(rings.charAt(i - 1));
+            if (ring < 0) {
+                throw error("ring setting '%c' not in alphabet",
+                            rings.charAt(i - 1));
+            }
+            int index = a.indexOf(setting.charAt(i - 1));
+            if (index < 0) {
+                throw error("setting '%c' not in alphabet",
+                            setting.charAt(i - 1));
+            }
+            if (setSlot(i, ring, index)) {
+                changed = Math.min(changed, i);
+            }
+            _state += _offsets[i] * _weights[i];
         }
+        invalidateInner(changed);
         if (!(_slots[0] instanceof Reflector)) {
             throw new EnigmaException("First object not a reflector");
         }
+        timeRun();
+        _reusing = changed > 1;
+        if (_reusing) {
+            _reused += 1;
+        }
+        chooseEngine();
+        _runStart = System.nanoTime();
+    }
+
+    /** The ways my rotors may be applied to a character. */
+    enum Engine {
+        /** Each rotor in turn. */
+        DIRECT,
+        /** The fast rotor, then the cached tables of applyInner. */
+        CACHED,
+        /** One lookup in a TableStore. */
+        STORED
+    }
+
+    /** Choose how to apply my rotors for the next message.  A
+     *  precomputed table is always best.  Otherwise I keep, for each
+     *  workload shape (see shape), a moving average of the time per
+     *  character taken by each engine, and prefer the engine that has
+     *  been fastest for the shape of the next message: the length I
+     *  expect (the recent average), and whether its settings kept the
+     *  slow rotors' tables, which only CACHED can use.  I change my
+     *  preference only for an engine faster by the fraction HYSTERESIS.
+     *  An engine not yet timed is tried, and every EXPLORE-th message
+     *  uses the engine not preferred so that its timing stays current.
+     *  (My alphabet's size decides once whether convert(String) takes
+     *  its byte path.) */
+    private void chooseEngine() {
+        Engine next;
+        if (_table != null) {
+            next = Engine.STORED;
+        } else {
+            double[] cost = _cost[shape(_avgRun, _reusing)];
+            Engine other = _preferred == Engine.DIRECT ? Engine.CACHED
+                : Engine.DIRECT;
+            double mine = cost[_preferred.ordinal()];
+            double theirs = cost[other.ordinal()];
+            _decisions += 1;
+            if (mine != 0 && theirs != 0
+                && theirs < mine * (1 - HYSTERESIS)) {
+                _preferred = other;
+                next = other;
+            } else if (mine != 0
+                       && (theirs == 0 || _decisions % EXPLORE == 0)) {
+                next = other;
+            } else {
+                next = _preferred;
+            }
+        }
+        if (next != _engine) {
+            _engine = next;
+            _switches += 1;
+        }
+    }
+
+    /** Fold the time taken by the message just finished into the cost
+     *  of the engine that converted it.  A time more than OUTLIER times
+     *  the current cost (as when a collection or compilation interrupts
+     *  the message) counts as that much. */
+    private void timeRun() {
+        long now = System.nanoTime();
+        if (_run > 0 && _engine != Engine.STORED) {
+            double[] cost = _cost[shape(_run, _reusing)];
+            double perChar = (double) (now - _runStart) / _run;
+            int e = _engine.ordinal();
+            if (cost[e] == 0) {
+                cost[e] = perChar;
+            } else {
+                perChar = Math.min(perChar, OUTLIER * cost[e]);
+                cost[e] += (perChar - cost[e]) / RUN_DECAY;
+            }
+        }
+        _avgRun += (_run - _avgRun) / RUN_DECAY;
+        _run = 0;
+    }
+
+    /** Return the index in _cost of messages of RUN characters whose
+     *  settings kept the slow rotors' tables iff REUSING. */
+    private static int shape(double run, boolean reusing) {
+        return (run < SHORT_RUN ? 0 : 2) + (reusing ? 1 : 0);
+    }
+
+    /** Return the engine I am using. */
+    Engine engine() {
+        return _engine;
+    }
+
+    /** Return the number of characters converted by ENGINE. */
+    long engineChars(Engine engine) {
+        return _engineChars[engine.ordinal()];
+    }
+
+    /** Return the number of times I have changed engines. */
+    long engineSwitches() {
+        return _switches;
+    }
+
+    /** Return the number of setRotors calls that kept the tables of
+     *  the slow rotors. */
+    long settingsReused() {
+        return _reused;
+    }
+
+    /** Return the number of characters converted by convert(String)
+     *  through its table of character indices, which it uses only when
+     *  my alphabet is small enough to fit the table. */
+    long byteChars() {
+        return _byteChars;
     }
 
     /** Return the current plugboard's permutation. */
@@ -99,16 +418,105 @@ class Machine {
         _plugboard = plugboard;
     }
 
+    /** Return an Encryptor that continues from my current rotor order,
+     *  settings and plugboard exactly as I would.  Its class is generated
+     *  for my configuration and rotor order (see EncryptorCompiler) the
+     *  first time one is requested.  I am not affected by its use. */
+    Encryptor compile() {
+        return EncryptorCompiler.compile(this);
+    }
+
+    /** Return the number of bits needed to number N things. */
+    private static int bitsFor(int n) {
+        return Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(n - 1));
+    }
+
+    /** Return the number of bits in the packed slots of my snapshots. */
+    int stateBits() {
+        return _numRotors * (_idBits + 2 * _settingBits);
+    }
+
+    /** Return my current state: for each slot K, the number of its rotor
+     *  among allRotors(), its ring setting and its setting, packed as a
+     *  field of stateBits() / numRotors() bits at bit
+     *  K * stateBits() / numRotors(), with the setting in the low bits;
+     *  and my plugboard.  A field holds at most 31 bits of rotor number
+     *  and two 16-bit settings, so it always fits in a long.  Copies of
+     *  me number their rotors as I do, so they can restore my
+     *  snapshots. */
+    MachineState snapshot() {
+        long[] words = new long[(stateBits() + Long.SIZE - 1) / Long.SIZE];
+        int slotBits = _idBits + 2 * _settingBits;
+        for (int i = 0; i < _numRotors; i += 1) {
+            MachineState.putBits(words, i * slotBits, slotBits,
+                                 ((long) _slotIds[i] << _settingBits
+                                  | _rings[i]) << _settingBits
+                                 | setting(i));
+        }
+        return new MachineState(words, _plugboard);
+    }
+
+    /** Return me to STATE, a snapshot of me or of a copy of me.  This
+     *  takes time proportional to numRotors() and allocates nothing when
+     *  STATE has my rotor order.  A new rotor order may allocate: a rotor
+     *  of a lazy catalog is built the first time it is used, and the
+     *  precomputed table of the order is found when a TableStore is
+     *  attached. */
+    void restore(MachineState state) {
+        int slotBits = _idBits + 2 * _settingBits;
+        if (state.numWords() * Long.SIZE < stateBits()) {
+            throw error("machine state is for a different machine");
+        }
+        boolean reorder = false;
+        for (int i = 0; i < _numRotors; i += 1) {
+            long slot = state.field(i * slotBits, slotBits);
+            int mask = (1 << _settingBits) - 1;
+            int id = (int) (slot >>> 2 * _settingBits);
+            int ring = (int) (slot >>> _settingBits) & mask;
+            int setting = (int) slot & mask;
+            if (id >= _rotorById.length || setting >= _alphabet.size()
+                || ring >= _alphabet.size()) {
+                throw error("machine state is for a different machine");
+            }
+            if (_slots[i] != rotor(id)) {
+                reorder = true;
+                loadSlot(i, id, ring, setting);
+            } else {
+                setSlot(i, ring, setting);
+            }
+        }
+        if (reorder && _tables != null) {
+            _table = _tables.table(slotNames());
+            chooseEngine();
+        }
+        resetState();
+        invalidateInner(0);
+        _plugboard = state.plugboard();
+    }
+
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
      *  the machine. */
     int convert(int c) {
         advanceRotors();
+        _run += 1;
+        return substitute(c);
+    }
+
+    /** Advance the machine as for one keypress, without converting
+     *  anything. */
+    void advance() {
+        advanceRotors();
+    }
+
+    /** Returns the result of converting the input character C (as an
+     *  index in the range 0..alphabet size - 1) at the machine's current
+     *  rotor positions, without advancing it. */
+    int substitute(int c) {
         if (Main.verbose()) {
             System.err.printf("[");
             for (int r = 1; r < numRotors(); r += 1) {
-                System.err.printf("%c",
-                        alphabet().toChar(getRotor(r).setting()));
+                System.err.printf("%c", alphabet().toChar(setting(r)));
             }
             System.err.printf("] %c -> ", alphabet().toChar(c));
         }
@@ -124,51 +532,144 @@ class Machine {
         return c;
     }
 
-    /** Advance all rotors to their next position. */
+    /** Advance all rotors to their next position: the fast rotor, and
+     *  each rotor at a notch together with the rotor to its left, where
+     *  both rotate. */
     private void advanceRotors() {
-        boolean[] moveRotors = new boolean[_numRotors];
-        for (int i = 0; i < _numRotors; ++i) {
-            if (_slots[i].atNotch() && _slots[i - 1].rotates()) {
-                moveRotors[i] = true;
-                moveRotors[i - 1] = true;
-            } else if (i == _numRotors - 1) {
-                moveRotors[i] = true;
+        int n = _numRotors, size = _size;
+        long rotating = _rotating;
+        long move = 1L << n - 1;
+        for (int k = 1; k < n; k += 1) {
+            int o = _offsets[k];
+            if ((rotating >>> k - 1 & 1) != 0
+                && (_notches[k][o >>> 6] >>> o & 1) != 0) {
+                move |= 3L << k - 1;
             }
         }
-        for (int i = 0; i < _numRotors; ++i) {
-            if (moveRotors[i]) {
-                _slots[i].advance();
+        move &= rotating;
+        if (move == 0) {
+            return;
+        }
+        int leftmost = Long.numberOfTrailingZeros(move);
+        for (long m = move; m != 0; m &= m - 1) {
+            int k = Long.numberOfTrailingZeros(m);
+            int o = _offsets[k] + 1;
+            if (o == size) {
+                o = 0;
+                _state += (1 - size) * _weights[k];
+            } else {
+                _state += _weights[k];
             }
+            _offsets[k] = o;
         }
+        invalidateInner(leftmost);
     }
 
     /** Return the result of applying the rotors to the character C (as an
-     *  index in the range 0..alphabet size - 1). */
+     *  index in the range 0..alphabet size - 1), using the engine chosen
+     *  by chooseEngine.  If my rotor order has a precomputed table, the
+     *  whole pass is one lookup; otherwise the rotors are applied one by
+     *  one, or everything left of the fast rotor is applied by table
+     *  lookup (see applyInner). */
     private int applyRotors(int c) {
-        int result = _slots[_numRotors - 1].convertForward(c);
-        for (int i = _numRotors - 2; i >= 0; --i) {
-            result = _slots[i].convertForward(result);
+        if (Main.verbose()) {
+            return applyEachRotor(c);
         }
-        for (int j = 1; j < _numRotors; ++j) {
-            result = _slots[j].convertBackward(result);
+        _engineChars[_engine.ordinal()] += 1;
+        if (_engine == Engine.STORED) {
+            return _tables.lookup(_table, _state, c);
+        } else if (_engine == Engine.DIRECT) {
+            return applyEachRotor(c);
         }
-        return result;
+        int k = _numRotors - 1, at = _offsets[k] * _size;
+        return _backward[k][at + applyInner(k, _forward[k][at + c])];
+    }
+
+    /** Return the result of passing C into the section made of the
+     *  reflector and slots 1 .. K-1, and back out.  The section's
+     *  composite permutation at each K is kept as a table whose entries
+     *  are filled from the section one slot smaller as they are needed.
+     *  A table is discarded only when a rotor inside its section moves,
+     *  so the tables for sections of slow rotors last for many
+     *  characters. */
+    private int applyInner(int k, int c) {
+        if (k == 1) {
+            return _forward[0][_offsets[0] * _size + c];
+        }
+        if (_innerStamp[k][c] != _stamp[k]) {
+            int at = _offsets[k - 1] * _size;
+            _inner[k][c] = _backward[k - 1][
+                at + applyInner(k - 1, _forward[k - 1][at + c])];
+            _innerStamp[k][c] = _stamp[k];
+        }
+        return _inner[k][c];
+    }
+
+    /** Discard the tables of applyInner for all sections containing
+     *  slot MOVED. */
+    private void invalidateInner(int moved) {
+        for (int k = moved + 1; k < _numRotors; k += 1) {
+            _stamp[k] += 1;
+            if (_stamp[k] == 0) {
+                Arrays.fill(_innerStamp[k], 0);
+                _stamp[k] = 1;
+            }
+        }
+    }
+
+    /** Return the result of applying the rotors one by one to the
+     *  character C (as an index in the range 0..alphabet size - 1). */
+    private int applyEachRotor(int c) {
+        int n = _numRotors, size = _size;
+        int[] offsets = _offsets;
+        for (int k = n - 1; k >= 0; k -= 1) {
+            c = _forward[k][offsets[k] * size + c];
+        }
+        for (int k = 1; k < n; k += 1) {
+            c = _backward[k][offsets[k] * size + c];
+        }
+        return c;
     }
 
     /** Returns the encoding/decoding of MSG, updating the state of
-     *  the rotors accordingly. */
+     *  the rotors accordingly.  When my whole alphabet lies below
+     *  BYTE_CHARS, characters are looked up in a table of alphabet
+     *  indices rather than searched for in the alphabet; otherwise most
+     *  characters would miss the table, and it is not used. */
     String convert(String msg) {
-        String result = "";
-        char letter;
-        int index;
-        for (int i = 0; i < msg.length(); ++i) {
-            letter = msg.charAt(i);
-            index = _alphabet.toInt(letter);
-            index = convert(index);
-            letter = _alphabet.toChar(index);
-            result += letter;
+        char[] result = new char[msg.length()];
+        byte[] index = _bytePath ? byteIndex() : null;
+        for (int i = 0; i < result.length; ++i) {
+            char letter = msg.charAt(i);
+            int c;
+            if (index != null && letter < BYTE_CHARS && index[letter] >= 0) {
+                c = index[letter];
+                _byteChars += 1;
+            } else {
+                c = _alphabet.toInt(letter);
+            }
+            result[i] = _alphabet.toChar(convert(c));
         }
-        return result;
+        return new String(result);
+    }
+
+    /** Return the table giving the alphabet index of each character
+     *  below BYTE_CHARS, or -1 for characters not in my alphabet or with
+     *  indices too large for a byte. */
+    private byte[] byteIndex() {
+        if (_byteIndex == null) {
+            byte[] index = new byte[BYTE_CHARS];
+            Arrays.fill(index, (byte) -1);
+            for (int c = Math.min(_alphabet.size(), Byte.MAX_VALUE + 1) - 1;
+                 c >= 0; c -= 1) {
+                char ch = _alphabet.toChar(c);
+                if (ch < BYTE_CHARS) {
+                    index[ch] = (byte) c;
+                }
+            }
+            _byteIndex = index;
+        }
+        return _byteIndex;
     }
 
     /** Returns the number of rotors. */
@@ -190,15 +691,138 @@ class Machine {
     /** Number of pawls. */
     private int _pawls;
 
-    /** Collection of the rotors. */
-    private Collection<Rotor> _allRotors;
-
-    /** Hashmap version of the rotors. */
-    private HashMap<String, Rotor> _allRotorsMap;
+    /** The descriptions and tables of the available rotors. */
+    private final RotorCatalog _catalog;
 
     /** Slots for the rotors. */
     private Rotor[] _slots;
 
+    /** The available rotors, numbered as in _catalog, or null where not
+     *  yet made. */
+    private final Rotor[] _rotorById;
+
+    /** Number in _rotorById of the rotor in each slot. */
+    private final int[] _slotIds;
+
+    /** Bits needed for a rotor number and a setting in snapshots. */
+    private final int _idBits, _settingBits;
+
     /** Plugboard cycles. */
     private Permutation _plugboard;
+
+    /** Size of my alphabet. */
+    private final int _size;
+
+    /** Substitution tables (see RotorCatalog.Tables) of the rotor in each
+     *  slot. */
+    private final int[][] _forward, _backward;
+
+    /** Position of each slot's wiring: its setting less its ring
+     *  setting, which indexes _forward, _backward and _notches. */
+    private final int[] _offsets;
+
+    /** Ring setting of each slot. */
+    private final int[] _rings;
+
+    /** Notches of each slot: bit O is set iff the slot's rotor is at a
+     *  notch when its offset is O. */
+    private final long[][] _notches;
+
+    /** Bit K is set iff the rotor in slot K rotates. */
+    private long _rotating;
+
+    /** Composite permutations of the sections of slots 0 .. K-1: C
+     *  enters and leaves that section as _inner[K][C], if
+     *  _innerStamp[K][C] == _stamp[K]. */
+    private final int[][] _inner;
+
+    /** Generation at which each entry of _inner was computed. */
+    private final int[][] _innerStamp;
+
+    /** Current generation of each table of _inner; entries from earlier
+     *  generations are stale. */
+    private final int[] _stamp;
+
+    /** Length of the shortest message timed as long by chooseEngine. */
+    static final int SHORT_RUN = 24;
+
+    /** Weight, as a reciprocal, of each message in the moving averages
+     *  of chooseEngine. */
+    private static final int RUN_DECAY = 4;
+
+    /** Period, in messages, of chooseEngine's trials of the engine it
+     *  thinks slower. */
+    static final int EXPLORE = 64;
+
+    /** Characters with entries in _byteIndex. */
+    static final int BYTE_CHARS = 128;
+
+    /** Fraction by which an engine must be faster than the preferred
+     *  one to become preferred. */
+    static final double HYSTERESIS = 0.2;
+
+    /** Largest ratio of a message's time per character to the current
+     *  cost that timeRun accepts. */
+    static final double OUTLIER = 2;
+
+    /** Engine applying my rotors. */
+    private Engine _engine = Engine.CACHED;
+
+    /** Engine chooseEngine uses when a table is not available and it is
+     *  not timing the other engine. */
+    private Engine _preferred = Engine.CACHED;
+
+    /** Characters converted by each engine. */
+    private final long[] _engineChars = new long[Engine.values().length];
+
+    /** Number of engine changes. */
+    private long _switches;
+
+    /** Number of setRotors calls that kept the slow rotors' tables. */
+    private long _reused;
+
+    /** True iff the last setRotors kept the slow rotors' tables. */
+    private boolean _reusing;
+
+    /** Characters converted since the last setRotors. */
+    private long _run;
+
+    /** Moving average of the characters converted per setRotors. */
+    private double _avgRun;
+
+    /** System.nanoTime() at the last setRotors. */
+    private long _runStart;
+
+    /** Moving averages of the nanoseconds per character taken by each
+     *  engine for each workload shape (indexed as by shape); 0 until
+     *  timed. */
+    private final double[][] _cost = new double[4][Engine.values().length];
+
+    /** Number of choices made by chooseEngine. */
+    private long _decisions;
+
+    /** True iff my alphabet lies below BYTE_CHARS, so that
+     *  convert(String) uses _byteIndex. */
+    private final boolean _bytePath;
+
+    /** Characters looked up in _byteIndex by convert(String). */
+    private long _byteChars;
+
+    /** Alphabet index of each character below BYTE_CHARS, or -1; null
+     *  until needed. */
+    private byte[] _byteIndex;
+
+    /** Store of precomputed substitutions, or null. */
+    private TableStore _tables;
+
+    /** Precomputed substitutions of my current rotor order, or null. */
+    private ByteBuffer _table;
+
+    /** Index of my current settings in _table: the sum of each rotor's
+     *  setting times its entry in _weights. */
+    private int _state;
+
+    /** Weight of each slot's setting in _state (all 0 when no store is
+     *  attached). */
+    private final int[] _weights;
 }
@@ -0,0 +1,125 @@
+package enigma;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** The state of a Machine, as returned by Machine.snapshot: the rotor in
+ *  each slot and its setting, packed into a few longs, and the plugboard.
+ *  A state may be restored into the machine that took it or into any copy
+ *  of that machine (see Machine.restore).  MachineStates are immutable.
+ *  @author jordanta
+ */
+final class MachineState {
+
+    /** A state whose slots are packed into WORDS (which I keep) and
+     *  whose plugboard is PLUGBOARD. */
+    MachineState(long[] words, Permutation plugboard) {
+        _words = words;
+        _plugboard = plugboard;
+    }
+
+    /** Return a state of MACH decoded from BYTES, as written by
+     *  toBytes.  The plugboard is MACH's current plugboard if it has the
+     *  same cycles. */
+    static MachineState fromBytes(byte[] bytes, Machine mach) {
+        int stateBytes = (mach.stateBits() + Byte.SIZE - 1) / Byte.SIZE;
+        if (bytes.length < stateBytes) {
+            throw error("machine state truncated");
+        }
+        long[] words = new long[(mach.stateBits() + Long.SIZE - 1)
+                                / Long.SIZE];
+        for (int i = 0; i < stateBytes; i += 1) {
+            words[i / Long.BYTES] |=
+                (bytes[i] & 0xffL) << (i % Long.BYTES * Byte.SIZE);
+        }
+        String cycles = new String(bytes, stateBytes,
+                                   bytes.length - stateBytes,
+                                   StandardCharsets.UTF_8);
+        Permutation plug = mach.plugboard();
+        if (plug == null || !plug.getClean().equals(cycles)) {
+            plug = new Permutation(cycles.isEmpty() ? ""
+                                   : "(" + cycles.replace(" ", ") (") + ")",
+                                   mach.alphabet());
+        }
+        return new MachineState(words, plug);
+    }
+
+    /** Return my encoding as bytes: the packed slots of MACH (a machine
+     *  that can restore me) in as few bytes as they need, least
+     *  significant first, followed by my plugboard's cycles. */
+    byte[] toBytes(Machine mach) {
+        int stateBytes = (mach.stateBits() + Byte.SIZE - 1) / Byte.SIZE;
+        byte[] cycles = _plugboard == null ? new byte[0]
+            : _plugboard.getClean().getBytes(StandardCharsets.UTF_8);
+        byte[] result = new byte[stateBytes + cycles.length];
+        for (int i = 0; i < stateBytes; i += 1) {
+            result[i] =
+                (byte) (_words[i / Long.BYTES]
+                        >>> (i % Long.BYTES * Byte.SIZE));
+        }
+        System.arraycopy(cycles, 0, result, stateBytes, cycles.length);
+        return result;
+    }
+
+    /** Return the N-bit field of WORDS starting at bit POS. */
+    static long getBits(long[] words, int pos, int n) {
+        int w = pos / Long.SIZE, b = pos % Long.SIZE;
+        long bits = words[w] >>> b;
+        if (b + n > Long.SIZE) {
+            bits |= words[w + 1] << (Long.SIZE - b);
+        }
+        return bits & ((1L << n) - 1);
+    }
+
+    /** Store VALUE into the N-bit field of WORDS starting at bit POS,
+     *  which must be 0.  N is less than Long.SIZE. */
+    static void putBits(long[] words, int pos, int n, long value) {
+        int w = pos / Long.SIZE, b = pos % Long.SIZE;
+        words[w] |= value << b;
+        if (b + n > Long.SIZE) {
+            words[w + 1] |= value >>> (Long.SIZE - b);
+        }
+    }
+
+    /** Return the number of words holding my slots. */
+    int numWords() {
+        return _words.length;
+    }
+
+    /** Return the N-bit field of my packed slots starting at bit
+     *  POS. */
+    long field(int pos, int n) {
+        return getBits(_words, pos, n);
+    }
+
+    /** Return my plugboard. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof MachineState)) {
+            return false;
+        }
+        MachineState other = (MachineState) obj;
+        return Arrays.equals(_words, other._words)
+            && (_plugboard == other._plugboard
+                || _plugboard != null && other._plugboard != null
+                   && _plugboard.getClean()
+                      .equals(other._plugboard.getClean()));
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(_words);
+    }
+
+    /** The slots, packed as described in Machine.snapshot. */
+    private final long[] _words;
+
+    /** The plugboard. */
+    private final Permutation _plugboard;
+}
@@ -0,0 +1,57 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the MachineState class.
+ *  @author jordanta
+ */
+public class MachineStateTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testSnapshot() {
+        String plain = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        Machine mach = navalMachine();
+        mach.convert(plain.substring(0, 20));
+        MachineState state = mach.snapshot();
+        String tail = mach.convert(plain.substring(20));
+        Machine other = mach.copy();
+        other.insertRotors(new String[] { "B", "Beta", "I", "III", "IV" });
+        other.setRotors("ZZZZ");
+        other.setPlugboard(new Permutation("", UPPER));
+        byte[] bytes = state.toBytes(mach);
+        assertTrue(bytes.length < 32);
+        MachineState parked = MachineState.fromBytes(bytes, other);
+        assertEquals(state, parked);
+        other.restore(parked);
+        assertEquals(tail, other.convert(plain.substring(20)));
+        mach.restore(state);
+        assertEquals(tail, mach.convert(plain.substring(20)));
+    }
+
+    @Test
+    public void testWideFields() {
+        int width = 12 + 2 * 11;
+        long[] values = new long[5];
+        long[] words = new long[3];
+        for (int i = 0; i < values.length; i += 1) {
+            values[i] = (1L << width) - 1 - 977L * i;
+            MachineState.putBits(words, i * width, width, values[i]);
+        }
+        for (int i = 0; i < values.length; i += 1) {
+            assertEquals(values[i],
+                         MachineState.getBits(words, i * width, width));
+        }
+    }
+
+}
@@ -1,6 +1,8 @@
 package enigma;
 
 import java.util.HashMap;
+import java.util.List;
+import java.util.Scanner;
 import org.junit.Test;
 import org.junit.Rule;
 import org.junit.rules.Timeout;
@@ -77,5 +79,77 @@ public class MachineTest {
                 mach.convert("FROMHISSHOULDERHIAWATHA"));
     }
 
+    @Test
+    public void testLongRoundTrip() {
+        String plain = "";
+        for (int i = 0; i < 40; i += 1) {
+            plain += "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        }
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        String cipher = mach.convert(plain);
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW", cipher.substring(0, 23));
+        mach.setRotors(SETTING1);
+        assertEquals(plain, mach.convert(cipher));
+    }
+
+    @Test
+    public void testEngineCounters() {
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        String plain = "FROMHISSHOULDERHIAWATHA";
+        String cipher = mach.convert(plain);
+        int total = plain.length();
+        long reused = mach.settingsReused();
+        for (int i = 0; i < 3 * Machine.EXPLORE; i += 1) {
+            mach.setRotors(SETTING1);
+            assertEquals(cipher, mach.convert(plain));
+            total += plain.length();
+        }
+        assertEquals(total, mach.engineChars(Machine.Engine.DIRECT)
+                     + mach.engineChars(Machine.Engine.CACHED));
+        assertTrue(mach.engineChars(Machine.Engine.DIRECT) > 0);
+        assertTrue(mach.engineSwitches() > 0);
+        assertEquals(3 * Machine.EXPLORE, mach.settingsReused() - reused);
+        assertEquals(total, mach.byteChars());
+
+        Alphabet wide = new Alphabet("ABCD\u00c9F");
+        Machine other = new Machine(wide, 2, 1, List.of(
+            new Reflector("R", new Permutation("(AB) (CD) (\u00c9F)", wide)),
+            new MovingRotor("I", new Permutation("(ABCD\u00c9F)", wide),
+                            "A")));
+        other.insertRotors(new String[] { "R", "I" });
+        other.setRotors("A");
+        other.setPlugboard(new Permutation("", wide));
+        assertEquals(4, other.convert("AB\u00c9F").length());
+        assertEquals(0, other.byteChars());
+    }
+
+    @Test
+    public void testRings() {
+        Machine mach =
+            Main.readConfig(new Scanner(TestUtils.NAVAL_CONFIG));
+        Main.setUp(mach, "* B Beta I II III AAAA");
+        assertEquals("BDZGO", mach.convert("AAAAA"));
+        Main.setUp(mach, "* B Beta I II III AAAA ABBB");
+        assertEquals("EWTYX", mach.convert("AAAAA"));
+        assertEquals(1, mach.getRotor(4).ring());
+
+        String plain = TestUtils.PLAIN.repeat(4);
+        Main.setUp(mach, "* B Beta I II III AQDU AHLC (AT) (HQ)");
+        Encryptor enc = mach.compile();
+        MachineState state = mach.snapshot();
+        String cipher = mach.convert(plain);
+        for (int i = 0; i < plain.length(); i += 1) {
+            assertEquals(cipher.charAt(i), AZ.toChar(
+                             enc.convert(AZ.toInt(plain.charAt(i)))));
+        }
+        Machine other = mach.copy();
+        other.restore(state);
+        assertEquals(cipher, other.convert(plain));
+        Main.setUp(mach, "* B Beta I II III AQDU (AT) (HQ)");
+        assertEquals(0, mach.getRotor(4).ring());
+        assertNotEquals(cipher, mach.convert(plain));
+    }
 
 }
@@ -1,14 +1,25 @@
 package enigma;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.util.zip.GZIPInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
 
 import java.util.Scanner;
 import java.util.List;
 import java.util.Collection;
 import java.util.NoSuchElementException;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import ucb.util.CommandArgs;
 
@@ -26,18 +37,31 @@ public final class Main {
      *  containing messages.  Otherwise, input comes from the standard
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
-     *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  standard output. Input and output files whose names end in .gz
+     *  are gzip-compressed. With --tables=STORE, the machine uses the
+     *  precomputed substitutions in the TableStore file STORE. With
+     *  --stats, counts of the machine's engine choices (see
+     *  Machine.chooseEngine) are printed on the standard error. With
+     *  --compile, each message is converted by an Encryptor generated
+     *  for its rotor order (see Machine.compile). Exits
+     *  normally if there are no errors in the input; otherwise with
+     *  code 1. */
     public static void main(String... args) {
         try {
             CommandArgs options =
-                new CommandArgs("--verbose --=(.*){1,3}", args);
+                new CommandArgs("--verbose --stats --compile "
+                                + "--tables=(.+){0,1} --=(.*){1,3}", args);
             if (!options.ok()) {
-                throw error("Usage: java enigma.Main [--verbose] "
-                            + "[INPUT [OUTPUT]]");
+                throw error("Usage: java enigma.Main [--verbose] [--stats] "
+                            + "[--compile] [--tables=STORE] "
+                            + "CONFIG [INPUT [OUTPUT]]");
             }
 
             _verbose = options.contains("--verbose");
+            _tableFile = ToolUtils.option(options, "--tables", null);
+            _stats = options.contains("--stats");
+            _compile = options.contains("--compile")
+                && !options.contains("--verbose");
             new Main(options.get("--")).process();
             return;
         } catch (EnigmaException excp) {
@@ -49,12 +73,13 @@ public final class Main {
     /** Open the necessary files for non-option arguments ARGS (see comment
       *  on main). */
     Main(List<String> args) {
-        _config = getInput(args.get(0));
+        _config = getConfig(args.get(0));
 
         if (args.size() > 1) {
             _input = getInput(args.get(1));
         } else {
-            _input = new Scanner(System.in);
+            _input = new InputStreamReader(System.in);
+            _stdin = true;
         }
 
         if (args.size() > 2) {
@@ -64,18 +89,49 @@ public final class Main {
         }
     }
 
-    /** Return a Scanner reading from the file named NAME. */
-    private Scanner getInput(String name) {
+    /** Return a Reader reading from the file named NAME, decompressing
+     *  it if NAME ends in .gz. */
+    private Reader getInput(String name) {
         try {
-            return new Scanner(new File(name));
+            if (name.endsWith(GZ)) {
+                return new InputStreamReader(new GZIPInputStream(
+                    new BufferedInputStream(new FileInputStream(name))));
+            }
+            return new InputStreamReader(new FileInputStream(name));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return the contents of the configuration file named NAME,
+     *  decompressing it if NAME ends in .gz.  An uncompressed file is
+     *  mapped rather than read. */
+    private ByteBuffer getConfig(String name) {
+        try {
+            if (name.endsWith(GZ)) {
+                try (InputStream inp = new GZIPInputStream(
+                         new FileInputStream(name))) {
+                    return ByteBuffer.wrap(inp.readAllBytes());
+                }
+            }
+            try (FileChannel chan = FileChannel.open(Paths.get(name))) {
+                return chan.map(FileChannel.MapMode.READ_ONLY, 0,
+                                chan.size());
+            }
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
+    /** Return a PrintStream writing to the file named NAME, compressing
+     *  (on several threads; see ParallelGzipOutputStream) if NAME ends
+     *  in .gz. */
     private PrintStream getOutput(String name) {
         try {
+            if (name.endsWith(GZ)) {
+                return new PrintStream(new ParallelGzipOutputStream(
+                    new FileOutputStream(name)));
+            }
             return new PrintStream(new File(name));
         } catch (IOException excp) {
             throw error("could not open %s", name);
@@ -84,64 +140,255 @@ public final class Main {
 
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
-     *  results to _output. */
+     *  results to _output.  The work is done in three stages, each on its
+     *  own thread: this one writes the output, while one thread parses
+     *  the input into settings lines and message lines and another sets
+     *  up the machine and converts the messages.  The stages pass Batches
+     *  of lines to one another through SpscRings and return them to the
+     *  parser through another for reuse, so that reading, converting, and
+     *  writing overlap and no stage waits for another while it has work
+     *  queued.  _output is closed even when a stage fails, so that the
+     *  output of the messages before the failure is kept. */
     private void process() {
-        String message = "";
-        Machine mach = readConfig();
+        Machine mach = readConfig(_config);
+        if (_tableFile != null) {
+            mach.setTables(new TableStore(Paths.get(_tableFile), mach));
+        }
+        _alphabet = mach.alphabet();
+        SpscRing<Batch> free = new SpscRing<>(BATCHES),
+            parsed = new SpscRing<>(BATCHES),
+            converted = new SpscRing<>(BATCHES);
+        for (int i = 0; i < BATCHES; i += 1) {
+            free.put(new Batch());
+        }
+        Thread parser = start("enigma-parse", () -> parse(free, parsed));
+        Thread converter =
+            start("enigma-convert", () -> convert(mach, parsed, converted));
+        Throwable failure = null;
+        boolean last;
+        try {
+            do {
+                Batch batch = converted.take();
+                _output.append(batch.out);
+                failure = batch.failure;
+                last = batch.last;
+                batch.clear();
+                free.put(batch);
+            } while (!last);
+        } finally {
+            if (_output != System.out) {
+                _output.close();
+                if (_output.checkError() && failure == null) {
+                    throw error("could not write output");
+                }
+            }
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new IllegalStateException(failure);
+        }
+        try {
+            parser.join();
+            converter.join();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        }
+        if (_stats) {
+            printStats(mach);
+            printStats("parsed", parsed);
+            printStats("convert", converted);
+            printStats("free", free);
+        }
+    }
+
+    /** Start and return a daemon thread named NAME running BODY. */
+    private static Thread start(String name, Runnable body) {
+        Thread t = new Thread(body, name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    /** The parsing stage of process: split _input into blank lines,
+     *  settings lines, and message lines (without their blanks) with a
+     *  Lexer, adding them to Batches taken from FREE, and put each Batch
+     *  on PARSED when it is full or when reading further might wait for
+     *  input.  The last Batch is marked as such, and records the
+     *  exception or error that stopped parsing, if any, so that the
+     *  other stages always see the end of the input. */
+    private void parse(SpscRing<Batch> free, SpscRing<Batch> parsed) {
+        Batch batch = free.take();
+        _lexer = new Lexer(_input, _alphabet);
         try {
-            while (_input.hasNext()) {
-                String input = _input.nextLine();
-                while (input == "") {
-                    _output.print("\n");
-                    input = _input.nextLine();
+            for (int kind = _lexer.next(); kind != Lexer.END;
+                 kind = _lexer.next()) {
+                switch (kind) {
+                case Lexer.BLANK:
+                    batch = add(batch, Batch.BLANK, null, 0, free, parsed);
+                    break;
+                case Lexer.SETTINGS:
+                    batch = add(batch, Batch.SETTINGS, _lexer.text(),
+                                _lexer.line(), free, parsed);
+                    break;
+                default:
+                    batch = add(batch, Batch.MESSAGE, _lexer.text(),
+                                _lexer.line(), free, parsed);
+                    break;
                 }
-                setUp(mach, input);
-                try {
-                    while (_input.hasNext(
-                            "[" + _alphabet.getChars() + "]+")) {
-                        message = mach.convert(_input.nextLine()
-                                .replaceAll("\\s+", ""));
-                        printMessageLine(message);
+            }
+        } catch (Throwable excp) {
+            batch.failure = excp;
+        }
+        batch.last = true;
+        parsed.put(batch);
+    }
+
+    /** Add a line of type KIND and text LINE, number LINENUM, to BATCH,
+     *  and return the Batch to which to add the next line: BATCH itself,
+     *  or a Batch from FREE after putting BATCH on PARSED. */
+    private Batch add(Batch batch, byte kind, String line, int lineNum,
+                      SpscRing<Batch> free, SpscRing<Batch> parsed) {
+        batch.kinds[batch.size] = kind;
+        batch.lines[batch.size] = line;
+        batch.lineNums[batch.size] = lineNum;
+        batch.size += 1;
+        if (batch.size < Batch.LINES && !inputWaits()) {
+            return batch;
+        }
+        parsed.put(batch);
+        return free.take();
+    }
+
+    /** Return true iff _input is the standard input and reading it
+     *  further might wait for more to be typed or piped in. */
+    private boolean inputWaits() {
+        return _stdin && !_lexer.ready();
+    }
+
+    /** The conversion stage of process: set up MACH and convert the
+     *  lines of each Batch taken from PARSED in turn, appending the
+     *  output for each to the Batch, and put the Batch on CONVERTED.
+     *  Stops after the last Batch or the first exception or error, which
+     *  is recorded in the Batch that was being converted, and which
+     *  then becomes the last. */
+    private void convert(Machine mach, SpscRing<Batch> parsed,
+                         SpscRing<Batch> converted) {
+        Encryptor enc = null;
+        Batch batch;
+        do {
+            batch = parsed.take();
+            try {
+                for (int i = 0; i < batch.size; i += 1) {
+                    String line = batch.lines[i];
+                    switch (batch.kinds[i]) {
+                    case Batch.BLANK:
+                        batch.out.append('\n');
+                        break;
+                    case Batch.SETTINGS:
+                        setUp(mach, line, batch.lineNums[i]);
+                        enc = _compile ? mach.compile() : null;
+                        break;
+                    default:
+                        String message = enc == null ? mach.convert(line)
+                            : convert(enc, line);
+                        appendMessageLine(batch.out, message);
+                        break;
                     }
-                } catch (NoSuchElementException e) {
-                    throw error("Throw exception");
                 }
+            } catch (Throwable excp) {
+                batch.failure = excp;
+                batch.last = true;
             }
-        } catch (EnigmaException e) {
-            throw new EnigmaException("No config");
+            converted.put(batch);
+        } while (!batch.last);
+    }
+
+    /** A group of consecutive lines of input, with the output for them
+     *  once they are converted. */
+    private static final class Batch {
+
+        /** Kinds of line: blank, settings, and message. */
+        static final byte BLANK = 0, SETTINGS = 1, MESSAGE = 2;
+
+        /** Maximum number of lines in a Batch. */
+        static final int LINES = 256;
+
+        /** Empty this Batch for reuse. */
+        void clear() {
+            Arrays.fill(lines, 0, size, null);
+            size = 0;
+            out.setLength(0);
+            last = false;
+            failure = null;
         }
+
+        /** Number of lines. */
+        int size;
+
+        /** Kind of each line. */
+        final byte[] kinds = new byte[LINES];
+
+        /** Number of each settings line in the input. */
+        final int[] lineNums = new int[LINES];
+
+        /** Text of each line: null for a blank line, the whole of a
+         *  settings line, and a message line without its blanks. */
+        final String[] lines = new String[LINES];
+
+        /** Output for the lines converted so far. */
+        final StringBuilder out = new StringBuilder();
+
+        /** True iff this is the last Batch of the input. */
+        boolean last;
+
+        /** The exception or error that ended the input, or null. */
+        Throwable failure;
     }
 
-    /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
-    private Machine readConfig() {
+    /** Return an Enigma machine configured from CONFIG, the text of a
+     *  configuration file.  The rotor descriptions are only indexed (see
+     *  RotorCatalog); each is parsed when the machine first uses it. */
+    static Machine readConfig(ByteBuffer config) {
+        RotorCatalog catalog = new RotorCatalog(config);
+        return new Machine(catalog.alphabet(), catalog.numRotors(),
+                           catalog.numPawls(), catalog);
+    }
+
+    /** Return an Enigma machine configured from the contents of the
+     *  configuration read from CONFIG. */
+    static Machine readConfig(Scanner config) {
         try {
             Collection<Rotor> allRotors = new ArrayList<>();
-            _alphabet = new Alphabet(_config.nextLine());
-            int numRotors = _config.nextInt();
-            int pawls = _config.nextInt();
-            while (_config.hasNext("[^*]+")) {
-                Rotor r = readRotor();
+            Alphabet alphabet = new Alphabet(config.nextLine());
+            int numRotors = config.nextInt();
+            int pawls = config.nextInt();
+            while (config.hasNext("[^*]+")) {
+                Rotor r = readRotor(config, alphabet);
                 allRotors.add(r);
             }
-            return new Machine(_alphabet, numRotors, pawls, allRotors);
+            return new Machine(alphabet, numRotors, pawls, allRotors);
         } catch (NoSuchElementException excp) {
             throw error("configuration file truncated");
         }
     }
 
-    /** Return a rotor, reading its description from _config. */
-    private Rotor readRotor() {
+    /** Return a rotor over ALPHABET, reading its description from
+     *  CONFIG. */
+    private static Rotor readRotor(Scanner config, Alphabet alphabet) {
         try {
-            String name = _config.next("[^*()]+");
-            String typeNotches = _config.next("[A-Za-z0-9]+");
+            String name = config.next("[^*()]+");
+            String typeNotches = config.next("[A-Za-z0-9]+");
             char type = typeNotches.charAt(0);
             String notches = typeNotches.substring(1);
             String perm = "";
-            while (_config.hasNext("\\([^*]*\\)")) {
-                perm += _config.next("\\([^*]*\\)");
+            while (config.hasNext("\\([^*]*\\)")) {
+                perm += config.next("\\([^*]*\\)");
             }
-            Permutation p = new Permutation(perm, _alphabet);
+            Permutation p = new Permutation(perm, alphabet);
             if (type == 'M') {
                 return new MovingRotor(name, p, notches);
             } else if (type == 'R') {
@@ -155,68 +402,131 @@ public final class Main {
     }
 
     /** Set M according to the specification given on SETTINGS,
-     *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
-        Scanner s = new Scanner(settings);
-        String[] rotors = new String[M.getNumRotors()];
-        try {
-            s.next("\\*");
-        } catch (NoSuchElementException e) {
-            throw new EnigmaException("No config");
-        }
-        for (int i = 0; i < M.getNumRotors(); ++i) {
-            String temp = s.next("[^()\\s]+");
-            rotors[i] =  temp;
-        }
-        M.insertRotors(rotors);
-        String setting = s.next("[^*()]+");
-        String cycle = "";
-        if (s.hasNext()) {
-            try {
-                while (s.hasNext("\\(.*\\)")) {
-                    cycle += s.next("\\(.*\\)");
+     *  which must have the format specified in the assignment, optionally
+     *  with the ring settings, in the same form as the rotor settings,
+     *  following the rotor settings. */
+    static void setUp(Machine M, String settings) {
+        setUp(M, settings, 0);
+    }
+
+    /** Set M according to SETTINGS, as for setUp(M, SETTINGS), where
+     *  SETTINGS is line number LINE of the input (or LINE is 0), giving
+     *  the line and column of any error. */
+    static void setUp(Machine M, String settings, int line) {
+        Lexer.Settings s =
+            new Lexer.Settings(settings, line, M.numRotors(), M.alphabet());
+        RotorCatalog catalog = M.catalog();
+        for (int i = 0; i < s.rotors.length; i += 1) {
+            if (catalog.id(s.rotors[i]) < 0) {
+                throw s.errorAt(s.columns[i], "Bad rotor name %s",
+                                s.rotors[i]);
+            }
+            for (int j = 0; j < i; j += 1) {
+                if (s.rotors[i].equals(s.rotors[j])) {
+                    throw s.errorAt(s.columns[i], "Duplicate rotor name %s",
+                                    s.rotors[i]);
                 }
-            } catch (NoSuchElementException e) {
-                throw new EnigmaException("Wrong settings");
             }
         }
-        Permutation plug = new Permutation(cycle, _alphabet);
-        M.setRotors(setting);
+        try {
+            M.insertRotors(s.rotors);
+        } catch (EnigmaException excp) {
+            throw s.errorAt(s.columns[0], "%s", excp.getMessage());
+        }
+        Permutation plug;
+        try {
+            plug = new Permutation(s.cycles, M.alphabet());
+        } catch (EnigmaException excp) {
+            throw s.errorAt(s.cyclesColumn, "%s", excp.getMessage());
+        }
+        M.setRotors(s.setting, s.rings);
         M.setPlugboard(plug);
     }
 
+    /** Return the conversion of MSG by ENC. */
+    private String convert(Encryptor enc, String msg) {
+        char[] result = new char[msg.length()];
+        for (int i = 0; i < result.length; i += 1) {
+            int c = _alphabet.toInt(msg.charAt(i));
+            if (c < 0) {
+                throw error("character '%c' not in alphabet", msg.charAt(i));
+            }
+            result[i] = _alphabet.toChar(enc.convert(c));
+        }
+        return new String(result);
+    }
+
+    /** Print the statistics of RING, named NAME, on the standard
+     *  error. */
+    private static void printStats(String name, SpscRing<?> ring) {
+        System.err.printf("%-8s %12d batches, depth %.2f mean %d max, "
+                          + "%d full %d empty waits%n", name, ring.puts(),
+                          ring.meanDepth(), ring.maxDepth(),
+                          ring.fullWaits(), ring.emptyWaits());
+    }
+
+    /** Print the engine counters of MACH on the standard error. */
+    private static void printStats(Machine mach) {
+        for (Machine.Engine e : Machine.Engine.values()) {
+            System.err.printf("%-8s %12d chars%n", e.name().toLowerCase(),
+                              mach.engineChars(e));
+        }
+        System.err.printf("switches %12d%n", mach.engineSwitches());
+        System.err.printf("reused   %12d settings%n",
+                          mach.settingsReused());
+        System.err.printf("bytepath %12d chars%n", mach.byteChars());
+    }
 
     /** Return true iff verbose option specified. */
     static boolean verbose() {
         return _verbose;
     }
 
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    private void printMessageLine(String msg) {
-        String newMsg = "";
-        for (int i = 0; i < msg.length(); ++i) {
-            if (i % 5 == 0 && i != 0) {
-                newMsg += " ";
+    /** Append MSG to OUT in groups of five (except that the last group
+     *  may have fewer letters), followed by a newline. */
+    static void appendMessageLine(StringBuilder out, String msg) {
+        for (int i = 0; i < msg.length(); i += 5) {
+            if (i != 0) {
+                out.append(' ');
             }
-            newMsg += msg.charAt(i);
+            out.append(msg, i, Math.min(i + 5, msg.length()));
         }
-        newMsg += "\n";
-        _output.print(newMsg);
+        out.append('\n');
     }
 
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
     /** Source of input messages. */
-    private Scanner _input;
+    private Reader _input;
+
+    /** True iff _input reads the standard input. */
+    private boolean _stdin;
+
+    /** Splits _input into lines. */
+    private Lexer _lexer;
+
+    /** Number of Batches passing between the stages of process. */
+    private static final int BATCHES = 16;
 
-    /** Source of machine configuration. */
-    private Scanner _config;
+    /** Text of the machine configuration. */
+    private ByteBuffer _config;
 
     /** File for encoded/decoded messages. */
     private PrintStream _output;
 
+    /** Suffix of the names of gzip-compressed files. */
+    private static final String GZ = ".gz";
+
     /** True if --verbose specified. */
     private static boolean _verbose;
+
+    /** True if --compile specified (and --verbose not). */
+    private static boolean _compile;
+
+    /** True if --stats specified. */
+    private static boolean _stats;
+
+    /** Name of the TableStore file given by --tables, or null. */
+    private static String _tableFile;
 }
@@ -34,6 +34,11 @@ class MovingRotor extends Rotor {
         set((getSetting() + 1) % size);
     }
 
+    @Override
+    Rotor copy() {
+        return new MovingRotor(name(), permutation(), _notches);
+    }
+
     /** Returns the notches. */
     @Override
     String notches() {
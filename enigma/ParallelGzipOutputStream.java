@@ -0,0 +1,185 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/** An output stream that gzip-compresses everything written to it on
+ *  several threads.  The data are cut into blocks, and each block is
+ *  compressed independently into a complete gzip member; the members are
+ *  written in order, so the result is a multi-member gzip file that
+ *  GZIPInputStream, gzip and zcat read as one stream.
+ *  @author jordanta
+ */
+class ParallelGzipOutputStream extends OutputStream {
+
+    /** Default bytes per block. */
+    static final int DEFAULT_BLOCK = 1 << 17;
+
+    /** Header of a gzip member without name, time or flags. */
+    private static final byte[] HEADER = {
+        0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    /** A stream compressing into OUT in blocks of BLOCK bytes on THREADS
+     *  threads. */
+    ParallelGzipOutputStream(OutputStream out, int threads, int block) {
+        if (threads < 1 || block < 1) {
+            throw new IllegalArgumentException("threads and block size "
+                                               + "must be positive");
+        }
+        _out = out;
+        _pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "gzip");
+                t.setDaemon(true);
+                return t;
+            });
+        _maxPending = 2 * threads;
+        _pending = new ArrayDeque<>();
+        _block = new byte[block];
+    }
+
+    /** A stream compressing into OUT in blocks of DEFAULT_BLOCK bytes on
+     *  one thread per processor. */
+    ParallelGzipOutputStream(OutputStream out) {
+        this(out, Runtime.getRuntime().availableProcessors(), DEFAULT_BLOCK);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (_filled == _block.length) {
+            submit();
+        }
+        _block[_filled] = (byte) b;
+        _filled += 1;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (_filled == _block.length) {
+                submit();
+            }
+            int n = Math.min(len, _block.length - _filled);
+            System.arraycopy(b, off, _block, _filled, n);
+            _filled += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Compress everything written so far and write it out. */
+    @Override
+    public void flush() throws IOException {
+        if (_filled > 0) {
+            submit();
+        }
+        while (!_pending.isEmpty()) {
+            writeNext();
+        }
+        _out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (_closed) {
+            return;
+        }
+        try {
+            if (!_written && _filled == 0) {
+                submit();
+            }
+            flush();
+        } finally {
+            _closed = true;
+            _pool.shutdownNow();
+            _out.close();
+        }
+    }
+
+    /** Start compressing the current block, first writing out finished
+     *  blocks if too many are pending. */
+    private void submit() throws IOException {
+        while (_pending.size() >= _maxPending) {
+            writeNext();
+        }
+        byte[] data = Arrays.copyOf(_block, _filled);
+        _pending.add(_pool.submit(() -> member(data)));
+        _filled = 0;
+        _written = true;
+    }
+
+    /** Write the oldest pending block, waiting for it if needed. */
+    private void writeNext() throws IOException {
+        try {
+            _out.write(_pending.remove().get());
+        } catch (ExecutionException excp) {
+            throw new IOException("compression failed", excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IOException("compression interrupted");
+        }
+    }
+
+    /** Return DATA compressed as one complete gzip member. */
+    static byte[] member(byte[] data) {
+        ByteArrayOutputStream result =
+            new ByteArrayOutputStream(data.length / 2 + HEADER.length);
+        result.write(HEADER, 0, HEADER.length);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buf = new byte[1 << 15];
+            while (!deflater.finished()) {
+                result.write(buf, 0, deflater.deflate(buf));
+            }
+        } finally {
+            deflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        writeInt(result, (int) crc.getValue());
+        writeInt(result, data.length);
+        return result.toByteArray();
+    }
+
+    /** Write V to OUT in little-endian order. */
+    private static void writeInt(ByteArrayOutputStream out, int v) {
+        for (int i = 0; i < Integer.BYTES; i += 1) {
+            out.write(v >>> (i * Byte.SIZE));
+        }
+    }
+
+    /** Destination of the compressed data. */
+    private final OutputStream _out;
+
+    /** Threads compressing blocks. */
+    private final ExecutorService _pool;
+
+    /** Most blocks compressing or awaiting output at once. */
+    private final int _maxPending;
+
+    /** Compressed blocks not yet written, in order. */
+    private final ArrayDeque<Future<byte[]>> _pending;
+
+    /** The block being filled. */
+    private final byte[] _block;
+
+    /** Number of bytes in _block. */
+    private int _filled;
+
+    /** True once any block has been submitted. */
+    private boolean _written;
+
+    /** True once closed. */
+    private boolean _closed;
+}
@@ -0,0 +1,70 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the ParallelGzipOutputStream class.
+ *  @author jordanta
+ */
+public class ParallelGzipOutputStreamTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return DATA compressed with THREADS threads in blocks of BLOCK
+     *  bytes, written in pieces of up to CHUNK bytes. */
+    static byte[] compress(byte[] data, int threads, int block, int chunk)
+        throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream gz =
+             new ParallelGzipOutputStream(out, threads, block)) {
+            for (int i = 0; i < data.length; i += chunk) {
+                if (chunk == 1) {
+                    gz.write(data[i]);
+                } else {
+                    gz.write(data, i, Math.min(chunk, data.length - i));
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /** Return the result of decompressing DATA. */
+    static byte[] decompress(byte[] data) throws IOException {
+        try (GZIPInputStream inp =
+             new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return inp.readAllBytes();
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] data = new byte[100000];
+        Random rand = new Random(61);
+        for (int i = 0; i < data.length; i += 1) {
+            data[i] = (byte) ('A' + rand.nextInt(26));
+        }
+        assertArrayEquals(data, decompress(compress(data, 3, 4096, 1000)));
+        assertArrayEquals(data, decompress(compress(data, 1, 777, 1)));
+        assertArrayEquals(data, decompress(compress(data, 4, 1 << 20,
+                                                    data.length)));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        assertEquals(0, decompress(compress(new byte[0], 2, 16, 1)).length);
+    }
+}
@@ -0,0 +1,198 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** Re-encrypts a region of a file of messages converted by Main in
+ *  place, so that a small change to a large plaintext need not be
+ *  converted all over again.  The file holds a message converted under
+ *  a known settings line, printed in groups of five letters (see
+ *  Main.appendMessageLine).  A patch replaces the plaintext of the
+ *  letters within a given range of bytes: the machine is advanced past
+ *  the letters before the range without converting them, converts the
+ *  replacement, and its output overwrites just those letters, leaving
+ *  the blanks and line breaks that group them where they were.  The
+ *  alphabet must consist of ASCII characters, each of which is then
+ *  one byte of the file.
+ *  @author jordanta
+ */
+public final class Patcher {
+
+    /** Patch a file as specified by ARGS:
+     *      --settings=SETTINGS --range=START-END [--from=OFFSET]
+     *      CONFIG FILE [REPLACEMENT]
+     *  The message beginning at byte OFFSET (default 0) of FILE was
+     *  converted under the machine described by CONFIG set up by the
+     *  settings line SETTINGS.  The letters in bytes START (inclusive)
+     *  to END (exclusive) are replaced by the conversion of the letters
+     *  of the file REPLACEMENT (or of the standard input), of which
+     *  there must be as many.  Exits normally if there are no errors;
+     *  otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--settings=(.+) --range=(\\d+-\\d+) "
+                                + "--from=(\\d+){0,1} --=(.*){2,3}", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.Patcher --settings=SETTINGS "
+                            + "--range=START-END [--from=OFFSET] "
+                            + "CONFIG FILE [REPLACEMENT]");
+            }
+            List<String> files = options.get("--");
+            String[] range = options.getLast("--range").split("-");
+            Patcher patcher =
+                new Patcher(Main.readConfig(ToolUtils.getInput(files.get(0))),
+                            options.getLast("--settings"));
+            String text = files.size() > 2 ? ToolUtils.readText(files.get(2))
+                : ToolUtils.letters(new String(System.in.readAllBytes(),
+                                               StandardCharsets.UTF_8));
+            try (FileChannel file =
+                     FileChannel.open(Paths.get(files.get(1)),
+                                      StandardOpenOption.READ,
+                                      StandardOpenOption.WRITE)) {
+                patcher.patch(file,
+                              Long.parseLong(ToolUtils.option(options,
+                                                              "--from",
+                                                              "0")),
+                              Long.parseLong(range[0]),
+                              Long.parseLong(range[1]), text);
+            }
+            return;
+        } catch (IOException excp) {
+            System.err.printf("Error: I/O error: %s%n", excp.getMessage());
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: offset too large%n");
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A Patcher for messages converted by MACH after it is set up by
+     *  the settings line SETTINGS. */
+    Patcher(Machine mach, String settings) {
+        _mach = mach;
+        _settings = settings;
+        _alphabet = mach.alphabet();
+        for (int c = 0; c < _alphabet.size(); c += 1) {
+            if (_alphabet.toChar(c) >= ASCII) {
+                throw error("cannot patch files in non-ASCII alphabet");
+            }
+        }
+    }
+
+    /** Replace the letters in bytes START (inclusive) to END (exclusive)
+     *  of FILE with the conversion of TEXT, where the message starting at
+     *  byte FROM of FILE is the conversion of some text under my
+     *  settings.  TEXT must contain exactly as many letters as the
+     *  range, and no blanks.  Only bytes START to END are written.
+     *  Returns the number of letters replaced. */
+    int patch(FileChannel file, long from, long start, long end,
+              String text) throws IOException {
+        if (from < 0 || from > start || start > end || end > file.size()) {
+            throw error("range %d-%d is not in the message", start, end);
+        }
+        if (end - start > Integer.MAX_VALUE) {
+            throw error("range %d-%d too large", start, end);
+        }
+        ByteBuffer region = ByteBuffer.allocate((int) (end - start));
+        read(file, region, start);
+        int n = 0;
+        for (int i = 0; i < region.limit(); i += 1) {
+            byte b = region.get(i);
+            if (isLetter(b, start + i)) {
+                if (_alphabet.toInt((char) b) < 0) {
+                    throw error("byte %d is not in the alphabet", start + i);
+                }
+                n += 1;
+            }
+        }
+        if (text.length() != n) {
+            throw error("replacement has %d letters; range has %d",
+                        text.length(), n);
+        }
+
+        Main.setUp(_mach, _settings);
+        for (long k = letters(file, from, start); k > 0; k -= 1) {
+            _mach.advance();
+        }
+        for (int i = 0, j = 0; i < region.limit(); i += 1) {
+            if (isLetter(region.get(i), start + i)) {
+                int c = _alphabet.toInt(text.charAt(j));
+                if (c < 0) {
+                    throw error("character '%c' not in alphabet",
+                                text.charAt(j));
+                }
+                region.put(i, (byte) _alphabet.toChar(_mach.convert(c)));
+                j += 1;
+            }
+        }
+
+        region.rewind();
+        for (long p = start; region.hasRemaining(); ) {
+            p += file.write(region, p);
+        }
+        return n;
+    }
+
+    /** Return the number of letters (non-blank bytes) of FILE from byte
+     *  FROM (inclusive) to byte TO (exclusive).  A non-ASCII byte is an
+     *  error. */
+    private static long letters(FileChannel file, long from, long to)
+        throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(BLOCK);
+        long result = 0;
+        for (long p = from; p < to; p += buf.limit()) {
+            buf.clear();
+            buf.limit((int) Math.min(BLOCK, to - p));
+            read(file, buf, p);
+            for (int i = 0; i < buf.limit(); i += 1) {
+                result += isLetter(buf.get(i), p + i) ? 1 : 0;
+            }
+        }
+        return result;
+    }
+
+    /** Return true iff B, the byte at POSITION in the file, is a letter
+     *  (not a blank).  A non-ASCII byte is an error. */
+    private static boolean isLetter(byte b, long position) {
+        if ((b & 0xff) >= ASCII) {
+            throw error("byte %d is not ASCII", position);
+        }
+        return b > ' ';
+    }
+
+    /** Fill BUF from FILE starting at byte POSITION. */
+    private static void read(FileChannel file, ByteBuffer buf,
+                             long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (file.read(buf, position + buf.position()) < 0) {
+                throw error("file ends at %d", position + buf.position());
+            }
+        }
+    }
+
+    /** Bytes read at a time while counting letters. */
+    private static final int BLOCK = 1 << 16;
+
+    /** Characters below this are one byte in the file. */
+    private static final char ASCII = 128;
+
+    /** The machine that converts the replacements. */
+    private final Machine _mach;
+
+    /** Its alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Settings line under which the file was converted. */
+    private final String _settings;
+}
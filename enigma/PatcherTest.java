@@ -0,0 +1,150 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Patcher class.
+ *  @author jordanta
+ */
+public class PatcherTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Directory for test files. */
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Settings line of the test messages. */
+    static final String SETTINGS = "* B I II DG (AT)";
+
+    /** Return TEXT enciphered under SETTINGS as Main prints it, in lines
+     *  of LINE letters. */
+    static String printed(String text, int line) {
+        String cipher = encipher(SETTINGS, text);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < cipher.length(); i += line) {
+            Main.appendMessageLine(result, cipher.substring(
+                                       i, Math.min(i + line,
+                                                   cipher.length())));
+        }
+        return result.toString();
+    }
+
+    /** Return the contents of FILE. */
+    static String contents(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()),
+                          StandardCharsets.US_ASCII);
+    }
+
+    /** Apply PATCHER to FILE as Patcher.patch does, and return the number
+     *  of letters replaced. */
+    static int patch(Patcher patcher, File file, long from, long start,
+                     long end, String text) throws IOException {
+        try (FileChannel chan =
+                 FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                                  StandardOpenOption.WRITE)) {
+            return patcher.patch(chan, from, start, end, text);
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testPatch() throws IOException {
+        String before = printed(PLAIN, 37);
+        String changed = PLAIN.substring(0, 40) + "ZZZZZZZZZZZZZZZZZZZZ"
+            + PLAIN.substring(60);
+        String after = printed(changed, 37);
+        File file = tmp.newFile("msg");
+        Files.write(file.toPath(), before.getBytes(StandardCharsets.US_ASCII));
+        int start = 0, end = 0;
+        for (int letters = 0, i = 0; i < before.length(); i += 1) {
+            if (before.charAt(i) > ' ') {
+                start = letters == 40 ? i : start;
+                letters += 1;
+                end = letters == 60 ? i + 1 : end;
+            }
+        }
+        Patcher patcher = new Patcher(smallMachine(), SETTINGS);
+        assertEquals(20, patch(patcher, file, 0, start, end,
+                               "ZZZZZZZZZZZZZZZZZZZZ"));
+        assertEquals(after, contents(file));
+        assertEquals(20, patch(patcher, file, 0, start, end,
+                               PLAIN.substring(40, 60)));
+        assertEquals(before, contents(file));
+    }
+
+    @Test
+    public void testOffset() throws IOException {
+        String first = printed("HELLOWORLD", 50);
+        String second = printed(PLAIN, 50);
+        File file = tmp.newFile("msgs");
+        Files.write(file.toPath(), (first + second)
+                    .getBytes(StandardCharsets.US_ASCII));
+        String changed = PLAIN.substring(0, 5) + "QQ" + PLAIN.substring(7);
+        int from = first.length();
+        Patcher patcher = new Patcher(smallMachine(), SETTINGS);
+        patch(patcher, file, from, from + 6, from + 8, "QQ");
+        assertEquals(first + printed(changed, 50), contents(file));
+    }
+
+    @Test
+    public void testMismatch() throws IOException {
+        File file = tmp.newFile("short");
+        Files.write(file.toPath(), printed(PLAIN, 50)
+                    .getBytes(StandardCharsets.US_ASCII));
+        String before = contents(file);
+        Patcher patcher = new Patcher(smallMachine(), SETTINGS);
+        try {
+            patch(patcher, file, 0, 0, 11, "ABCDEFGHIJK");
+            fail("range of ten letters accepted eleven");
+        } catch (EnigmaException excp) {
+            assertEquals(before, contents(file));
+        }
+        try {
+            patch(patcher, file, 0, 0, before.length() + 1, "");
+            fail("range past end of file accepted");
+        } catch (EnigmaException excp) {
+            assertEquals(before, contents(file));
+        }
+    }
+
+    @Test
+    public void testNonAscii() throws IOException {
+        File file = tmp.newFile("latin1");
+        byte[] bytes = printed(PLAIN, 50)
+            .getBytes(StandardCharsets.US_ASCII);
+        bytes[3] = (byte) 0xc9;
+        Files.write(file.toPath(), bytes);
+        Patcher patcher = new Patcher(smallMachine(), SETTINGS);
+        try {
+            patch(patcher, file, 0, 0, 6, "ABCDE");
+            fail("non-ASCII byte in range taken as a blank");
+        } catch (EnigmaException excp) {
+            assertEquals("byte 3 is not ASCII", excp.getMessage());
+        }
+        try {
+            patch(patcher, file, 0, 12, 14, "AB");
+            fail("non-ASCII byte before range taken as a blank");
+        } catch (EnigmaException excp) {
+            assertEquals("byte 3 is not ASCII", excp.getMessage());
+        }
+    }
+
+}
@@ -86,6 +86,23 @@ class Permutation {
         return c;
     }
 
+    /** Return this permutation conjugated by a rotation of K places:
+     *  the permutation taking (P + K) to (permute(P) + K), modulo the
+     *  alphabet size.  Its cycles are mine with every character moved
+     *  K places along the alphabet. */
+    Permutation shifted(int k) {
+        StringBuilder cycles = new StringBuilder();
+        for (String cycle : _cycles) {
+            cycles.append('(');
+            for (int i = 0; i < cycle.length(); i += 1) {
+                cycles.append(_alphabet.toChar(
+                    wrap(_alphabet.toInt(cycle.charAt(i)) + k)));
+            }
+            cycles.append(')');
+        }
+        return new Permutation(cycles.toString(), _alphabet);
+    }
+
     /** Return the alphabet used to initialize this Permutation. */
     Alphabet alphabet() {
         return _alphabet;
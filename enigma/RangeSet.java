@@ -0,0 +1,82 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** A set of non-negative longs held as disjoint half-open ranges
+ *  [LO, HI), merged as they are added.
+ *  @author jordanta
+ */
+class RangeSet {
+
+    /** Add [LO, HI) to me. */
+    void add(long lo, long hi) {
+        if (lo >= hi) {
+            return;
+        }
+        Map.Entry<Long, Long> before = _ranges.floorEntry(lo);
+        if (before != null && before.getValue() >= lo) {
+            lo = before.getKey();
+            hi = Math.max(hi, before.getValue());
+        }
+        Map.Entry<Long, Long> after = _ranges.ceilingEntry(lo);
+        while (after != null && after.getKey() <= hi) {
+            hi = Math.max(hi, after.getValue());
+            _ranges.remove(after.getKey());
+            after = _ranges.ceilingEntry(lo);
+        }
+        _ranges.put(lo, hi);
+    }
+
+    /** Return true iff all of [LO, HI) is in me. */
+    boolean covers(long lo, long hi) {
+        if (lo >= hi) {
+            return true;
+        }
+        Map.Entry<Long, Long> e = _ranges.floorEntry(lo);
+        return e != null && e.getValue() >= hi;
+    }
+
+    /** Return the smallest value >= FROM that is not in me. */
+    long firstMissing(long from) {
+        Map.Entry<Long, Long> e = _ranges.floorEntry(from);
+        if (e != null && e.getValue() > from) {
+            return e.getValue();
+        }
+        return from;
+    }
+
+    /** Return the smallest value >= FROM that is in me, or
+     *  Long.MAX_VALUE if there is none. */
+    long firstPresent(long from) {
+        Map.Entry<Long, Long> e = _ranges.floorEntry(from);
+        if (e != null && e.getValue() > from) {
+            return from;
+        }
+        Long next = _ranges.higherKey(from);
+        return next == null ? Long.MAX_VALUE : next;
+    }
+
+    /** Return the total number of values in me. */
+    long count() {
+        long n = 0;
+        for (Map.Entry<Long, Long> e : _ranges.entrySet()) {
+            n += e.getValue() - e.getKey();
+        }
+        return n;
+    }
+
+    /** Return my ranges in increasing order, each as {LO, HI}. */
+    List<long[]> ranges() {
+        List<long[]> result = new ArrayList<>();
+        for (Map.Entry<Long, Long> e : _ranges.entrySet()) {
+            result.add(new long[] { e.getKey(), e.getValue() });
+        }
+        return result;
+    }
+
+    /** Ranges, mapping each LO to its HI. */
+    private final TreeMap<Long, Long> _ranges = new TreeMap<>();
+}
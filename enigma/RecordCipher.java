@@ -0,0 +1,668 @@
+package enigma;
+
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** Encrypts selected fields of the records of a CSV file (with a header
+ *  line naming its columns) or a JSON-lines file (one object per line,
+ *  whose selected members have string values).  Each selected field of
+ *  a record is converted as a separate message, starting from the
+ *  record's settings: a fixed settings line, or one taken from a key
+ *  column of the record.  A key column may hold a whole settings line
+ *  (starting with '*'), or just rotor settings (and optionally ring
+ *  settings) to put in place of those of the fixed settings line.
+ *  Characters not in the alphabet are passed through without moving
+ *  the rotors or, when folding, replaced by their upper-case forms if
+ *  those are in the alphabet.  Since Enigma is reciprocal, running the
+ *  same command on its output restores the input, as long as the key
+ *  column is not itself encrypted and the input was not folded: folding
+ *  loses case, so folded letters come back in upper case.
+ *
+ *  Everything outside the selected fields, including quoting, spacing
+ *  and line ends, is copied unchanged.  Records are read in chunks that
+ *  are converted on several threads, each with its own copy of the
+ *  machine, and written in their original order.
+ *  @author jordanta
+ */
+public final class RecordCipher {
+
+    /** Record file formats. */
+    enum Format {
+        /** Comma-separated values with a header line. */
+        CSV,
+        /** One JSON object per line. */
+        JSONL
+    }
+
+    /** Records per chunk. */
+    static final int CHUNK = 512;
+
+    /** Largest characters per chunk, beyond which a chunk is cut short. */
+    static final int CHUNK_CHARS = 1 << 16;
+
+    /** Characters read from the input at a time. */
+    private static final int READ = 1 << 16;
+
+    /** Encrypt the fields named by --fields=NAME,... of the records in
+     *  ARGS[1] (default the standard input), with the machine configured
+     *  by ARGS[0], writing to ARGS[2] (default the standard output).
+     *  --format=csv or --format=jsonl gives the format (by default, csv
+     *  unless the input file's name ends in .jsonl).  --key=SETTINGS
+     *  gives a fixed settings line and --key-column=NAME the field
+     *  holding each record's settings; at least one is required.  With
+     *  --fold, characters outside the alphabet are replaced by their
+     *  upper-case forms where those are in it (so that decrypting does
+     *  not restore their case).  --threads=N gives the number of
+     *  threads. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--fields=(.+) --format=(csv|jsonl){0,1} "
+                                + "--key=(.+){0,1} --key-column=(.+){0,1} "
+                                + "--fold --threads=(\\d+){0,1} "
+                                + "--=(.*){1,3}", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.RecordCipher "
+                            + "--fields=NAME,... [--format=csv|jsonl] "
+                            + "[--key=SETTINGS] [--key-column=NAME] "
+                            + "[--fold] [--threads=N] "
+                            + "CONFIG [INPUT [OUTPUT]]");
+            }
+            List<String> files = options.get("--");
+            Machine mach = Main.readConfig(ToolUtils.getInput(files.get(0)));
+            String input = files.size() > 1 ? files.get(1) : null;
+            Format format = Format.valueOf(ToolUtils.option(
+                options, "--format",
+                input != null && input.endsWith(".jsonl") ? "jsonl" : "csv")
+                .toUpperCase());
+            RecordCipher cipher =
+                new RecordCipher(mach, format,
+                                 Arrays.asList(options.getLast("--fields")
+                                               .split(",")),
+                                 ToolUtils.option(options, "--key", null),
+                                 ToolUtils.option(options, "--key-column",
+                                                  null),
+                                 options.contains("--fold"));
+            int threads = Integer.parseInt(
+                ToolUtils.option(options, "--threads",
+                       "" + Runtime.getRuntime().availableProcessors()));
+            try (Reader in = new InputStreamReader(
+                     input == null ? System.in : new FileInputStream(input),
+                     StandardCharsets.UTF_8);
+                 Writer out = new BufferedWriter(new OutputStreamWriter(
+                     files.size() > 2 ? new FileOutputStream(files.get(2))
+                     : System.out, StandardCharsets.UTF_8))) {
+                cipher.run(in, out, threads);
+            } catch (IOException excp) {
+                throw error("I/O error: %s", excp.getMessage());
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A cipher for records in FORMAT, converting the FIELDS with
+     *  machines like MACH, set up by the settings line KEY or by the
+     *  field KEYCOLUMN of each record (either may be null, but not
+     *  both).  If FOLD, characters outside the alphabet are replaced by
+     *  their upper-case forms where those are in it. */
+    RecordCipher(Machine mach, Format format, List<String> fields,
+                 String key, String keyColumn, boolean fold) {
+        if (key == null && keyColumn == null) {
+            throw error("need a key or a key column");
+        }
+        if (keyColumn != null && fields.contains(keyColumn)) {
+            throw error("cannot encrypt the key column %s", keyColumn);
+        }
+        _machine = mach;
+        _alphabet = mach.alphabet();
+        _format = format;
+        _fields = new ArrayList<>(fields);
+        _key = key;
+        _keyColumn = keyColumn;
+        _fold = fold;
+        String rings = null;
+        if (key != null) {
+            Machine keyed = mach.copy();
+            Main.setUp(keyed, key);
+            StringBuilder chars = new StringBuilder();
+            for (int k = 1; k < keyed.numRotors(); k += 1) {
+                chars.append(_alphabet.toChar(keyed.getRotor(k).ring()));
+            }
+            rings = chars.toString();
+        }
+        _rings = rings;
+    }
+
+    /** Convert the records read from IN, writing them to OUT, on THREADS
+     *  threads. */
+    void run(Reader in, Writer out, int threads) throws IOException {
+        Records reader = new Records(in);
+        BlockingQueue<Machine> machines = new ArrayBlockingQueue<>(threads);
+        for (int i = 0; i < threads; i += 1) {
+            machines.add(_machine.copy());
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "records");
+                t.setDaemon(true);
+                return t;
+            });
+        ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+        try {
+            int[] columns = null;
+            long number = 1;
+            if (_format == Format.CSV) {
+                String header = reader.next();
+                if (header == null) {
+                    return;
+                }
+                out.write(header);
+                columns = columns(header);
+                number += 1;
+            }
+            int[] cols = columns;
+            while (true) {
+                List<String> chunk = new ArrayList<>();
+                int chars = 0;
+                String record;
+                while (chunk.size() < CHUNK && chars < CHUNK_CHARS
+                       && (record = reader.next()) != null) {
+                    chunk.add(record);
+                    chars += record.length();
+                }
+                if (chunk.isEmpty()) {
+                    break;
+                }
+                long first = number;
+                number += chunk.size();
+                while (pending.size() >= 2 * threads) {
+                    writeNext(pending, out);
+                }
+                pending.add(pool.submit(() -> {
+                    Machine mach = machines.take();
+                    try {
+                        return convert(mach, chunk, first, cols);
+                    } finally {
+                        machines.put(mach);
+                    }
+                }));
+            }
+            while (!pending.isEmpty()) {
+                writeNext(pending, out);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Write the oldest of PENDING to OUT, waiting for it if needed. */
+    private static void writeNext(ArrayDeque<Future<String>> pending,
+                                  Writer out) throws IOException {
+        try {
+            out.write(pending.remove().get());
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw new IllegalStateException("record conversion failed",
+                                            excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        }
+    }
+
+    /** Reads the records of a file, in blocks of READ characters. */
+    private final class Records {
+
+        /** Records read from IN. */
+        Records(Reader in) {
+            _in = in;
+        }
+
+        /** Return the next record, with its line end, or null at the end
+         *  of the input.  A CSV record continues past line ends inside
+         *  quotes. */
+        String next() throws IOException {
+            StringBuilder record = new StringBuilder();
+            boolean quoted = false;
+            boolean csv = _format == Format.CSV;
+            while (true) {
+                if (_pos == _len) {
+                    _len = Math.max(0, _in.read(_buf));
+                    _pos = 0;
+                    if (_len == 0) {
+                        return record.length() == 0 ? null
+                            : record.toString();
+                    }
+                }
+                int start = _pos;
+                while (_pos < _len) {
+                    char c = _buf[_pos];
+                    _pos += 1;
+                    if (c == '"' && csv) {
+                        quoted = !quoted;
+                    } else if (c == '\n' && !quoted) {
+                        return record.append(_buf, start, _pos - start)
+                            .toString();
+                    }
+                }
+                record.append(_buf, start, _pos - start);
+            }
+        }
+
+        /** Source of the records. */
+        private final Reader _in;
+
+        /** Characters read from _in. */
+        private final char[] _buf = new char[READ];
+
+        /** Position of the next character in _buf, and the number of
+         *  characters in it. */
+        private int _pos, _len;
+    }
+
+    /** Return, for each field of the CSV record HEADER, the position of
+     *  its name in _fields, -2 if it is the key column, or -1. */
+    private int[] columns(String header) {
+        List<String> names = new ArrayList<>();
+        for (int[] span : csvFields(header)) {
+            names.add(csvValue(header, span));
+        }
+        int[] result = new int[names.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            String name = names.get(i);
+            result[i] = name.equals(_keyColumn) ? -2 : _fields.indexOf(name);
+        }
+        for (String field : _fields) {
+            if (!names.contains(field)) {
+                throw error("no column named %s", field);
+            }
+        }
+        if (_keyColumn != null && !names.contains(_keyColumn)) {
+            throw error("no column named %s", _keyColumn);
+        }
+        return result;
+    }
+
+    /** Return the conversions of RECORDS, numbered from FIRST, on MACH,
+     *  concatenated.  COLUMNS is as for columns() for a CSV file. */
+    String convert(Machine mach, List<String> records, long first,
+                   int[] columns) {
+        StringBuilder result = new StringBuilder();
+        HashMap<String, MachineState> states = new HashMap<>();
+        long number = first;
+        for (String record : records) {
+            if (_format == Format.CSV) {
+                convertCsv(mach, record, number, columns, states, result);
+            } else {
+                convertJson(mach, record, number, states, result);
+            }
+            number += 1;
+        }
+        return result.toString();
+    }
+
+    /** Append to OUT the CSV record RECORD, numbered NUMBER, with the
+     *  fields marked in COLUMNS converted on MACH.  STATES caches the
+     *  machine states of settings lines. */
+    private void convertCsv(Machine mach, String record, long number,
+                            int[] columns, HashMap<String, MachineState>
+                            states, StringBuilder out) {
+        List<int[]> spans = csvFields(record);
+        String key = null;
+        if (_keyColumn != null) {
+            for (int i = 0; i < spans.size() && i < columns.length; i += 1) {
+                if (columns[i] == -2) {
+                    key = csvValue(record, spans.get(i));
+                }
+            }
+            if (key == null) {
+                throw error("record %d has no key", number);
+            }
+        }
+        MachineState start = start(mach, key, number, states);
+        int at = 0;
+        for (int i = 0; i < spans.size() && i < columns.length; i += 1) {
+            if (columns[i] >= 0) {
+                int[] span = spans.get(i);
+                out.append(record, at, span[0]);
+                mach.restore(start);
+                String value = encrypt(mach, csvValue(record, span));
+                boolean quote = record.charAt(span[0]) == '"'
+                    || value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                    || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+                if (quote) {
+                    out.append('"').append(value.replace("\"", "\"\""))
+                        .append('"');
+                } else {
+                    out.append(value);
+                }
+                at = span[1];
+            }
+        }
+        out.append(record, at, record.length());
+    }
+
+    /** Return the spans of the fields of the CSV record RECORD: the
+     *  start and end of each field's text, including any quotes, not
+     *  including the separating commas or the line end. */
+    static List<int[]> csvFields(String record) {
+        List<int[]> result = new ArrayList<>();
+        int end = record.length();
+        if (end > 0 && record.charAt(end - 1) == '\n') {
+            end -= 1;
+            if (end > 0 && record.charAt(end - 1) == '\r') {
+                end -= 1;
+            }
+        }
+        int start = 0;
+        boolean quoted = false;
+        for (int i = 0; i < end; i += 1) {
+            char c = record.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                result.add(new int[] { start, i });
+                start = i + 1;
+            }
+        }
+        result.add(new int[] { start, end });
+        return result;
+    }
+
+    /** Return the value of the CSV field of RECORD at SPAN, without its
+     *  quotes. */
+    static String csvValue(String record, int[] span) {
+        String text = record.substring(span[0], span[1]);
+        if (text.length() >= 2 && text.charAt(0) == '"'
+            && text.charAt(text.length() - 1) == '"') {
+            return text.substring(1, text.length() - 1).replace("\"\"", "\"");
+        }
+        return text;
+    }
+
+    /** Append to OUT the JSON-lines record RECORD, numbered NUMBER, with
+     *  the string values of the members named in _fields converted on
+     *  MACH.  STATES caches the machine states of settings lines. */
+    private void convertJson(Machine mach, String record, long number,
+                             HashMap<String, MachineState> states,
+                             StringBuilder out) {
+        int p = skipBlanks(record, 0);
+        if (p == record.length()) {
+            out.append(record);
+            return;
+        }
+        if (record.charAt(p) != '{') {
+            throw error("record %d is not a JSON object", number);
+        }
+        List<int[]> spans = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        String key = null;
+        p = skipBlanks(record, p + 1);
+        while (p < record.length() && record.charAt(p) != '}') {
+            StringBuilder name = new StringBuilder();
+            p = skipBlanks(record, jsonString(record, p, name, number));
+            if (p == record.length() || record.charAt(p) != ':') {
+                throw error("record %d: expected ':'", number);
+            }
+            int start = skipBlanks(record, p + 1);
+            StringBuilder value = new StringBuilder();
+            boolean string = start < record.length()
+                && record.charAt(start) == '"';
+            int end = string ? jsonString(record, start, value, number)
+                : jsonSkip(record, start, number);
+            String member = name.toString();
+            if (string && _fields.contains(member)) {
+                spans.add(new int[] { start, end });
+                values.add(value.toString());
+            } else if (member.equals(_keyColumn)) {
+                if (!string) {
+                    throw error("record %d: key is not a string", number);
+                }
+                key = value.toString();
+            }
+            p = skipBlanks(record, end);
+            if (p < record.length() && record.charAt(p) == ',') {
+                p = skipBlanks(record, p + 1);
+            }
+        }
+        if (p == record.length()) {
+            throw error("record %d: unterminated object", number);
+        }
+        if (_keyColumn != null && key == null) {
+            throw error("record %d has no key", number);
+        }
+        MachineState start = spans.isEmpty() ? null
+            : start(mach, key, number, states);
+        int at = 0;
+        for (int i = 0; i < spans.size(); i += 1) {
+            int[] span = spans.get(i);
+            out.append(record, at, span[0]);
+            mach.restore(start);
+            jsonQuote(encrypt(mach, values.get(i)), out);
+            at = span[1];
+        }
+        out.append(record, at, record.length());
+    }
+
+    /** Return the position of the first character of TEXT at or after P
+     *  that is not a blank. */
+    private static int skipBlanks(String text, int p) {
+        while (p < text.length() && Character.isWhitespace(text.charAt(p))) {
+            p += 1;
+        }
+        return p;
+    }
+
+    /** Append to VALUE the JSON string starting at P in TEXT (part of
+     *  record NUMBER), with its escapes decoded, and return the position
+     *  just after it. */
+    private static int jsonString(String text, int p, StringBuilder value,
+                                  long number) {
+        if (p >= text.length() || text.charAt(p) != '"') {
+            throw error("record %d: expected a string", number);
+        }
+        for (p += 1; p < text.length(); p += 1) {
+            char c = text.charAt(p);
+            if (c == '"') {
+                return p + 1;
+            } else if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            p += 1;
+            char e = p < text.length() ? text.charAt(p) : 0;
+            switch (e) {
+            case 'b':
+                value.append('\b');
+                break;
+            case 'f':
+                value.append('\f');
+                break;
+            case 'n':
+                value.append('\n');
+                break;
+            case 'r':
+                value.append('\r');
+                break;
+            case 't':
+                value.append('\t');
+                break;
+            case 'u':
+                if (p + 5 > text.length()) {
+                    throw error("record %d: bad escape", number);
+                }
+                try {
+                    value.append((char) Integer.parseInt(
+                        text.substring(p + 1, p + 5), 16));
+                } catch (NumberFormatException excp) {
+                    throw error("record %d: bad escape", number);
+                }
+                p += 4;
+                break;
+            case '"': case '\\': case '/':
+                value.append(e);
+                break;
+            default:
+                throw error("record %d: bad escape", number);
+            }
+        }
+        throw error("record %d: unterminated string", number);
+    }
+
+    /** Return the position just after the JSON value (not a string)
+     *  starting at P in TEXT, part of record NUMBER. */
+    private static int jsonSkip(String text, int p, long number) {
+        int depth = 0;
+        for (; p < text.length(); p += 1) {
+            char c = text.charAt(p);
+            if (c == '"') {
+                p = jsonString(text, p, new StringBuilder(), number) - 1;
+            } else if (c == '{' || c == '[') {
+                depth += 1;
+            } else if (c == '}' || c == ']') {
+                if (depth == 0) {
+                    return p;
+                }
+                depth -= 1;
+                if (depth == 0) {
+                    return p + 1;
+                }
+            } else if (depth == 0
+                       && (c == ',' || Character.isWhitespace(c))) {
+                return p;
+            }
+        }
+        return p;
+    }
+
+    /** Append VALUE to OUT as a JSON string. */
+    private static void jsonQuote(String value, StringBuilder out) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i += 1) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else if (c == '\r') {
+                out.append("\\r");
+            } else if (c == '\t') {
+                out.append("\\t");
+            } else if (c < ' ') {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    /** Return the state of MACH at the start of each field of record
+     *  NUMBER, whose key column holds VALUE (null if there is no key
+     *  column): the state set up by _key if VALUE is null, by VALUE if
+     *  it is a settings line (starting with '*'), and otherwise by _key
+     *  with its rotor settings, and ring settings if VALUE has a second
+     *  word, replaced by those in VALUE.  STATES caches the states of
+     *  settings lines. */
+    private MachineState start(Machine mach, String value, long number,
+                               HashMap<String, MachineState> states) {
+        if (value == null) {
+            return state(mach, _key, states);
+        }
+        value = value.trim();
+        if (value.startsWith("*")) {
+            return state(mach, value, states);
+        }
+        String[] words = value.split("\\s+");
+        if (_key == null || value.isEmpty() || words.length > 2) {
+            throw error("record %d: bad key '%s'", number, value);
+        }
+        mach.restore(state(mach, _key, states));
+        try {
+            mach.setRotors(words[0], words.length > 1 ? words[1] : _rings);
+        } catch (EnigmaException excp) {
+            throw error("record %d: bad key '%s'", number, value);
+        }
+        return mach.snapshot();
+    }
+
+    /** Return the state of MACH set up by the settings line KEY, caching
+     *  it in STATES. */
+    private static MachineState state(Machine mach, String key,
+                                      HashMap<String, MachineState> states) {
+        MachineState result = states.get(key);
+        if (result == null) {
+            Main.setUp(mach, key);
+            result = mach.snapshot();
+            states.put(key, result);
+        }
+        return result;
+    }
+
+    /** Return the conversion of VALUE by MACH.  Characters not in the
+     *  alphabet (after folding, if _fold) are passed through without
+     *  moving the rotors. */
+    String encrypt(Machine mach, String value) {
+        char[] result = value.toCharArray();
+        for (int i = 0; i < result.length; i += 1) {
+            int c = _alphabet.toInt(result[i]);
+            if (c < 0 && _fold) {
+                c = _alphabet.toInt(Character.toUpperCase(result[i]));
+            }
+            if (c >= 0) {
+                result[i] = _alphabet.toChar(mach.convert(c));
+            }
+        }
+        return new String(result);
+    }
+
+    /** Machine whose copies convert the records. */
+    private final Machine _machine;
+
+    /** Alphabet of _machine. */
+    private final Alphabet _alphabet;
+
+    /** Format of the records. */
+    private final Format _format;
+
+    /** Names of the fields converted. */
+    private final List<String> _fields;
+
+    /** Fixed settings line, or null. */
+    private final String _key;
+
+    /** Ring settings given by _key, or null. */
+    private final String _rings;
+
+    /** Name of the field holding each record's key, or null. */
+    private final String _keyColumn;
+
+    /** True iff characters outside the alphabet are upper-cased. */
+    private final boolean _fold;
+}
@@ -0,0 +1,100 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the RecordCipher class.
+ *  @author jordanta
+ */
+public class RecordCipherTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Settings line used as the fixed key. */
+    static final String KEY = "* B I II DG (AT)";
+
+    /** Return the conversion of TEXT, on THREADS threads, by CIPHER. */
+    static String run(RecordCipher cipher, String text, int threads)
+        throws IOException {
+        StringWriter out = new StringWriter();
+        cipher.run(new StringReader(text), out, threads);
+        return out.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testCsv() throws IOException {
+        String csv = "id,name,note,key\r\n"
+            + "1,HELLO,\"A, B\",QF\r\n"
+            + "2,\"WOR\nLD\",plain,* B II I AA\r\n"
+            + "3,HELLO,,DG\r\n";
+        RecordCipher cipher =
+            new RecordCipher(smallMachine(), RecordCipher.Format.CSV,
+                             Arrays.asList("name", "note"), KEY, "key",
+                             false);
+        String result = run(cipher, csv, 2);
+        String[] lines = result.split("\r\n");
+        assertEquals("id,name,note,key", lines[0]);
+        String ab = encipher("* B I II QF (AT)", "AB");
+        assertEquals("1," + encipher("* B I II QF (AT)", "HELLO") + ",\""
+                     + ab.charAt(0) + ", " + ab.charAt(1) + "\",QF",
+                     lines[1]);
+        String world = encipher("* B II I AA", "WORLD");
+        assertEquals("2,\"" + world.substring(0, 3) + "\n"
+                     + world.substring(3) + "\",plain,* B II I AA",
+                     lines[2]);
+        assertEquals("3," + encipher(KEY, "HELLO") + ",,DG", lines[3]);
+        assertEquals(csv, run(cipher, result, 1));
+    }
+
+    @Test
+    public void testJson() throws IOException {
+        String jsonl = "{\"name\": \"HELLO\", \"n\": [1, {\"x\": \"}\"}], "
+            + "\"note\": \"TAB\\tQ\\u0041\\\"\"}\n"
+            + "{\"note\":\"hello\",\"other\":\"HELLO\"}\n";
+        RecordCipher cipher =
+            new RecordCipher(smallMachine(), RecordCipher.Format.JSONL,
+                             Arrays.asList("name", "note"), KEY, null, true);
+        String result = run(cipher, jsonl, 3);
+        String[] lines = result.split("\n");
+        String note = encipher(KEY, "TABQA");
+        assertEquals("{\"name\": \"" + encipher(KEY, "HELLO")
+                     + "\", \"n\": [1, {\"x\": \"}\"}], \"note\": \""
+                     + note.substring(0, 3) + "\\t" + note.substring(3)
+                     + "\\\"\"}", lines[0]);
+        assertEquals("{\"note\":\"" + encipher(KEY, "HELLO")
+                     + "\",\"other\":\"HELLO\"}", lines[1]);
+    }
+
+    @Test
+    public void testChunks() throws IOException {
+        StringBuilder csv = new StringBuilder("a,b\n");
+        for (int i = 0; i < 3 * RecordCipher.CHUNK + 7; i += 1) {
+            csv.append(i).append(',').append(PLAIN, 0,
+                                             i % 40).append('\n');
+        }
+        RecordCipher cipher =
+            new RecordCipher(smallMachine(), RecordCipher.Format.CSV,
+                             Collections.singletonList("b"), KEY, null,
+                             false);
+        String one = run(cipher, csv.toString(), 1);
+        assertEquals(one, run(cipher, csv.toString(), 4));
+        assertEquals(csv.toString(), run(cipher, one, 3));
+    }
+
+}
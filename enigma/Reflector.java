@@ -20,4 +20,16 @@ class Reflector extends FixedRotor {
         }
     }
 
+    @Override
+    void setRing(int posn) {
+        if (posn != 0) {
+            throw error("reflector has only one ring setting");
+        }
+    }
+
+    @Override
+    Rotor copy() {
+        return new Reflector(name(), permutation());
+    }
+
 }
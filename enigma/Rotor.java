@@ -10,6 +10,7 @@ class Rotor {
     /** A rotor named NAME whose permutation is given by PERM. */
     Rotor(String name, Permutation perm) {
         _name = name;
+        _wiring = perm;
         _permutation = perm;
         _setting = 0;
     }
@@ -24,9 +25,9 @@ class Rotor {
         return _permutation.alphabet();
     }
 
-    /** Return my permutation. */
+    /** Return my permutation at ring setting 0. */
     Permutation permutation() {
-        return _permutation;
+        return _wiring;
     }
 
     /** Return the size of my alphabet. */
@@ -60,6 +61,22 @@ class Rotor {
         _setting = _permutation.alphabet().toInt(cposn);
     }
 
+    /** Return my ring setting. */
+    int ring() {
+        return _ring;
+    }
+
+    /** Set ring() to POSN, turning my wiring POSN places against my
+     *  alphabet ring and notches.  The turned wiring replaces my
+     *  permutation, so converting costs the same at any ring setting. */
+    void setRing(int posn) {
+        int r = _wiring.wrap(posn);
+        if (r != _ring) {
+            _ring = r;
+            _permutation = r == 0 ? _wiring : _wiring.shifted(r);
+        }
+    }
+
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
@@ -101,6 +118,13 @@ class Rotor {
     void advance() {
     }
 
+    /** Return a new rotor of my kind with my name and permutation, in
+     *  its 0 setting and 0 ring setting. It shares no mutable state with
+     *  me. */
+    Rotor copy() {
+        return new Rotor(_name, _wiring);
+    }
+
     @Override
     public String toString() {
         return "Rotor " + _name;
@@ -109,9 +133,17 @@ class Rotor {
     /** My name. */
     private final String _name;
 
-    /** The permutation implemented by this rotor in its 0 position. */
+    /** The permutation implemented by this rotor in its 0 position at
+     *  ring setting 0. */
+    private final Permutation _wiring;
+
+    /** The permutation implemented by this rotor in its 0 position at
+     *  its ring setting. */
     private Permutation _permutation;
 
+    /** Ring setting for the rotor. */
+    private int _ring;
+
     /** Return the _settings. */
     int getSetting() {
         return _setting;
@@ -0,0 +1,336 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static enigma.EnigmaException.*;
+
+/** The rotors available to machines of one configuration, numbered from
+ *  0 in the order they are described.  A catalog read from the text of a
+ *  configuration file indexes each rotor's description by name and byte
+ *  offset in one scan, without parsing it; a rotor's description is
+ *  parsed only when a rotor of that name is first needed, and its
+ *  substitution tables are compiled only when it is first inserted in a
+ *  machine.  Startup time and memory are thus proportional to the size
+ *  of the file and to the rotors actually used, not to the number
+ *  available.  A catalog and its compiled tables are shared by a machine
+ *  and its copies, and may be used by several threads at once.
+ *  @author jordanta
+ */
+final class RotorCatalog {
+
+    /** A catalog of the rotors described in CONFIG, the text (in UTF-8)
+     *  of a configuration file: a line giving the alphabet, the numbers
+     *  of slots and pawls, and the rotor descriptions, up to the end of
+     *  CONFIG or the first token containing '*'.  The descriptions are
+     *  checked only for their form here. */
+    RotorCatalog(ByteBuffer config) {
+        _config = config;
+        int limit = config.limit();
+        int eol = 0;
+        while (eol < limit && config.get(eol) != '\n') {
+            eol += 1;
+        }
+        if (eol == 0 && limit == 0) {
+            throw EnigmaException.error("configuration file truncated");
+        }
+        int end = eol > 0 && config.get(eol - 1) == '\r' ? eol - 1 : eol;
+        _alphabet = new Alphabet(text(0, end));
+        int p = skipSpace(eol);
+        _numRotors = number(p);
+        p = skipSpace(tokenEnd(p));
+        _pawls = number(p);
+        p = skipSpace(tokenEnd(p));
+        _names = new ArrayList<>();
+        _ids = new HashMap<>();
+        int[] bounds = new int[16];
+        while (p < limit && !hasStar(p)) {
+            int start = p;
+            if (has(p, '(') || has(p, ')')) {
+                throw error(p, "bad rotor name");
+            }
+            String name = text(p, tokenEnd(p));
+            p = skipSpace(tokenEnd(p));
+            if (p == limit || !typeToken(p)) {
+                throw error(p, "bad rotor description");
+            }
+            int last = tokenEnd(p);
+            p = skipSpace(last);
+            while (p < limit && cycleToken(p)) {
+                last = tokenEnd(p);
+                p = skipSpace(last);
+            }
+            if (_ids.put(name, _names.size()) != null) {
+                throw error(start, "duplicate rotor %s", name);
+            }
+            if (2 * _names.size() + 2 > bounds.length) {
+                bounds = Arrays.copyOf(bounds, 2 * bounds.length);
+            }
+            bounds[2 * _names.size()] = start;
+            bounds[2 * _names.size() + 1] = last;
+            _names.add(name);
+        }
+        _bounds = bounds;
+        _prototypes = null;
+        _tables = new AtomicReferenceArray<>(_names.size());
+    }
+
+    /** A catalog of ROTORS, which are over ALPHABET. */
+    RotorCatalog(Alphabet alphabet, Collection<Rotor> rotors) {
+        _config = null;
+        _bounds = null;
+        _alphabet = alphabet;
+        _numRotors = _pawls = 0;
+        _names = new ArrayList<>();
+        _ids = new HashMap<>();
+        _prototypes = rotors.toArray(new Rotor[0]);
+        for (Rotor r : _prototypes) {
+            _ids.put(r.name(), _names.size());
+            _names.add(r.name());
+        }
+        _tables = new AtomicReferenceArray<>(_names.size());
+    }
+
+    /** The substitutions and notches of one rotor at ring setting 0: C
+     *  at setting S goes to FORWARD[S * size + C] towards the reflector
+     *  and to BACKWARD[S * size + C] coming back, and bit S of NOTCH is
+     *  set iff the rotor at setting S lets the rotor to its left
+     *  advance.  A reflector has tables for its one setting. */
+    static final class Tables {
+
+        /** Tables for rotor R, which is at ring setting 0. */
+        Tables(Rotor r) {
+            int size = r.size();
+            int settings = r instanceof Reflector ? 1 : size;
+            forward = new int[settings * size];
+            backward = new int[settings * size];
+            notch = new long[(size + Long.SIZE - 1) / Long.SIZE];
+            for (int s = 0; s < settings; s += 1) {
+                r.set(s);
+                if (r.atNotch()) {
+                    notch[s >>> 6] |= 1L << s;
+                }
+                for (int c = 0; c < size; c += 1) {
+                    forward[s * size + c] = r.convertForward(c);
+                    backward[s * size + c] = r.convertBackward(c);
+                }
+            }
+        }
+
+        /** Substitutions towards the reflector and back. */
+        final int[] forward, backward;
+
+        /** Notch positions. */
+        final long[] notch;
+    }
+
+    /** Return the alphabet of my rotors. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of slots given by my configuration file, or 0
+     *  if I was not read from one. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return the number of pawls given by my configuration file, or 0
+     *  if I was not read from one. */
+    int numPawls() {
+        return _pawls;
+    }
+
+    /** Return the number of rotors I describe. */
+    int size() {
+        return _names.size();
+    }
+
+    /** Return the number of the rotor named NAME, or -1 if there is
+     *  none. */
+    int id(String name) {
+        Integer id = _ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /** Return the name of rotor number ID. */
+    String name(int id) {
+        return _names.get(id);
+    }
+
+    /** Return a new rotor as described for rotor number ID, in its 0
+     *  setting and ring setting.  A description read from a file was
+     *  checked for its form when I was made, and is now taken apart
+     *  token by token: the name, the type and notches, and the cycles of
+     *  the permutation, run together. */
+    Rotor rotor(int id) {
+        if (_prototypes != null) {
+            return _prototypes[id].copy();
+        }
+        int p = _bounds[2 * id], end = _bounds[2 * id + 1];
+        String name = text(p, tokenEnd(p));
+        int type = skipSpace(tokenEnd(p));
+        String notches = text(type + 1, tokenEnd(type));
+        int cycles = skipSpace(tokenEnd(type));
+        StringBuilder perm = new StringBuilder();
+        for (p = cycles; p < end; p = skipSpace(tokenEnd(p))) {
+            perm.append(text(p, tokenEnd(p)));
+        }
+        Permutation permutation;
+        try {
+            permutation = new Permutation(perm.toString(), _alphabet);
+        } catch (EnigmaException excp) {
+            throw error(cycles, "%s", excp.getMessage());
+        }
+        try {
+            switch (_config.get(type)) {
+            case 'M':
+                return new MovingRotor(name, permutation, notches);
+            case 'R':
+                return new Reflector(name, permutation);
+            default:
+                return new FixedRotor(name, permutation);
+            }
+        } catch (EnigmaException excp) {
+            throw error(type, "%s", excp.getMessage());
+        }
+    }
+
+    /** Return the tables of rotor number ID, compiling them if this is
+     *  the first request for them. */
+    Tables tables(int id) {
+        Tables result = _tables.get(id);
+        if (result == null) {
+            _tables.compareAndSet(id, null, new Tables(rotor(id)));
+            result = _tables.get(id);
+        }
+        return result;
+    }
+
+    /** Return the number of rotors whose tables have been compiled. */
+    int compiled() {
+        int result = 0;
+        for (int id = 0; id < _tables.length(); id += 1) {
+            result += _tables.get(id) == null ? 0 : 1;
+        }
+        return result;
+    }
+
+    /** Return the text of my configuration from byte FROM to byte TO. */
+    private String text(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        _config.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Return an error at byte P of my configuration, with a message
+     *  formed from MSGFORMAT and ARGUMENTS.  Its line and column are
+     *  found by counting from the start of the file. */
+    private EnigmaException error(int p, String msgFormat,
+                                  Object... arguments) {
+        int line = 1, start = 0;
+        for (int q = 0; q < p; q += 1) {
+            if (_config.get(q) == '\n') {
+                line += 1;
+                start = q + 1;
+            }
+        }
+        return Lexer.error(line, text(start, p).length() + 1, msgFormat,
+                           arguments);
+    }
+
+    /** Return the position of the first non-blank byte at or after P. */
+    private int skipSpace(int p) {
+        while (p < _config.limit() && _config.get(p) <= ' '
+               && _config.get(p) >= 0) {
+            p += 1;
+        }
+        return p;
+    }
+
+    /** Return the position just after the token starting at P. */
+    private int tokenEnd(int p) {
+        while (p < _config.limit()
+               && (_config.get(p) > ' ' || _config.get(p) < 0)) {
+            p += 1;
+        }
+        return p;
+    }
+
+    /** Return true iff the token starting at P contains byte CH. */
+    private boolean has(int p, char ch) {
+        for (int end = tokenEnd(p); p < end; p += 1) {
+            if (_config.get(p) == ch) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return true iff the token starting at P contains '*'. */
+    private boolean hasStar(int p) {
+        return has(p, '*');
+    }
+
+    /** Return true iff the token starting at P is a rotor type and
+     *  notches: letters and digits only. */
+    private boolean typeToken(int p) {
+        for (int end = tokenEnd(p); p < end; p += 1) {
+            if (!Character.isLetterOrDigit(_config.get(p))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return true iff the token starting at P is a group of cycles:
+     *  parenthesized, with no '*'. */
+    private boolean cycleToken(int p) {
+        int end = tokenEnd(p);
+        return _config.get(p) == '(' && _config.get(end - 1) == ')'
+            && !hasStar(p);
+    }
+
+    /** Return the number in the token starting at P. */
+    private int number(int p) {
+        if (p == _config.limit()) {
+            throw EnigmaException.error("configuration file truncated");
+        }
+        try {
+            return Integer.parseInt(text(p, tokenEnd(p)));
+        } catch (NumberFormatException excp) {
+            throw error(p, "bad number in configuration");
+        }
+    }
+
+    /** Text of my configuration file, or null. */
+    private final ByteBuffer _config;
+
+    /** Start and end in _config of the description of each rotor,
+     *  at 2 * ID and 2 * ID + 1, or null. */
+    private final int[] _bounds;
+
+    /** Rotors I was made from, or null. */
+    private final Rotor[] _prototypes;
+
+    /** Alphabet of my rotors. */
+    private final Alphabet _alphabet;
+
+    /** Numbers of slots and pawls in my configuration file. */
+    private final int _numRotors, _pawls;
+
+    /** Names of my rotors, by number. */
+    private final List<String> _names;
+
+    /** Number of each rotor, by name. */
+    private final HashMap<String, Integer> _ids;
+
+    /** Compiled tables of each rotor, or null where not yet needed. */
+    private final AtomicReferenceArray<Tables> _tables;
+}
@@ -0,0 +1,64 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the RotorCatalog class.
+ *  @author jordanta
+ */
+public class RotorCatalogTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testCatalog() {
+        String az = UPPER_STRING;
+        StringBuilder config = new StringBuilder(az);
+        config.append("\r\n 5 3\n B R ").append(NAVALA.get("B"))
+            .append("\n Beta N ").append(NAVALA.get("Beta"));
+        for (int i = 0; i < 3000; i += 1) {
+            int k = i % 26;
+            config.append("\n R").append(i).append(" M").append(az.charAt(k))
+                .append("   (").append(az, k, 26).append(az, 0, k)
+                .append(")");
+        }
+        String text = config.toString();
+        ByteBuffer bytes =
+            ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        Machine lazy = Main.readConfig(bytes);
+        Machine eager = Main.readConfig(new Scanner(text));
+        String settings = "* B Beta R7 R2999 R40 QXYZ AABC (AT)";
+        Main.setUp(lazy, settings);
+        Main.setUp(eager, settings);
+        assertEquals(5, lazy.catalog().compiled());
+        String plain = PLAIN;
+        String cipher = eager.convert(plain);
+        assertEquals(cipher, lazy.convert(plain));
+        Machine other = lazy.copy();
+        Main.setUp(other, settings);
+        assertEquals(cipher, other.convert(plain));
+        assertSame(lazy.catalog(), other.catalog());
+        assertEquals(5, lazy.catalog().compiled());
+        assertEquals(3002, lazy.allRotors().size());
+        try {
+            Main.readConfig(ByteBuffer.wrap(
+                (text + "\n R7 MA (AB)").getBytes(StandardCharsets.UTF_8)));
+            fail("duplicate rotor accepted");
+        } catch (EnigmaException excp) {
+            assertEquals("3005:2: duplicate rotor R7", excp.getMessage());
+        }
+    }
+
+}
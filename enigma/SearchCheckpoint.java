@@ -0,0 +1,169 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static enigma.EnigmaException.*;
+
+/** The saved progress of a key search: the ranges of keys already tried
+ *  and the best candidates found among them.  A checkpoint is a small
+ *  binary file that is replaced atomically, so a crash at any time
+ *  leaves either the previous checkpoint or the new one.
+ *
+ *  The file holds, in order: a magic number and format version (ints);
+ *  a fingerprint of the search and the size of its key space (longs);
+ *  the number of completed ranges (int) and each range's bounds (longs);
+ *  the number of candidates (int) and each one's key (long) and score
+ *  (double); and a CRC-32 of all the preceding bytes (long).
+ *  @author jordanta
+ */
+class SearchCheckpoint {
+
+    /** First four bytes of a checkpoint file. */
+    static final int MAGIC = 0x454e4b43;
+
+    /** Version of the file format. */
+    static final int VERSION = 1;
+
+    /** A checkpoint of the search identified by FINGERPRINT over SIZE
+     *  keys, which has tried the keys in COMPLETED and found CANDIDATES
+     *  among them. */
+    SearchCheckpoint(long fingerprint, long size, RangeSet completed,
+                     List<Candidate> candidates) {
+        _fingerprint = fingerprint;
+        _size = size;
+        _completed = completed;
+        _candidates = candidates;
+    }
+
+    /** Return the ranges of keys already tried. */
+    RangeSet completed() {
+        return _completed;
+    }
+
+    /** Return the best candidates found so far. */
+    List<Candidate> candidates() {
+        return _candidates;
+    }
+
+    /** Replace the contents of FILE with me atomically. */
+    void write(Path file) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(_fingerprint);
+            out.writeLong(_size);
+            List<long[]> ranges = _completed.ranges();
+            out.writeInt(ranges.size());
+            for (long[] r : ranges) {
+                out.writeLong(r[0]);
+                out.writeLong(r[1]);
+            }
+            out.writeInt(_candidates.size());
+            for (Candidate c : _candidates) {
+                out.writeLong(c.key());
+                out.writeDouble(c.score());
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+        } catch (IOException excp) {
+            throw error("could not encode checkpoint");
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel ch = FileChannel.open(tmp,
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+                while (buf.hasRemaining()) {
+                    ch.write(buf);
+                }
+                ch.force(true);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException excp) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            throw error("could not write checkpoint %s", file);
+        }
+    }
+
+    /** Return the checkpoint in FILE for the search identified by
+     *  FINGERPRINT over SIZE keys, or null if FILE does not exist or is
+     *  empty. */
+    static SearchCheckpoint read(Path file, long fingerprint, long size) {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(file);
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw error("could not read checkpoint %s", file);
+        }
+        if (data.length == 0) {
+            return null;
+        } else if (data.length < 2 * Integer.BYTES + Long.BYTES) {
+            throw error("checkpoint %s is truncated", file);
+        }
+        try (DataInputStream inp =
+                 new DataInputStream(new ByteArrayInputStream(data))) {
+            if (inp.readInt() != MAGIC || inp.readInt() != VERSION) {
+                throw error("%s is not a search checkpoint", file);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length - Long.BYTES);
+            if (ByteBuffer.wrap(data, data.length - Long.BYTES, Long.BYTES)
+                .getLong() != crc.getValue()) {
+                throw error("checkpoint %s is corrupt", file);
+            }
+            if (inp.readLong() != fingerprint || inp.readLong() != size) {
+                throw error("checkpoint %s is for a different search",
+                            file);
+            }
+            RangeSet completed = new RangeSet();
+            for (int n = inp.readInt(); n > 0; n -= 1) {
+                completed.add(inp.readLong(), inp.readLong());
+            }
+            List<Candidate> candidates = new ArrayList<>();
+            for (int n = inp.readInt(); n > 0; n -= 1) {
+                candidates.add(new Candidate(inp.readLong(),
+                                             inp.readDouble()));
+            }
+            return new SearchCheckpoint(fingerprint, size, completed,
+                                        candidates);
+        } catch (IOException excp) {
+            throw error("checkpoint %s is truncated", file);
+        }
+    }
+
+    /** Identifies the search (machine, ciphertext, and parameters). */
+    private final long _fingerprint;
+
+    /** Number of keys in the search. */
+    private final long _size;
+
+    /** Ranges of keys tried. */
+    private final RangeSet _completed;
+
+    /** Best candidates among the keys tried. */
+    private final List<Candidate> _candidates;
+}
@@ -0,0 +1,307 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** Distributes a KeySearch over worker processes (see SearchWorker).
+ *  The keys still to be tried are divided into leases of consecutive
+ *  keys.  Each worker that connects is sent the search (configuration,
+ *  ciphertext, plugboard and number of candidates) and then one lease at
+ *  a time; it returns the best candidates of each lease as it finishes.
+ *  A lease whose worker disconnects or does not answer within the lease
+ *  timeout is issued again to another worker.  Results are merged, and
+ *  checkpointed if requested, exactly as by KeySearch.run.
+ *
+ *  The protocol runs over one TCP connection per worker, using the
+ *  encodings of DataOutputStream.  On connecting, the worker reads the
+ *  search: VERSION, the fingerprint, the number of candidates, and the
+ *  configuration, ciphertext and plugboard as length-prefixed UTF-8.
+ *  Then it repeatedly reads a lease (two longs, LO and HI; LO < 0 means
+ *  the search is over) and replies with LO, HI, the number of candidates
+ *  found, and each candidate's key and score.
+ *  @author jordanta
+ */
+public final class SearchCoordinator {
+
+    /** Version of the protocol. */
+    static final int VERSION = 1;
+
+    /** Default number of keys in a lease. */
+    static final long DEFAULT_LEASE = 1 << 20;
+
+    /** Default seconds a worker may take over one lease. */
+    static final int DEFAULT_TIMEOUT = 600;
+
+    /** Milliseconds between checks for the end of the search while
+     *  waiting for workers. */
+    static final int POLL = 200;
+
+    /** Run a search served to workers as specified by ARGS: ARGS[0]
+     *  names the configuration file and ARGS[1] a file holding the
+     *  ciphertext.  Options are those of KeySearch (except --threads),
+     *  plus the port to listen on, the keys per lease, the lease timeout
+     *  in seconds, and a number of local worker processes to start. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--top=(\\d+){0,1} --checkpoint=(.+){0,1} "
+                                + "--interval=(\\d+){0,1} "
+                                + "--plugboard=(.*){0,1} "
+                                + "--port=(\\d+){0,1} --lease=(\\d+){0,1} "
+                                + "--timeout=(\\d+){0,1} "
+                                + "--spawn=(\\d+){0,1} --=(.*){2}", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.SearchCoordinator "
+                            + "[--top=K] [--checkpoint=FILE] "
+                            + "[--interval=SECONDS] [--plugboard=CYCLES] "
+                            + "[--port=PORT] [--lease=KEYS] "
+                            + "[--timeout=SECONDS] [--spawn=WORKERS] "
+                            + "CONFIG CIPHERTEXT");
+            }
+            List<String> files = options.get("--");
+            String config = ToolUtils.readFile(files.get(0));
+            KeySearch search =
+                new KeySearch(Main.readConfig(new Scanner(config)),
+                              ToolUtils.readText(files.get(1)),
+                              ToolUtils.option(options, "--plugboard", ""),
+                              Integer.parseInt(
+                                  ToolUtils.option(options, "--top",
+                                      "" + KeySearch.DEFAULT_TOP)));
+            if (options.contains("--checkpoint")) {
+                search.setCheckpoint(
+                    Paths.get(options.getLast("--checkpoint")),
+                    TimeUnit.SECONDS.toMillis(Long.parseLong(
+                        ToolUtils.option(options, "--interval",
+                            "" + KeySearch.DEFAULT_INTERVAL))));
+            }
+            SearchCoordinator coord =
+                new SearchCoordinator(search, config,
+                    Long.parseLong(ToolUtils.option(options, "--lease",
+                                                    "" + DEFAULT_LEASE)),
+                    TimeUnit.SECONDS.toMillis(Long.parseLong(
+                        ToolUtils.option(options, "--timeout",
+                                         "" + DEFAULT_TIMEOUT))));
+            int port = Integer.parseInt(ToolUtils.option(options,
+                                                         "--port", "0"));
+            try (ServerSocket server = new ServerSocket()) {
+                server.bind(new InetSocketAddress(port));
+                System.err.printf("Listening on port %d%n",
+                                  server.getLocalPort());
+                int spawn = Integer.parseInt(
+                    ToolUtils.option(options, "--spawn", "0"));
+                List<Process> workers = new ArrayList<>();
+                for (int i = 0; i < spawn; i += 1) {
+                    workers.add(spawnWorker(server.getLocalPort()));
+                }
+                search.print(coord.serve(server));
+                for (Process p : workers) {
+                    p.waitFor(POLL, TimeUnit.MILLISECONDS);
+                    p.destroy();
+                }
+            }
+            return;
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        } catch (InterruptedException excp) {
+            System.err.printf("Error: interrupted%n");
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Start a SearchWorker in a new JVM with my class path, connecting
+     *  to PORT on this host.  Return its process. */
+    static Process spawnWorker(int port) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin",
+                                "java").toString();
+        return new ProcessBuilder(java, "-cp",
+                                  System.getProperty("java.class.path"),
+                                  "enigma.SearchWorker", "localhost",
+                                  "" + port)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+    }
+
+    /** A coordinator for SEARCH, whose machine is described by the
+     *  configuration text CONFIG, handing out leases of LEASE keys that
+     *  workers must finish within TIMEOUT milliseconds. */
+    SearchCoordinator(KeySearch search, String config, long lease,
+                      long timeout) {
+        if (lease < 1 || timeout < 1) {
+            throw error("lease size and timeout must be positive");
+        }
+        _search = search;
+        _config = config;
+        _lease = lease;
+        _timeout = timeout;
+    }
+
+    /** Serve leases to workers connecting to SERVER until every key has
+     *  been tried, and return the best candidates, best first.  If
+     *  recording a finished lease fails (say, because the checkpoint
+     *  cannot be written), stop issuing leases and throw that failure. */
+    List<Candidate> serve(ServerSocket server) throws IOException {
+        ExecutorService handlers = Executors.newCachedThreadPool();
+        try {
+            synchronized (this) {
+                _unleased = new ArrayDeque<>(_search.begin(_lease));
+                _outstanding = 0;
+                _failure = null;
+            }
+            server.setSoTimeout(POLL);
+            while (!finished()) {
+                try {
+                    Socket worker = server.accept();
+                    handlers.execute(() -> handle(worker));
+                } catch (SocketTimeoutException excp) {
+                    continue;
+                }
+            }
+            synchronized (this) {
+                if (_failure != null) {
+                    throw _failure;
+                }
+            }
+            return _search.finish();
+        } finally {
+            handlers.shutdownNow();
+            _search.end();
+        }
+    }
+
+    /** Return true iff every lease has been completed, or recording one
+     *  has failed. */
+    synchronized boolean finished() {
+        return _failure != null
+            || _unleased.isEmpty() && _outstanding == 0;
+    }
+
+    /** Return the next lease to issue, waiting while every lease is out,
+     *  or null if the search is finished or has failed. */
+    private synchronized long[] nextLease() throws InterruptedException {
+        while (_failure == null && _unleased.isEmpty() && _outstanding > 0) {
+            wait();
+        }
+        if (_failure != null) {
+            return null;
+        }
+        long[] lease = _unleased.poll();
+        if (lease != null) {
+            _outstanding += 1;
+        }
+        return lease;
+    }
+
+    /** Record that a lease was finished, yielding CHUNK.  A failure to
+     *  record it is kept for serve to throw. */
+    private synchronized void complete(KeySearch.Chunk chunk) {
+        try {
+            _search.record(chunk);
+        } catch (RuntimeException excp) {
+            if (_failure == null) {
+                _failure = excp;
+            }
+        } finally {
+            _outstanding -= 1;
+            notifyAll();
+        }
+    }
+
+    /** Return LEASE, which was not finished, for reissue. */
+    private synchronized void abandon(long[] lease) {
+        _unleased.addFirst(lease);
+        _outstanding -= 1;
+        notifyAll();
+    }
+
+    /** Serve leases to the worker connected on SOCKET until the search is
+     *  finished or the worker fails. */
+    private void handle(Socket socket) {
+        long[] lease = null;
+        try (Socket s = socket) {
+            s.setSoTimeout((int) Math.min(Integer.MAX_VALUE, _timeout));
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(s.getOutputStream()));
+            DataInputStream inp = new DataInputStream(
+                new BufferedInputStream(s.getInputStream()));
+            out.writeInt(VERSION);
+            out.writeLong(_search.fingerprint());
+            out.writeInt(_search.top());
+            ToolUtils.writeString(out, _config);
+            ToolUtils.writeString(out, _search.ciphertext());
+            ToolUtils.writeString(out, _search.plugboard());
+            while (true) {
+                lease = nextLease();
+                if (lease == null) {
+                    out.writeLong(-1);
+                    out.writeLong(-1);
+                    out.flush();
+                    return;
+                }
+                out.writeLong(lease[0]);
+                out.writeLong(lease[1]);
+                out.flush();
+                if (inp.readLong() != lease[0]
+                    || inp.readLong() != lease[1]) {
+                    throw new IOException("worker answered wrong lease");
+                }
+                TopK top = new TopK(_search.top());
+                for (int n = inp.readInt(); n > 0; n -= 1) {
+                    long key = inp.readLong();
+                    if (key < lease[0] || key >= lease[1]) {
+                        throw new IOException("key outside lease");
+                    }
+                    top.offer(new Candidate(key, inp.readDouble()));
+                }
+                complete(new KeySearch.Chunk(lease[0], lease[1], top));
+                lease = null;
+            }
+        } catch (IOException | InterruptedException excp) {
+            if (lease != null) {
+                abandon(lease);
+            }
+        }
+    }
+
+    /** The search being distributed. */
+    private final KeySearch _search;
+
+    /** Text of the configuration file. */
+    private final String _config;
+
+    /** Number of keys per lease. */
+    private final long _lease;
+
+    /** Milliseconds a worker may take over a lease. */
+    private final long _timeout;
+
+    /** Leases not yet issued, or abandoned by their workers. */
+    private ArrayDeque<long[]> _unleased;
+
+    /** Number of leases issued and not yet finished. */
+    private int _outstanding;
+
+    /** The first failure to record a finished lease, or null. */
+    private RuntimeException _failure;
+}
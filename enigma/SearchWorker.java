@@ -0,0 +1,148 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** A worker process for a SearchCoordinator: it receives a key search
+ *  and then tries the keys of each lease it is given on several threads,
+ *  returning the best candidates of each.  See SearchCoordinator for the
+ *  protocol.
+ *  @author jordanta
+ */
+public final class SearchWorker {
+
+    /** Work for the coordinator at host ARGS[0], port ARGS[1], until it
+     *  reports that the search is finished.  The --threads option gives
+     *  the number of threads to use. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--threads=(\\d+){0,1} --=(.*){2}", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.SearchWorker "
+                            + "[--threads=N] HOST PORT");
+            }
+            int threads = Integer.parseInt(
+                ToolUtils.option(options, "--threads",
+                       "" + Runtime.getRuntime().availableProcessors()));
+            List<String> addr = options.get("--");
+            try (Socket socket = new Socket(addr.get(0),
+                                            Integer.parseInt(addr.get(1)))) {
+                System.err.printf("Worker finished after %d keys%n",
+                                  new SearchWorker(threads).work(socket));
+            }
+            return;
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A worker that uses THREADS threads. */
+    SearchWorker(int threads) {
+        if (threads < 1) {
+            throw error("need at least one thread");
+        }
+        _threads = threads;
+    }
+
+    /** Work on leases received over SOCKET until the coordinator
+     *  reports that the search is finished or closes the connection.
+     *  Return the number of keys tried. */
+    long work(Socket socket) throws IOException {
+        DataInputStream inp = new DataInputStream(
+            new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(socket.getOutputStream()));
+        if (inp.readInt() != SearchCoordinator.VERSION) {
+            throw error("coordinator uses a different protocol version");
+        }
+        long fingerprint = inp.readLong();
+        int top = inp.readInt();
+        Machine mach = Main.readConfig(
+            new Scanner(ToolUtils.readString(inp)));
+        String ciphertext = ToolUtils.readString(inp);
+        String plugboard = ToolUtils.readString(inp);
+        KeySearch search = new KeySearch(mach, ciphertext, plugboard, top);
+        if (search.fingerprint() != fingerprint) {
+            throw error("search differs from the coordinator's");
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        try {
+            while (true) {
+                long lo, hi;
+                try {
+                    lo = inp.readLong();
+                    hi = inp.readLong();
+                } catch (EOFException excp) {
+                    break;
+                }
+                if (lo < 0) {
+                    break;
+                }
+                List<Candidate> best =
+                    searchLease(search, pool, lo, hi);
+                out.writeLong(lo);
+                out.writeLong(hi);
+                out.writeInt(best.size());
+                for (Candidate c : best) {
+                    out.writeLong(c.key());
+                    out.writeDouble(c.score());
+                }
+                out.flush();
+            }
+            return search.evaluated();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Return the best candidates of SEARCH among keys [LO, HI), trying
+     *  them in chunks on POOL. */
+    private List<Candidate> searchLease(KeySearch search,
+                                        ExecutorService pool,
+                                        long lo, long hi) {
+        List<Future<KeySearch.Chunk>> chunks = new ArrayList<>();
+        for (long a = lo; a < hi; a += KeySearch.CHUNK) {
+            long start = a, end = Math.min(hi, a + KeySearch.CHUNK);
+            chunks.add(pool.submit(() ->
+                search.search(start, end)));
+        }
+        TopK best = new TopK(search.top());
+        try {
+            for (Future<KeySearch.Chunk> chunk : chunks) {
+                best.offerAll(chunk.get().top.best());
+            }
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw error("search failed: %s", excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("worker interrupted");
+        }
+        return best.best();
+    }
+
+    /** Number of threads used. */
+    private final int _threads;
+}
@@ -0,0 +1,319 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** The states of many encryption sessions on machines of one
+ *  configuration, kept off the heap.  Each session is a fixed-width
+ *  record in one direct buffer: the number of its plugboard, the number
+ *  of the rotor in each slot, and the setting and ring setting of each
+ *  slot.  Rotor and
+ *  plugboard numbers refer to tables of substitutions shared by all
+ *  sessions: one pair of tables per available rotor, giving its forward
+ *  and backward substitutions at every setting at ring setting 0 (a
+ *  rotor at setting S and ring setting R is found at S - R), and one
+ *  table per
+ *  distinct plugboard.  Converting text for a session reads and updates
+ *  its record directly, so an open session costs no Java objects.
+ *
+ *  Sessions are numbered from 0.  Different sessions may be used by
+ *  different threads at once; one session may not.
+ *  @author jordanta
+ */
+final class SessionStore {
+
+    /** Record marker of a free record. */
+    private static final int FREE = -1;
+
+    /** Offset in a record of its plugboard number. */
+    private static final int PLUG = 0;
+
+    /** Offset in a record of its rotor numbers, one byte per slot. */
+    private static final int IDS = Integer.BYTES;
+
+    /** Largest number of available rotors. */
+    static final int MAX_ROTORS = 256;
+
+    /** Largest alphabet size. */
+    static final int MAX_ALPHABET = Character.MAX_VALUE + 1;
+
+    /** A store of up to CAPACITY sessions for machines like MACH. */
+    SessionStore(Machine mach, int capacity) {
+        _alphabet = mach.alphabet();
+        _size = _alphabet.size();
+        _numRotors = mach.numRotors();
+        if (mach.allRotors().size() > MAX_ROTORS
+            || _size > MAX_ALPHABET) {
+            throw error("machine too large for a session store");
+        }
+        _rotorIds = new HashMap<>();
+        int nr = mach.allRotors().size();
+        _forward = new int[nr][];
+        _backward = new int[nr][];
+        _notch = new boolean[nr][];
+        _rotates = new boolean[nr];
+        for (Rotor r : mach.allRotors()) {
+            int id = _rotorIds.size();
+            _rotorIds.put(r.name(), id);
+            Rotor copy = r.copy();
+            int settings = copy instanceof Reflector ? 1 : _size;
+            _forward[id] = new int[settings * _size];
+            _backward[id] = new int[settings * _size];
+            _notch[id] = new boolean[_size];
+            _rotates[id] = copy.rotates();
+            for (int s = 0; s < settings; s += 1) {
+                copy.set(s);
+                _notch[id][s] = copy.atNotch();
+                for (int c = 0; c < _size; c += 1) {
+                    _forward[id][s * _size + c] = copy.convertForward(c);
+                    _backward[id][s * _size + c] = copy.convertBackward(c);
+                }
+            }
+        }
+        _settingsOffset = IDS + _numRotors + 1 & ~1;
+        _ringsOffset = _settingsOffset + 2 * _numRotors;
+        _width = _ringsOffset + 2 * _numRotors + 3 & ~3;
+        if ((long) _width * capacity > Integer.MAX_VALUE) {
+            throw error("session store too large");
+        }
+        _records = ByteBuffer.allocateDirect(_width * capacity)
+            .order(ByteOrder.nativeOrder());
+        _free = new int[capacity];
+        for (int i = 0; i < capacity; i += 1) {
+            _free[i] = capacity - 1 - i;
+            _records.putInt(i * _width + PLUG, FREE);
+        }
+        _numFree = capacity;
+        _capacity = capacity;
+        _plugIds = new HashMap<>();
+        _plugs = new ArrayList<>();
+        _parser = mach.copy();
+    }
+
+    /** Return the number of sessions the store can hold. */
+    int capacity() {
+        return _capacity;
+    }
+
+    /** Return the number of open sessions. */
+    synchronized int size() {
+        return _capacity - _numFree;
+    }
+
+    /** Open a session in the state given by SETTINGS, a settings line
+     *  as in the input to Main, and return its number. */
+    int open(String settings) {
+        synchronized (_parser) {
+            Main.setUp(_parser, settings);
+            return open(_parser);
+        }
+    }
+
+    /** Open a session in MACH's current state (rotor order, settings and
+     *  plugboard), and return its number.  MACH must have my
+     *  configuration. */
+    synchronized int open(Machine mach) {
+        if (mach.numRotors() != _numRotors
+            || mach.alphabet().size() != _size) {
+            throw error("machine has a different configuration");
+        }
+        if (_numFree == 0) {
+            throw error("session store full");
+        }
+        int plug = plugId(mach.plugboard());
+        int id = _free[_numFree - 1];
+        int base = id * _width;
+        for (int k = 0; k < _numRotors; k += 1) {
+            Rotor r = mach.getRotor(k);
+            Integer rotor = _rotorIds.get(r.name());
+            if (rotor == null) {
+                throw error("machine has a different configuration");
+            }
+            _records.put(base + IDS + k, (byte) (int) rotor);
+            _records.putChar(base + _settingsOffset + 2 * k,
+                             (char) r.setting());
+            _records.putChar(base + _ringsOffset + 2 * k, (char) r.ring());
+        }
+        _records.putInt(base + PLUG, plug);
+        _numFree -= 1;
+        return id;
+    }
+
+    /** Close session ID, freeing its record. */
+    synchronized void close(int id) {
+        checkOpen(id);
+        _records.putInt(id * _width + PLUG, FREE);
+        _free[_numFree] = id;
+        _numFree += 1;
+    }
+
+    /** Return the number of the table of plugboard PLUG, adding it if
+     *  it is new. */
+    private int plugId(Permutation plug) {
+        String key = plug == null ? "" : plug.getClean();
+        Integer id = _plugIds.get(key);
+        if (id == null) {
+            int[] table = new int[_size];
+            for (int c = 0; c < _size; c += 1) {
+                table[c] = plug == null ? c : plug.permute(c);
+            }
+            id = _plugs.size();
+            _plugs.add(table);
+            _plugIds.put(key, id);
+            _plugTables = _plugs.toArray(new int[0][]);
+        }
+        return id;
+    }
+
+    /** Check that session ID is open. */
+    private void checkOpen(int id) {
+        if (id < 0 || id >= _capacity
+            || _records.getInt(id * _width + PLUG) == FREE) {
+            throw error("no open session %d", id);
+        }
+    }
+
+    /** Convert CHARS[FROM .. TO-1], alphabet indices, in place as session
+     *  ID's machine would, updating its settings. */
+    void convert(int id, int[] chars, int from, int to) {
+        checkOpen(id);
+        int n = _numRotors, size = _size;
+        int base = id * _width;
+        int[] plug = _plugTables[_records.getInt(base + PLUG)];
+        int[] rotor = new int[n], setting = new int[n], offset = new int[n];
+        boolean[] move = new boolean[n];
+        for (int k = 0; k < n; k += 1) {
+            rotor[k] = _records.get(base + IDS + k) & 0xff;
+            setting[k] = _records.getChar(base + _settingsOffset + 2 * k);
+            offset[k] = Math.floorMod(
+                setting[k] - _records.getChar(base + _ringsOffset + 2 * k),
+                size);
+        }
+        int[] reflector = _forward[rotor[0]];
+        for (int i = from; i < to; i += 1) {
+            move[n - 1] = true;
+            for (int k = 1; k < n; k += 1) {
+                if (_rotates[rotor[k - 1]]
+                    && _notch[rotor[k]][setting[k]]) {
+                    move[k] = move[k - 1] = true;
+                }
+            }
+            for (int k = 1; k < n; k += 1) {
+                if (move[k] && _rotates[rotor[k]]) {
+                    setting[k] = setting[k] + 1 == size ? 0 : setting[k] + 1;
+                    offset[k] = offset[k] + 1 == size ? 0 : offset[k] + 1;
+                }
+                move[k] = false;
+            }
+            int c = plug[chars[i]];
+            for (int k = n - 1; k > 0; k -= 1) {
+                c = _forward[rotor[k]][offset[k] * size + c];
+            }
+            c = reflector[c];
+            for (int k = 1; k < n; k += 1) {
+                c = _backward[rotor[k]][offset[k] * size + c];
+            }
+            chars[i] = plug[c];
+        }
+        for (int k = 1; k < n; k += 1) {
+            _records.putChar(base + _settingsOffset + 2 * k,
+                             (char) setting[k]);
+        }
+    }
+
+    /** Return the conversion of MSG, whose characters must be in my
+     *  alphabet, by session ID. */
+    String convert(int id, String msg) {
+        int[] chars = new int[msg.length()];
+        for (int i = 0; i < chars.length; i += 1) {
+            chars[i] = _alphabet.toInt(msg.charAt(i));
+            if (chars[i] < 0) {
+                throw error("character '%c' not in alphabet",
+                            msg.charAt(i));
+            }
+        }
+        convert(id, chars, 0, chars.length);
+        char[] result = new char[chars.length];
+        for (int i = 0; i < chars.length; i += 1) {
+            result[i] = _alphabet.toChar(chars[i]);
+        }
+        return new String(result);
+    }
+
+    /** Return the setting string (as for Machine.setRotors) of session
+     *  ID. */
+    String setting(int id) {
+        checkOpen(id);
+        char[] result = new char[_numRotors - 1];
+        for (int k = 1; k < _numRotors; k += 1) {
+            result[k - 1] = _alphabet.toChar(
+                _records.getChar(id * _width + _settingsOffset + 2 * k));
+        }
+        return new String(result);
+    }
+
+    /** Return the number of bytes of each session's record. */
+    int recordWidth() {
+        return _width;
+    }
+
+    /** Alphabet of the machines. */
+    private final Alphabet _alphabet;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of slots. */
+    private final int _numRotors;
+
+    /** Number of each available rotor, by name. */
+    private final HashMap<String, Integer> _rotorIds;
+
+    /** Substitutions of each rotor at each setting S of character C, at
+     *  S * size + C, towards the reflector and back. */
+    private final int[][] _forward, _backward;
+
+    /** Notch positions of each rotor. */
+    private final boolean[][] _notch;
+
+    /** Whether each rotor rotates. */
+    private final boolean[] _rotates;
+
+    /** Offset in a record of its settings, two bytes per slot. */
+    private final int _settingsOffset;
+
+    /** Offset in a record of its ring settings, two bytes per slot. */
+    private final int _ringsOffset;
+
+    /** Bytes per record. */
+    private final int _width;
+
+    /** The session records. */
+    private final ByteBuffer _records;
+
+    /** Stack of free record numbers. */
+    private final int[] _free;
+
+    /** Number of entries in _free. */
+    private int _numFree;
+
+    /** Number of records. */
+    private final int _capacity;
+
+    /** Number of each plugboard table, by plugboard cycles. */
+    private final HashMap<String, Integer> _plugIds;
+
+    /** Plugboard tables, by number. */
+    private final List<int[]> _plugs;
+
+    /** Plugboard tables, by number, as read by convert. */
+    private volatile int[][] _plugTables = new int[0][];
+
+    /** Machine used to parse settings lines. */
+    private final Machine _parser;
+}
@@ -0,0 +1,54 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the SessionStore class.
+ *  @author jordanta
+ */
+public class SessionStoreTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testSessionStore() {
+        String plain = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        Machine mach = navalMachine();
+        Machine other = mach.copy();
+        other.insertRotors(new String[] { "B", "Beta", "I", "III", "IV" });
+        other.setRotors("QZJV", "BFAX");
+        other.setPlugboard(new Permutation("(AZ)", UPPER));
+        SessionStore store = new SessionStore(mach, 3);
+        int a = store.open(mach);
+        int b = store.open(other);
+        assertEquals(2, store.size());
+        assertTrue(store.recordWidth() <= 32);
+        for (int i = 0; i < plain.length(); i += 7) {
+            String chunk = plain.substring(i, Math.min(i + 7,
+                                                       plain.length()));
+            assertEquals(mach.convert(chunk), store.convert(a, chunk));
+            assertEquals(other.convert(chunk), store.convert(b, chunk));
+        }
+        store.close(a);
+        assertEquals(1, store.size());
+        int c = store.open("* B Beta III IV I AXLE (HQ) (EX)");
+        assertEquals(a, c);
+        assertEquals("AXLE", store.setting(c));
+        try {
+            store.close(a);
+            store.close(a);
+            fail("closed a closed session");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+}
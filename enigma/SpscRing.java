@@ -0,0 +1,159 @@
+package enigma;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/** A bounded queue between exactly one producer thread and one consumer
+ *  thread, kept in a ring of slots without locks.  The producer alone
+ *  advances the tail and the consumer alone the head, each publishing
+ *  its index with an ordered write, so a hand-off costs two volatile
+ *  reads and one ordered write.  A thread that finds the ring full (or
+ *  empty) spins briefly, then yields its processor for a while, and then
+ *  parks for short intervals until it can go on.
+ *
+ *  The ring keeps statistics of its use: the number of elements put,
+ *  the mean and largest number of elements waiting when one was put,
+ *  and the number of times each side had to wait.  They are plain
+ *  fields, updated before each hand-off is published, and are meant to
+ *  be read only after both threads have been joined.
+ *  @author jordanta
+ */
+final class SpscRing<E> {
+
+    /** Times a waiting thread spins before yielding, and yields before
+     *  parking. */
+    private static final int SPINS = 256;
+
+    /** Nanoseconds a waiting thread parks at a time. */
+    private static final long PARK = 20_000;
+
+    /** A ring holding at least CAPACITY elements. */
+    SpscRing(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("bad ring capacity");
+        }
+        int size = Integer.highestOneBit(capacity);
+        size = size < capacity ? size << 1 : size;
+        _slots = new AtomicReferenceArray<>(size);
+        _mask = size - 1;
+    }
+
+    /** Return the number of elements I can hold. */
+    int capacity() {
+        return _mask + 1;
+    }
+
+    /** Add E at my tail if there is room, returning true iff there was.
+     *  Only the producer may call this. */
+    boolean offer(E e) {
+        long tail = _tail.get();
+        if (tail - _head.get() > _mask) {
+            return false;
+        }
+        long depth = tail - _head.get() + 1;
+        _puts += 1;
+        _depthSum += depth;
+        _maxDepth = Math.max(_maxDepth, depth);
+        _slots.lazySet((int) tail & _mask, e);
+        _tail.lazySet(tail + 1);
+        return true;
+    }
+
+    /** Add E at my tail, waiting for room if needed.  Only the producer
+     *  may call this. */
+    void put(E e) {
+        if (offer(e)) {
+            return;
+        }
+        _fullWaits += 1;
+        for (int spins = 0; !offer(e); spins += 1) {
+            pause(spins);
+        }
+    }
+
+    /** Remove and return my head, or null if I am empty.  Only the
+     *  consumer may call this. */
+    E poll() {
+        long head = _head.get();
+        if (head == _tail.get()) {
+            return null;
+        }
+        int i = (int) head & _mask;
+        E result = _slots.get(i);
+        _slots.lazySet(i, null);
+        _head.lazySet(head + 1);
+        return result;
+    }
+
+    /** Remove and return my head, waiting for one if needed.  Only the
+     *  consumer may call this. */
+    E take() {
+        E result = poll();
+        if (result != null) {
+            return result;
+        }
+        _emptyWaits += 1;
+        for (int spins = 0; (result = poll()) == null; spins += 1) {
+            pause(spins);
+        }
+        return result;
+    }
+
+    /** Wait a little, the SPINS-th time in a row. */
+    private static void pause(int spins) {
+        if (spins < SPINS) {
+            Thread.onSpinWait();
+        } else if (spins < 2 * SPINS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK);
+        }
+    }
+
+    /** Return the number of elements put into me. */
+    long puts() {
+        return _puts;
+    }
+
+    /** Return the mean number of elements in me just after each put. */
+    double meanDepth() {
+        return _puts == 0 ? 0 : (double) _depthSum / _puts;
+    }
+
+    /** Return the largest number of elements ever in me. */
+    long maxDepth() {
+        return _maxDepth;
+    }
+
+    /** Return the number of puts that found me full. */
+    long fullWaits() {
+        return _fullWaits;
+    }
+
+    /** Return the number of takes that found me empty. */
+    long emptyWaits() {
+        return _emptyWaits;
+    }
+
+    /** The elements, at their indices modulo the ring size. */
+    private final AtomicReferenceArray<E> _slots;
+
+    /** Ring size less one. */
+    private final int _mask;
+
+    /** Index of the next element to take, written only by the
+     *  consumer. */
+    private final AtomicLong _head = new AtomicLong();
+
+    /** Index of the next element to put, written only by the
+     *  producer. */
+    private final AtomicLong _tail = new AtomicLong();
+
+    /** Producer's statistics: elements put, the sum of the depths after
+     *  each put, the largest depth, and puts that waited. */
+    private long _puts, _depthSum, _maxDepth, _fullWaits;
+
+    /** Consumer's statistic: takes that waited. */
+    private long _emptyWaits;
+}
@@ -0,0 +1,61 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the SpscRing class.
+ *  @author jordanta
+ */
+public class SpscRingTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testBounds() {
+        SpscRing<Integer> ring = new SpscRing<>(5);
+        assertEquals(8, ring.capacity());
+        assertNull(ring.poll());
+        for (int i = 0; i < 8; i += 1) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(8));
+        assertEquals(0, (int) ring.poll());
+        assertTrue(ring.offer(8));
+        for (int i = 1; i <= 8; i += 1) {
+            assertEquals(i, (int) ring.take());
+        }
+        assertNull(ring.poll());
+        assertEquals(9, ring.puts());
+        assertEquals(8, ring.maxDepth());
+    }
+
+    @Test
+    public void testThreads() throws InterruptedException {
+        final int n = 50000;
+        SpscRing<Integer> ring = new SpscRing<>(4);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < n; i += 1) {
+                ring.put(i);
+            }
+        });
+        producer.start();
+        long sum = 0;
+        for (int i = 0; i < n; i += 1) {
+            int x = ring.take();
+            assertEquals(i, x);
+            sum += x;
+        }
+        producer.join();
+        assertEquals((long) n * (n - 1) / 2, sum);
+        assertEquals(n, ring.puts());
+        assertTrue(ring.maxDepth() <= 4);
+        assertTrue(ring.meanDepth() >= 1 && ring.meanDepth() <= 4);
+    }
+
+}
@@ -0,0 +1,300 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** A file of precomputed substitutions for chosen rotor orders of a
+ *  machine.  For each rotor order, it holds the substitution performed by
+ *  the rotors (without the plugboard) at every combination of settings of
+ *  the rotors right of the reflector.  A Machine with a store attached
+ *  (see Machine.setTables) replaces its rotor passes by one lookup in the
+ *  table for its current settings whenever its rotor order is in the
+ *  store.  Stores are opened read-only and memory-mapped, so all the
+ *  processes using one store share a single copy in the page cache.
+ *
+ *  A store file holds a header (magic number, version, alphabet size,
+ *  number of slots, bytes per entry and number of orders, ints; and the
+ *  fingerprint of the machine, long), a directory giving each order's
+ *  rotor names (length-prefixed UTF-8, separated by blanks) and the file
+ *  offset of its table (long), and the tables, each starting on a page
+ *  boundary.  The table for an order has an entry for each setting
+ *  state S (the settings of slots 1 .. numRotors()-1 read as a number in
+ *  base alphabet size, slot 1 most significant) and character C, at
+ *  index S * size + C.
+ *  @author jordanta
+ */
+final class TableStore implements Closeable {
+
+    /** First four bytes of a store file. */
+    static final int MAGIC = 0x454e5453;
+
+    /** Version of the file format. */
+    static final int VERSION = 1;
+
+    /** Alignment of tables in the file. */
+    static final int PAGE = 4096;
+
+    /** Largest alphabet whose entries fit in one byte. */
+    static final int BYTE_ALPHABET = 256;
+
+    /** Build a store as specified by ARGS: ARGS[0] names the
+     *  configuration file, ARGS[1] the store to write, and the remaining
+     *  arguments each give a rotor order as a settings line would,
+     *  reflector first, with rotor names separated by blanks or commas.
+     *  With --all, every order of the machine's KeySpace is stored. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--all --threads=(\\d+){0,1} --=(.*){2,}",
+                                args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.TableStore [--threads=N] "
+                            + "CONFIG STORE (--all | ORDER...)");
+            }
+            List<String> files = options.get("--");
+            Machine mach = Main.readConfig(ToolUtils.getInput(files.get(0)));
+            List<String[]> orders = new ArrayList<>();
+            if (options.contains("--all")) {
+                KeySpace keys = new KeySpace(mach);
+                for (int k = 0; k < keys.numOrders(); k += 1) {
+                    orders.add(keys.order(k));
+                }
+            }
+            for (String order : files.subList(2, files.size())) {
+                orders.add(order.trim().split("[\\s,]+"));
+            }
+            if (orders.isEmpty()) {
+                throw error("no rotor orders given");
+            }
+            build(mach, Paths.get(files.get(1)), orders, Integer.parseInt(
+                ToolUtils.option(options, "--threads",
+                       "" + Runtime.getRuntime().availableProcessors())));
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Return the number of setting states of MACH, checking that a
+     *  table for one rotor order can be memory-mapped. */
+    static int numStates(Machine mach) {
+        long states = 1;
+        int size = mach.alphabet().size();
+        for (int i = 1; i < mach.numRotors(); i += 1) {
+            states *= size;
+            if (states * size * entryBytes(size) > Integer.MAX_VALUE) {
+                throw error("tables for this machine are too large");
+            }
+        }
+        return (int) states;
+    }
+
+    /** Return the number of bytes per entry for an alphabet of SIZE
+     *  characters. */
+    static int entryBytes(int size) {
+        return size <= BYTE_ALPHABET ? 1 : 2;
+    }
+
+    /** Write to FILE a store for machines like MACH holding the tables
+     *  for ORDERS, computing them on THREADS threads. */
+    static void build(Machine mach, Path file, List<String[]> orders,
+                      int threads) {
+        int size = mach.alphabet().size();
+        int states = numStates(mach);
+        int width = entryBytes(size);
+        long tableBytes = (long) states * size * width;
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(head)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            out.writeInt(mach.numRotors());
+            out.writeInt(width);
+            out.writeInt(orders.size());
+            out.writeLong(KeySpace.fingerprint(KeySpace.describe(mach)));
+            long offset = align(directorySize(orders));
+            for (String[] order : orders) {
+                ToolUtils.writeString(out, String.join(" ", order));
+                out.writeLong(offset);
+                offset = align(offset + tableBytes);
+            }
+        } catch (IOException excp) {
+            throw error("could not encode store header");
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ThreadLocal<Machine> machines = ThreadLocal.withInitial(mach::copy);
+        try (FileChannel ch = FileChannel.open(file,
+                 StandardOpenOption.CREATE, StandardOpenOption.READ,
+                 StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            ch.write(ByteBuffer.wrap(head.toByteArray()), 0);
+            long offset = align(head.size());
+            List<Future<?>> tasks = new ArrayList<>();
+            int slice = Math.max(1, states / (threads * 4));
+            for (String[] order : orders) {
+                MappedByteBuffer table =
+                    ch.map(FileChannel.MapMode.READ_WRITE, offset,
+                           tableBytes);
+                for (int lo = 0; lo < states; lo += slice) {
+                    int first = lo, last = Math.min(states, lo + slice);
+                    tasks.add(pool.submit(() ->
+                        fill(machines.get(), order, table, width, first,
+                             last)));
+                }
+                offset = align(offset + tableBytes);
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+            ch.force(true);
+        } catch (IOException excp) {
+            throw error("could not write store %s", file);
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw error("store build failed: %s", excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("store build interrupted");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Return the size of a store header listing ORDERS. */
+    private static long directorySize(List<String[]> orders) {
+        long n = 6 * Integer.BYTES + Long.BYTES;
+        for (String[] order : orders) {
+            n += Integer.BYTES + Long.BYTES
+                + String.join(" ", order)
+                  .getBytes(StandardCharsets.UTF_8).length;
+        }
+        return n;
+    }
+
+    /** Return N rounded up to a multiple of PAGE. */
+    private static long align(long n) {
+        return (n + PAGE - 1) / PAGE * PAGE;
+    }
+
+    /** Fill the entries of TABLE (of WIDTH bytes each) for setting states
+     *  FIRST .. LAST-1 of rotor order ORDER, using MACH. */
+    private static void fill(Machine mach, String[] order,
+                             ByteBuffer table, int width, int first,
+                             int last) {
+        Alphabet alpha = mach.alphabet();
+        int size = alpha.size(), n = mach.numRotors();
+        mach.insertRotors(order);
+        mach.setPlugboard(new Permutation("", alpha));
+        char[] setting = new char[n - 1];
+        for (int state = first; state < last; state += 1) {
+            for (int i = n - 2, s = state; i >= 0; i -= 1, s /= size) {
+                setting[i] = alpha.toChar(s % size);
+            }
+            mach.setRotors(new String(setting));
+            for (int c = 0; c < size; c += 1) {
+                int index = state * size + c;
+                if (width == 1) {
+                    table.put(index, (byte) mach.substitute(c));
+                } else {
+                    table.putChar(index * 2, (char) mach.substitute(c));
+                }
+            }
+        }
+    }
+
+    /** The store in FILE, which must have been built for machines like
+     *  MACH. */
+    TableStore(Path file, Machine mach) {
+        _tables = new HashMap<>();
+        try (FileChannel ch = FileChannel.open(file,
+                                               StandardOpenOption.READ)) {
+            DataInputStream inp = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(ch)));
+            if (inp.readInt() != MAGIC || inp.readInt() != VERSION) {
+                throw error("%s is not a table store", file);
+            }
+            _size = inp.readInt();
+            int numRotors = inp.readInt();
+            _width = inp.readInt();
+            int numOrders = inp.readInt();
+            if (inp.readLong()
+                != KeySpace.fingerprint(KeySpace.describe(mach))
+                || _size != mach.alphabet().size()
+                || numRotors != mach.numRotors()
+                || _width != entryBytes(_size)) {
+                throw error("store %s is for a different machine", file);
+            }
+            long tableBytes = (long) numStates(mach) * _size * _width;
+            for (int k = 0; k < numOrders; k += 1) {
+                String order = ToolUtils.readString(inp);
+                long offset = inp.readLong();
+                if (offset < 0 || offset + tableBytes > ch.size()) {
+                    throw error("store %s is truncated", file);
+                }
+                _tables.put(order, ch.map(FileChannel.MapMode.READ_ONLY,
+                                          offset, tableBytes));
+            }
+        } catch (EOFException excp) {
+            throw error("store %s is truncated", file);
+        } catch (IOException excp) {
+            throw error("could not read store %s", file);
+        }
+    }
+
+    /** Return the table for the rotor order ROTORS (reflector first), or
+     *  null if I have none.  Its entries are read by lookup. */
+    ByteBuffer table(String[] rotors) {
+        return _tables.get(String.join(" ", rotors));
+    }
+
+    /** Return the entry of TABLE for setting state STATE and character
+     *  C. */
+    int lookup(ByteBuffer table, int state, int c) {
+        int index = state * _size + c;
+        if (_width == 1) {
+            return table.get(index) & 0xff;
+        }
+        return table.getChar(index * 2);
+    }
+
+    @Override
+    public void close() {
+        _tables.clear();
+    }
+
+    /** Size of the alphabet. */
+    private int _size;
+
+    /** Bytes per table entry. */
+    private int _width;
+
+    /** Memory-mapped tables by rotor order (names joined by blanks). */
+    private final HashMap<String, MappedByteBuffer> _tables;
+}
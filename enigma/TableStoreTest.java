@@ -0,0 +1,56 @@
+package enigma;
+
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the TableStore class.
+ *  @author jordanta
+ */
+public class TableStoreTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Directory for table stores. */
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testTableStore() throws Exception {
+        Path file = tmp.getRoot().toPath().resolve("tables");
+        TableStore.build(smallMachine(), file, Collections.singletonList(
+                             new String[] { "B", "I", "II" }), 2);
+        Machine plain = smallMachine();
+        Machine stored = smallMachine();
+        stored.setTables(new TableStore(file, stored));
+        for (String settings : new String[] {
+                "* B I II AQ (AT) (HQ)", "* B II I ZE", "* B I II YY",
+                "* B I II AQ CX (AT)" }) {
+            Main.setUp(plain, settings);
+            Main.setUp(stored, settings);
+            assertEquals(settings, plain.convert(PLAIN),
+                         stored.convert(PLAIN));
+        }
+        assertEquals(Machine.Engine.STORED, stored.engine());
+        assertEquals(3 * PLAIN.length(),
+                     stored.engineChars(Machine.Engine.STORED));
+        try {
+            new TableStore(file, navalMachine());
+            fail("store accepted for a different machine");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+}
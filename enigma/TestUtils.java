@@ -1,6 +1,8 @@
 package enigma;
 
 import java.util.HashMap;
+import java.util.List;
+import java.util.Scanner;
 
 /** Utility definitions for use in unit tests.
  *  @author P. N. Hilfinger
@@ -126,4 +128,76 @@ class TestUtils {
         NAVALZ_MAP.put("Gamma", "EGTPLBOVFSINCUJZDXMRQAYWHK");
     }
 
+    /** A small configuration: three slots, two of them moving. */
+    static final String SMALL_CONFIG =
+        UPPER_STRING + "\n 3 2\n"
+        + " I MQ " + NAVALA.get("I") + "\n"
+        + " II ME " + NAVALA.get("II") + "\n"
+        + " B R " + NAVALA.get("B") + "\n";
+
+    /** A configuration of five slots, three of them moving, holding the
+     *  naval rotors I, II, III, Beta and B. */
+    static final String NAVAL_CONFIG =
+        UPPER_STRING + "\n 5 3\n"
+        + " I MQ " + NAVALA.get("I") + "\n"
+        + " II ME " + NAVALA.get("II") + "\n"
+        + " III MV " + NAVALA.get("III") + "\n"
+        + " Beta N " + NAVALA.get("Beta") + "\n"
+        + " B R " + NAVALA.get("B") + "\n";
+
+    /** Plaintext long enough for its index of coincidence to stand
+     *  out. */
+    static final String PLAIN =
+        "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOODMADEOFSLIDING"
+        + "FOLDINGROSEWOODNEATLYPUTITALLTOGETHERINITSCASEITLAYCOMPACTLY"
+        + "FOLDEDINTONEARLYNOTHINGBUTHEOPENEDOUTTHEHINGES";
+
+    /** Return a machine for SMALL_CONFIG. */
+    static Machine smallMachine() {
+        return Main.readConfig(new Scanner(SMALL_CONFIG));
+    }
+
+    /** Return TEXT enciphered as one message under SETTINGS on a
+     *  machine for SMALL_CONFIG. */
+    static String encipher(String settings, String text) {
+        Machine mach = smallMachine();
+        Main.setUp(mach, settings);
+        return mach.convert(text);
+    }
+
+    /** Return a message in the input format of Main: SETTINGS followed by
+     *  TEXT enciphered under SETTINGS in groups of five. */
+    static String message(String settings, String text) {
+        String cipher = encipher(settings, text);
+        StringBuilder result = new StringBuilder(settings).append('\n');
+        for (int i = 0; i < cipher.length(); i += 5) {
+            result.append(cipher, i, Math.min(i + 5, cipher.length()))
+                .append(i % 50 == 45 ? "\n" : " ");
+        }
+        return result.append('\n').toString();
+    }
+
+    /** Plugboard of the machine returned by navalMachine. */
+    static final String NAVAL_PLUGS = "(HQ) (EX) (IP) (TR) (BY)";
+
+    /** Return a five-slot, three-pawl machine holding the naval rotors B,
+     *  Beta, I, III and IV, with rotors B Beta III IV I at AXLE and
+     *  plugboard NAVAL_PLUGS. */
+    static Machine navalMachine() {
+        List<Rotor> rotors = List.of(
+            new Reflector("B", new Permutation(NAVALA.get("B"), UPPER)),
+            new FixedRotor("Beta", new Permutation(NAVALA.get("Beta"), UPPER)),
+            new MovingRotor("I", new Permutation(NAVALA.get("I"), UPPER),
+                            "Q"),
+            new MovingRotor("III", new Permutation(NAVALA.get("III"), UPPER),
+                            "V"),
+            new MovingRotor("IV", new Permutation(NAVALA.get("IV"), UPPER),
+                            "J"));
+        Machine mach = new Machine(UPPER, 5, 3, rotors);
+        mach.insertRotors(new String[] { "B", "Beta", "III", "IV", "I" });
+        mach.setRotors("AXLE");
+        mach.setPlugboard(new Permutation(NAVAL_PLUGS, UPPER));
+        return mach;
+    }
+
 }
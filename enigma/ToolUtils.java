@@ -0,0 +1,85 @@
+package enigma;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Scanner;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** Helpers shared by the command-line tools of this package: option
+ *  defaults, opening and reading files, and the string encoding of the
+ *  binary files and protocols.
+ *  @author jordanta
+ */
+final class ToolUtils {
+
+    /** Largest alphabet whose characters fit in a byte. */
+    static final int BYTE_ALPHABET = 256;
+
+    /** Not instantiable. */
+    private ToolUtils() {
+    }
+
+    /** Return the last value of option KEY in OPTIONS, or DEFLT if
+     *  absent. */
+    static String option(CommandArgs options, String key, String deflt) {
+        return options.contains(key) ? options.getLast(key) : deflt;
+    }
+
+    /** Return a Scanner reading from the file named NAME. */
+    static Scanner getInput(String name) {
+        try {
+            return new Scanner(new File(name));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return the contents of the file named NAME. */
+    static String readFile(String name) {
+        try {
+            return new String(Files.readAllBytes(Paths.get(name)),
+                              StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
+        }
+    }
+
+    /** Return the contents of the file named NAME without whitespace. */
+    static String readText(String name) {
+        return letters(readFile(name));
+    }
+
+    /** Return TEXT without blanks. */
+    static String letters(String text) {
+        StringBuilder result = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i += 1) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                result.append(text.charAt(i));
+            }
+        }
+        return result.toString();
+    }
+
+    /** Write S to OUT as a length-prefixed UTF-8 string. */
+    static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Return a length-prefixed UTF-8 string read from INP. */
+    static String readString(DataInputStream inp) throws IOException {
+        byte[] bytes = new byte[inp.readInt()];
+        inp.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,68 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** The best candidates offered so far, up to a fixed number of them.
+ *  Not thread-safe: searches keep one per task and merge them.
+ *  @author jordanta
+ */
+class TopK {
+
+    /** An empty collection keeping the best K candidates. */
+    TopK(int k) {
+        _k = k;
+        _heap = new PriorityQueue<>();
+    }
+
+    /** Return the number of candidates kept. */
+    int capacity() {
+        return _k;
+    }
+
+    /** Return the number of candidates held. */
+    int size() {
+        return _heap.size();
+    }
+
+    /** Return the score a candidate must beat to be kept, or negative
+     *  infinity if I am not yet full. */
+    double threshold() {
+        if (_heap.size() < _k) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return _heap.peek().score();
+    }
+
+    /** Keep C if it is among the best K candidates offered. */
+    void offer(Candidate c) {
+        if (_heap.size() < _k) {
+            _heap.add(c);
+        } else if (_k > 0 && c.compareTo(_heap.peek()) > 0) {
+            _heap.poll();
+            _heap.add(c);
+        }
+    }
+
+    /** Offer each of CANDIDATES. */
+    void offerAll(Iterable<Candidate> candidates) {
+        for (Candidate c : candidates) {
+            offer(c);
+        }
+    }
+
+    /** Return the candidates held, best first. */
+    List<Candidate> best() {
+        List<Candidate> result = new ArrayList<>(_heap);
+        result.sort(Collections.reverseOrder());
+        return result;
+    }
+
+    /** Maximum number of candidates kept. */
+    private final int _k;
+
+    /** Candidates kept, worst first. */
+    private final PriorityQueue<Candidate> _heap;
+}
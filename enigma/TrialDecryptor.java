@@ -0,0 +1,572 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.DoubleSupplier;
+
+import static enigma.EnigmaException.*;
+
+/** Decrypts one ciphertext under many keys of a KeySpace at once, as
+ *  Machine.convert would after Machine.setRotors for each key, but
+ *  without Rotor objects or Strings.  Each rotor is compiled once into
+ *  tables of its forward and backward substitutions at every setting
+ *  and of its notch positions.  Keys are decrypted in groups of up to
+ *  LANES keys sharing a rotor order, one lane per key, with the lanes'
+ *  settings stored slot by slot in int arrays so that stepping is a
+ *  simple loop over the lanes for each slot.  Each character position
+ *  of the decryptions is handed to a Scorer as a column holding that
+ *  character of every lane.  With a Bounded scorer, lanes whose final
+ *  scores cannot reach a given threshold, or the scorer's own floor,
+ *  are dropped as soon as that is known, and the rest of their
+ *  decryption is skipped.
+ *
+ *  A TrialDecryptor is immutable and may be shared between threads;
+ *  Scorers may not.
+ *  @author jordanta
+ */
+final class TrialDecryptor {
+
+    /** Largest number of keys decrypted together. */
+    static final int LANES = 256;
+
+    /** Receives trial decryptions one character position at a time. */
+    interface Scorer {
+
+        /** Start scoring LANES new decryptions. */
+        void start(int lanes);
+
+        /** Record the next character of each of the first LANES
+         *  decryptions: COLUMN[L] for lane L. */
+        void accept(int[] column, int lanes);
+
+        /** Return the score of the decryption in lane LANE. */
+        double score(int lane);
+    }
+
+    /** Scores decryptions by their index of coincidence, as
+     *  KeySearch.score does. */
+    static final class Coincidence implements Scorer {
+
+        /** A scorer for decryptions over an alphabet of SIZE
+         *  characters. */
+        Coincidence(int size) {
+            _size = size;
+            _counts = new int[LANES * size];
+        }
+
+        @Override
+        public void start(int lanes) {
+            Arrays.fill(_counts, 0, lanes * _size, 0);
+            _length = 0;
+        }
+
+        @Override
+        public void accept(int[] column, int lanes) {
+            for (int l = 0; l < lanes; l += 1) {
+                _counts[l * _size + column[l]] += 1;
+            }
+            _length += 1;
+        }
+
+        @Override
+        public double score(int lane) {
+            long n = _length, sum = 0;
+            for (int c = lane * _size; c < (lane + 1) * _size; c += 1) {
+                sum += (long) _counts[c] * (_counts[c] - 1);
+            }
+            return n < 2 ? 0.0 : (double) sum / (n * (n - 1));
+        }
+
+        /** Size of the alphabet. */
+        private final int _size;
+
+        /** Number of characters accepted per lane. */
+        private int _length;
+
+        /** Count of each character C in lane L, at L * _size + C. */
+        private final int[] _counts;
+    }
+
+    /** A Scorer that can bound the final score of a decryption of which
+     *  it has seen only a prefix, so that hopeless decryptions can be
+     *  abandoned.  Scores of abandoned lanes are negative infinity. */
+    abstract static class Bounded implements Scorer {
+
+        @Override
+        public final void start(int lanes) {
+            Arrays.fill(_aborted, 0, lanes, false);
+            _seen = 0;
+            reset(lanes);
+        }
+
+        @Override
+        public final void accept(int[] column, int lanes) {
+            accept(column, ALL, lanes);
+        }
+
+        /** Record the next character of each of the decryptions in lanes
+         *  LIVE[0 .. COUNT-1]: COLUMN[L] for lane L. */
+        final void accept(int[] column, int[] live, int count) {
+            record(column, live, count, _seen);
+            _seen += 1;
+            _decrypted += count;
+        }
+
+        @Override
+        public final double score(int lane) {
+            return _aborted[lane] ? Double.NEGATIVE_INFINITY : value(lane);
+        }
+
+        /** Abandon the decryption in lane LANE. */
+        final void abort(int lane) {
+            _aborted[lane] = true;
+        }
+
+        /** Return the number of characters of each decryption seen since
+         *  the last start. */
+        final int seen() {
+            return _seen;
+        }
+
+        /** Return the total number of characters decrypted for me. */
+        final long decrypted() {
+            return _decrypted;
+        }
+
+        /** Skip the first N characters of each decryption. */
+        final void skip(int n) {
+            _seen += n;
+        }
+
+        /** Return the number of leading characters of a decryption that
+         *  its score ignores. */
+        int onset() {
+            return 0;
+        }
+
+        /** Return the number of leading characters of a decryption of
+         *  LENGTH characters on which its score depends. */
+        int horizon(int length) {
+            return length;
+        }
+
+        /** Return the least final score worth keeping, whatever the
+         *  threshold. */
+        double floor() {
+            return Double.NEGATIVE_INFINITY;
+        }
+
+        /** Start scoring LANES new decryptions. */
+        abstract void reset(int lanes);
+
+        /** Record character POS of the decryptions in lanes
+         *  LIVE[0 .. COUNT-1], COLUMN[L] for lane L. */
+        abstract void record(int[] column, int[] live, int count, int pos);
+
+        /** Return the score of the decryption in lane LANE. */
+        abstract double value(int lane);
+
+        /** Return an upper bound on the final score of the decryption in
+         *  lane LANE, of which REMAINING characters are still to come. */
+        abstract double bound(int lane, int remaining);
+
+        /** The identity lane map. */
+        private static final int[] ALL = new int[LANES];
+
+        static {
+            for (int l = 0; l < LANES; l += 1) {
+                ALL[l] = l;
+            }
+        }
+
+        /** Which lanes have been abandoned. */
+        private final boolean[] _aborted = new boolean[LANES];
+
+        /** Characters seen per lane since the last start. */
+        private int _seen;
+
+        /** Characters decrypted in all. */
+        private long _decrypted;
+    }
+
+    /** Scores decryptions by the log probability of their trigrams under
+     *  a model of the plaintext language. */
+    static final class NGrams extends Bounded {
+
+        /** A scorer for decryptions over an alphabet of SIZE characters,
+         *  where LOGPROBS[(A * SIZE + B) * SIZE + C] is the log
+         *  probability of trigram A B C. */
+        NGrams(int size, float[] logProbs) {
+            _size = size;
+            _logProbs = logProbs;
+            float max = Float.NEGATIVE_INFINITY;
+            for (float p : logProbs) {
+                max = Math.max(max, p);
+            }
+            _max = max;
+        }
+
+        @Override
+        void reset(int lanes) {
+            Arrays.fill(_sum, 0, lanes, 0.0);
+        }
+
+        @Override
+        void record(int[] column, int[] live, int count, int pos) {
+            for (int j = 0; j < count; j += 1) {
+                int l = live[j], c = column[l];
+                if (pos >= 2) {
+                    _sum[l] += _logProbs[_pair[l] * _size + c];
+                }
+                _pair[l] = _pair[l] % _size * _size + c;
+            }
+        }
+
+        @Override
+        double value(int lane) {
+            return _sum[lane];
+        }
+
+        @Override
+        double bound(int lane, int remaining) {
+            int seen = seen();
+            long future = Math.max(0, seen + remaining - 2)
+                - Math.max(0, seen - 2);
+            return _sum[lane] + future * (double) _max;
+        }
+
+        /** Size of the alphabet. */
+        private final int _size;
+
+        /** Log probability of each trigram. */
+        private final float[] _logProbs;
+
+        /** Largest of _logProbs. */
+        private final float _max;
+
+        /** Sum of the log probabilities of each lane's trigrams. */
+        private final double[] _sum = new double[LANES];
+
+        /** Last two characters of each lane, as A * size + B. */
+        private final int[] _pair = new int[LANES];
+    }
+
+    /** Scores decryptions by the number of characters agreeing with a
+     *  crib: known plaintext at a known position.  Decryptions with more
+     *  than a given number of disagreements are abandoned. */
+    static final class Crib extends Bounded {
+
+        /** A scorer for plaintext CRIB (alphabet indices) starting at
+         *  position POS, allowing up to MISMATCHES disagreements. */
+        Crib(int[] crib, int pos, int mismatches) {
+            _crib = crib;
+            _pos = pos;
+            _floor = crib.length - mismatches;
+        }
+
+        @Override
+        int onset() {
+            return _pos;
+        }
+
+        @Override
+        int horizon(int length) {
+            return Math.min(length, _pos + _crib.length);
+        }
+
+        @Override
+        double floor() {
+            return _floor;
+        }
+
+        @Override
+        void reset(int lanes) {
+            Arrays.fill(_matches, 0, lanes, 0);
+        }
+
+        @Override
+        void record(int[] column, int[] live, int count, int pos) {
+            int k = pos - _pos;
+            if (k < 0 || k >= _crib.length) {
+                return;
+            }
+            int want = _crib[k];
+            for (int j = 0; j < count; j += 1) {
+                int l = live[j];
+                if (column[l] == want) {
+                    _matches[l] += 1;
+                }
+            }
+        }
+
+        @Override
+        double value(int lane) {
+            return _matches[lane];
+        }
+
+        @Override
+        double bound(int lane, int remaining) {
+            int unseen = _crib.length
+                - Math.max(0, Math.min(_crib.length, seen() - _pos));
+            return _matches[lane] + unseen;
+        }
+
+        /** The crib. */
+        private final int[] _crib;
+
+        /** Position of the crib in the plaintext. */
+        private final int _pos;
+
+        /** Least number of matches kept. */
+        private final int _floor;
+
+        /** Number of crib characters matched in each lane. */
+        private final int[] _matches = new int[LANES];
+    }
+
+    /** A decryptor of CIPHERTEXT for machines like MACH with the
+     *  plugboard PLUGBOARD (in cycle notation). */
+    TrialDecryptor(Machine mach, String plugboard, String ciphertext) {
+        Alphabet alpha = mach.alphabet();
+        _size = alpha.size();
+        _numRotors = mach.numRotors();
+        Permutation plug = new Permutation(plugboard, alpha);
+        _plug = new int[_size];
+        for (int c = 0; c < _size; c += 1) {
+            _plug[c] = plug.permute(c);
+        }
+        _input = new int[ciphertext.length()];
+        for (int i = 0; i < _input.length; i += 1) {
+            _input[i] = _plug[alpha.toInt(ciphertext.charAt(i))];
+        }
+        _compiled = new HashMap<>();
+        for (Rotor r : mach.allRotors()) {
+            _compiled.put(r.name(), new Compiled(r));
+        }
+    }
+
+    /** The tables of one rotor. */
+    private static final class Compiled {
+
+        /** Tables for a copy of rotor R. */
+        Compiled(Rotor r) {
+            Rotor copy = r.copy();
+            int size = copy.size();
+            int settings = copy instanceof Reflector ? 1 : size;
+            forward = new int[size * size];
+            backward = new int[size * size];
+            notch = new boolean[size];
+            rotates = copy.rotates() ? 1 : 0;
+            for (int s = 0; s < settings; s += 1) {
+                copy.set(s);
+                notch[s] = copy.atNotch();
+                for (int c = 0; c < size; c += 1) {
+                    forward[s * size + c] = copy.convertForward(c);
+                    backward[s * size + c] = copy.convertBackward(c);
+                }
+            }
+        }
+
+        /** Substitution of C at setting S, at S * size + C, going towards
+         *  the reflector and coming back from it. */
+        final int[] forward, backward;
+
+        /** True at the settings where the rotor is at a notch. */
+        final boolean[] notch;
+
+        /** 1 if the rotor advances when moved, else 0. */
+        final int rotates;
+    }
+
+    /** Decrypt my ciphertext under keys LO, LO + 1, ... of KEYS, up to
+     *  LANES keys but stopping before HI and at the end of LO's rotor
+     *  order, sending each character position to SCORER.  Return the
+     *  number of keys decrypted: the lanes of SCORER, in order. */
+    int decrypt(KeySpace keys, long lo, long hi, Scorer scorer) {
+        int lanes = numLanes(keys, lo, hi);
+        int n = _numRotors, size = _size;
+        Compiled[] slots = slots(keys, lo);
+        int[][] setting = settings(keys, lo, lanes);
+        int[][] move = new int[n][lanes];
+        int[] column = new int[lanes];
+        int[] reflector = slots[0].forward;
+        scorer.start(lanes);
+        for (int c : _input) {
+            step(slots, setting, move, lanes);
+            for (int l = 0; l < lanes; l += 1) {
+                int x = c;
+                for (int i = n - 1; i > 0; i -= 1) {
+                    x = slots[i].forward[setting[i][l] * size + x];
+                }
+                x = reflector[x];
+                for (int i = 1; i < n; i += 1) {
+                    x = slots[i].backward[setting[i][l] * size + x];
+                }
+                column[l] = _plug[x];
+            }
+            scorer.accept(column, lanes);
+        }
+        return lanes;
+    }
+
+    /** Decrypt my ciphertext as for decrypt(KEYS, LO, HI, SCORER), but
+     *  abandon each lane, and stop decrypting it, once SCORER's bound on
+     *  its final score falls below SCORER's floor or the value of
+     *  THRESHOLD, which may rise during the decryption.  Characters
+     *  outside SCORER's onset and horizon are not decrypted. */
+    int decrypt(KeySpace keys, long lo, long hi, Bounded scorer,
+                DoubleSupplier threshold) {
+        int lanes = numLanes(keys, lo, hi);
+        int n = _numRotors, size = _size;
+        Compiled[] slots = slots(keys, lo);
+        int[][] setting = settings(keys, lo, lanes);
+        int[][] move = new int[n][lanes];
+        int[] column = new int[lanes];
+        int[] reflector = slots[0].forward;
+        int[] live = new int[lanes];
+        for (int l = 0; l < lanes; l += 1) {
+            live[l] = l;
+        }
+        int count = lanes;
+        int length = scorer.horizon(_input.length);
+        int onset = Math.min(scorer.onset(), length);
+        scorer.start(lanes);
+        for (int p = 0; p < onset; p += 1) {
+            step(slots, setting, move, count);
+        }
+        scorer.skip(onset);
+        for (int p = onset; p < length && count > 0; p += 1) {
+            step(slots, setting, move, count);
+            int c = _input[p];
+            for (int j = 0; j < count; j += 1) {
+                int x = c;
+                for (int i = n - 1; i > 0; i -= 1) {
+                    x = slots[i].forward[setting[i][j] * size + x];
+                }
+                x = reflector[x];
+                for (int i = 1; i < n; i += 1) {
+                    x = slots[i].backward[setting[i][j] * size + x];
+                }
+                column[live[j]] = _plug[x];
+            }
+            scorer.accept(column, live, count);
+            double floor = Math.max(scorer.floor(),
+                                    threshold.getAsDouble());
+            if (floor > Double.NEGATIVE_INFINITY) {
+                count = prune(scorer, floor, length - p - 1, setting,
+                              live, count);
+            }
+        }
+        return lanes;
+    }
+
+    /** Abandon those of lanes LIVE[0 .. COUNT-1] whose bound under
+     *  SCORER, with REMAINING characters to come, is below FLOOR.  Move
+     *  the settings of the survivors (SETTING[I][J] for LIVE[J]) and
+     *  their lanes to the front of SETTING and LIVE, and return their
+     *  number. */
+    private int prune(Bounded scorer, double floor, int remaining,
+                      int[][] setting, int[] live, int count) {
+        int kept = 0;
+        for (int j = 0; j < count; j += 1) {
+            if (scorer.bound(live[j], remaining) < floor) {
+                scorer.abort(live[j]);
+                continue;
+            }
+            if (kept != j) {
+                live[kept] = live[j];
+                for (int i = 1; i < _numRotors; i += 1) {
+                    setting[i][kept] = setting[i][j];
+                }
+            }
+            kept += 1;
+        }
+        return kept;
+    }
+
+    /** Return the number of keys, starting at LO, to decrypt together:
+     *  up to LANES, but stopping before HI and at the end of LO's rotor
+     *  order in KEYS. */
+    private static int numLanes(KeySpace keys, long lo, long hi) {
+        long orderEnd = (keys.orderIndex(lo) + 1) * keys.numPositions();
+        int lanes = (int) Math.min(LANES, Math.min(hi, orderEnd) - lo);
+        if (lanes < 1) {
+            throw error("no keys to decrypt");
+        }
+        return lanes;
+    }
+
+    /** Return the tables of the rotors of key LO of KEYS, by slot. */
+    private Compiled[] slots(KeySpace keys, long lo) {
+        String[] order = keys.rotors(lo);
+        Compiled[] slots = new Compiled[_numRotors];
+        for (int i = 0; i < _numRotors; i += 1) {
+            slots[i] = _compiled.get(order[i]);
+        }
+        return slots;
+    }
+
+    /** Return the initial settings of keys LO .. LO+LANES-1 of KEYS, the
+     *  setting of slot I of key LO + L at [I][L]. */
+    private int[][] settings(KeySpace keys, long lo, int lanes) {
+        int[][] setting = new int[_numRotors][lanes];
+        int[] key = new int[_numRotors];
+        for (int l = 0; l < lanes; l += 1) {
+            keys.settings(lo + l, key);
+            for (int i = 1; i < _numRotors; i += 1) {
+                setting[i][l] = key[i];
+            }
+        }
+        return setting;
+    }
+
+    /** Advance the first LANES lanes of SETTING, whose slots hold
+     *  SLOTS, as Machine.convert does before each character.  MOVE is
+     *  scratch space of the same shape as SETTING, and is left 0. */
+    private void step(Compiled[] slots, int[][] setting, int[][] move,
+                      int lanes) {
+        int n = _numRotors, size = _size;
+        int[] fast = move[n - 1];
+        for (int l = 0; l < lanes; l += 1) {
+            fast[l] = 1;
+        }
+        for (int i = 1; i < n; i += 1) {
+            if (slots[i - 1].rotates == 0) {
+                continue;
+            }
+            boolean[] notch = slots[i].notch;
+            int[] s = setting[i], m = move[i], left = move[i - 1];
+            for (int l = 0; l < lanes; l += 1) {
+                if (notch[s[l]]) {
+                    m[l] = 1;
+                    left[l] = 1;
+                }
+            }
+        }
+        for (int i = 1; i < n; i += 1) {
+            int[] s = setting[i], m = move[i];
+            int rotates = slots[i].rotates;
+            for (int l = 0; l < lanes; l += 1) {
+                int next = s[l] + (m[l] & rotates);
+                s[l] = next == size ? 0 : next;
+                m[l] = 0;
+            }
+        }
+    }
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** The plugboard, as a table. */
+    private final int[] _plug;
+
+    /** The ciphertext as alphabet indices, already through the
+     *  plugboard. */
+    private final int[] _input;
+
+    /** Tables of the available rotors, by name. */
+    private final HashMap<String, Compiled> _compiled;
+}
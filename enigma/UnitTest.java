@@ -16,7 +16,24 @@ public class UnitTest {
         }
         System.exit(textui.runClasses(PermutationTest.class,
                 MovingRotorTest.class,
-                MachineTest.class));
+                MachineTest.class,
+                EnigmaProcessorTest.class,
+                KeySearchTest.class,
+                CycleCatalogTest.class,
+                TableStoreTest.class,
+                MachineStateTest.class,
+                EncryptorCompilerTest.class,
+                SessionStoreTest.class,
+                RotorCatalogTest.class,
+                ParallelGzipOutputStreamTest.class,
+                CorpusStatsTest.class,
+                DepthFinderTest.class,
+                RecordCipherTest.class,
+                SpscRingTest.class,
+                PatcherTest.class,
+                KeySheetTest.class,
+                CribScannerTest.class,
+                LexerTest.class));
     }
 
 }
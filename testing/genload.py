@@ -0,0 +1,133 @@
+# Usage: python3 genload.py [options] CONF INPUT
+#     Writes a random machine configuration to CONF and a random input file
+#     for java enigma.Main to INPUT, for load and scaling tests.  Run with
+#     --help for the options.  Also usable as a module (see generate).
+
+import argparse, random, sys
+
+FORBIDDEN = set('()*[]^-\\ \t\r\n')
+
+def cycles(perm, alphabet):
+    """Cycle notation for PERM, a list mapping indices of ALPHABET."""
+    seen = [False] * len(perm)
+    out = []
+    for start in range(len(perm)):
+        if seen[start]:
+            continue
+        cyc = []
+        i = start
+        while not seen[i]:
+            seen[i] = True
+            cyc.append(alphabet[i])
+            i = perm[i]
+        out.append('(' + ''.join(cyc) + ')')
+    return ' '.join(out)
+
+def pairing(rnd, alphabet, npairs):
+    """Cycle notation for NPAIRS random disjoint swaps over ALPHABET."""
+    letters = list(alphabet)
+    rnd.shuffle(letters)
+    return ' '.join('(%s%s)' % (letters[2 * k], letters[2 * k + 1])
+                    for k in range(npairs))
+
+def make_config(rnd, alphabet, rotors, pawls, pool):
+    """Return (text, reflectors, fixed, moving) for a configuration with
+    ROTORS slots and PAWLS pawls whose rotor pool has POOL extra rotors
+    beyond the minimum needed to fill the slots."""
+    n = len(alphabet)
+    notchable = [c for c in alphabet if c.isalnum()]
+    nfixed = rotors - pawls - 1
+    nmoving = pawls + pool
+    lines = [alphabet, ' %d %d' % (rotors, pawls)]
+    refl, fixed, moving = ['R0', 'R1'], [], []
+    for k in range(nmoving):
+        perm = list(range(n))
+        rnd.shuffle(perm)
+        notches = ''.join(rnd.sample(notchable, min(2, len(notchable))))
+        moving.append('M%d' % k)
+        lines.append(' M%d M%s %s' % (k, notches, cycles(perm, alphabet)))
+    for k in range(nfixed + 1):
+        perm = list(range(n))
+        rnd.shuffle(perm)
+        fixed.append('F%d' % k)
+        lines.append(' F%d N %s' % (k, cycles(perm, alphabet)))
+    for name in refl:
+        lines.append(' %s R %s' % (name, pairing(rnd, alphabet, n // 2)))
+    return '\n'.join(lines) + '\n', refl, fixed, moving
+
+def settings_line(rnd, alphabet, rotors, pawls, refl, fixed, moving,
+                  plugs):
+    """A random settings line with PLUGS plugboard swaps."""
+    names = [rnd.choice(refl)]
+    names += rnd.sample(fixed, rotors - pawls - 1)
+    names += rnd.sample(moving, pawls)
+    setting = ''.join(rnd.choice(alphabet) for _ in range(rotors - 1))
+    line = '* ' + ' '.join(names) + ' ' + setting
+    if plugs > 0:
+        line += ' ' + pairing(rnd, alphabet, plugs)
+    return line
+
+def generate(conf, inp, alphabet='ABCDEFGHIJKLMNOPQRSTUVWXYZ', rotors=5,
+             pawls=3, pool=2, messages=100, lines=10, line_length=60,
+             plug_density=0.4, reuse=0.0, seed=0):
+    """Write a configuration to the file CONF and an input file to INP.
+    Return the number of message characters written."""
+    if FORBIDDEN & set(alphabet) or len(set(alphabet)) != len(alphabet):
+        raise ValueError('alphabet has duplicate or reserved characters')
+    if not 0 <= pawls < rotors or rotors < 2:
+        raise ValueError('need 0 <= pawls < rotors and rotors > 1')
+    rnd = random.Random(seed)
+    text, refl, fixed, moving = make_config(rnd, alphabet, rotors, pawls,
+                                            pool)
+    with open(conf, 'w') as out:
+        out.write(text)
+    plugs = int(plug_density * (len(alphabet) // 2))
+    used = []
+    chars = 0
+    with open(inp, 'w') as out:
+        for _ in range(messages):
+            if used and rnd.random() < reuse:
+                line = rnd.choice(used)
+            else:
+                line = settings_line(rnd, alphabet, rotors, pawls, refl,
+                                     fixed, moving, plugs)
+                used.append(line)
+            out.write(line + '\n')
+            for _ in range(lines):
+                msg = ''.join(rnd.choice(alphabet)
+                              for _ in range(line_length))
+                out.write(' '.join(msg[k:k + 5]
+                                   for k in range(0, len(msg), 5)) + '\n')
+                chars += len(msg)
+    return chars
+
+def parser():
+    p = argparse.ArgumentParser(description='Generate Enigma workloads.')
+    p.add_argument('conf')
+    p.add_argument('input')
+    p.add_argument('--alphabet', default='ABCDEFGHIJKLMNOPQRSTUVWXYZ')
+    p.add_argument('--rotors', type=int, default=5,
+                   help='number of rotor slots')
+    p.add_argument('--pawls', type=int, default=3)
+    p.add_argument('--pool', type=int, default=2,
+                   help='moving rotors beyond those needed to fill slots')
+    p.add_argument('--messages', type=int, default=100)
+    p.add_argument('--lines', type=int, default=10,
+                   help='lines per message')
+    p.add_argument('--line-length', type=int, default=60)
+    p.add_argument('--plug-density', type=float, default=0.4,
+                   help='fraction of letters paired on the plugboard')
+    p.add_argument('--reuse', type=float, default=0.0,
+                   help='probability a message reuses earlier settings')
+    p.add_argument('--seed', type=int, default=0)
+    return p
+
+if __name__ == '__main__':
+    a = parser().parse_args()
+    try:
+        n = generate(a.conf, a.input, a.alphabet, a.rotors, a.pawls, a.pool,
+                     a.messages, a.lines, a.line_length, a.plug_density,
+                     a.reuse, a.seed)
+    except ValueError as e:
+        sys.exit('genload: %s' % e)
+    print('%d message characters' % n)
@@ -0,0 +1,122 @@
+# Usage: python3 scaling.py [options]
+#     Generates workloads of increasing size with genload.py, runs each
+#     engine mode over them at each thread count, and reports throughput,
+#     garbage collection and peak resident set size.  The classes must
+#     already be compiled (make default); CLASSPATH is honored as in
+#     test-correct.  Run with --help for the options.
+
+import argparse, os, re, shlex, subprocess, sys, tempfile, time
+
+import genload
+
+DEFAULT_MODES = ['main=enigma.Main {conf} {input} {output}']
+
+GC_PAUSE = re.compile(r'\bPause\b.* ([0-9.]+)ms$')
+
+def gc_stats(log):
+    """Return (count, total milliseconds) of the GC pauses in LOG."""
+    count, total = 0, 0.0
+    with open(log) as inp:
+        for line in inp:
+            m = GC_PAUSE.search(line.rstrip())
+            if m:
+                count += 1
+                total += float(m.group(1))
+    return count, total
+
+def run(java, classpath, heap, mode, threads, files, work):
+    """Run MODE, a command template, with THREADS processors available.
+    Return (seconds, exit code, GC count, GC ms, peak RSS in KB)."""
+    gclog = os.path.join(work, 'gc.log')
+    cmd = [java, '-cp', classpath, '-Xmx' + heap,
+           '-XX:ActiveProcessorCount=%d' % threads,
+           '-Xlog:gc:file=%s' % gclog]
+    cmd += shlex.split(mode.format(threads=threads, **files))
+    # Standard error goes to a file rather than a pipe: a child that
+    # wrote more than a pipe buffer would otherwise block while we wait.
+    errlog = os.path.join(work, 'stderr.log')
+    with open(errlog, 'wb') as errout:
+        start = time.perf_counter()
+        proc = subprocess.Popen(cmd, stdout=subprocess.DEVNULL,
+                                stderr=errout)
+        _, status, usage = os.wait4(proc.pid, 0)
+        elapsed = time.perf_counter() - start
+    with open(errlog, errors='replace') as errin:
+        err = errin.read()
+    code = os.waitstatus_to_exitcode(status)
+    if code != 0:
+        sys.stderr.write('%s failed (%d): %s\n' % (' '.join(cmd), code,
+                                                   err.strip()))
+    ngc, gcms = gc_stats(gclog) if os.path.exists(gclog) else (0, 0.0)
+    return elapsed, code, ngc, gcms, usage.ru_maxrss
+
+def parser():
+    p = argparse.ArgumentParser(description='Enigma scaling report.')
+    p.add_argument('--sizes', default='100,1000,10000',
+                   help='comma-separated message counts')
+    p.add_argument('--threads', default='1,2,4',
+                   help='comma-separated processor counts')
+    p.add_argument('--mode', action='append', metavar='NAME=TEMPLATE',
+                   help='engine mode: main class and arguments, with '
+                   '{conf}, {input}, {output} and {threads} substituted '
+                   '(repeatable; default: %s)' % DEFAULT_MODES[0])
+    p.add_argument('--repeat', type=int, default=1,
+                   help='runs per point; the fastest is reported')
+    p.add_argument('--java', default='java')
+    p.add_argument('--heap', default='1g')
+    p.add_argument('--classpath',
+                   default=os.pathsep.join(
+                       [os.environ.get('CLASSPATH', ''), '..']))
+    p.add_argument('--csv', help='also write the results to this file')
+    p.add_argument('--keep', help='directory in which to keep workloads')
+    for name in ['alphabet', 'rotors', 'pawls', 'pool', 'lines',
+                 'line-length', 'plug-density', 'reuse', 'seed']:
+        default = genload.parser().get_default(name.replace('-', '_'))
+        p.add_argument('--' + name, type=type(default), default=default,
+                       help='passed to genload (default %s)' % default)
+    return p
+
+def main():
+    a = parser().parse_args()
+    modes = [m.split('=', 1) for m in (a.mode or DEFAULT_MODES)]
+    sizes = [int(s) for s in a.sizes.split(',')]
+    threads = [int(t) for t in a.threads.split(',')]
+    work = a.keep or tempfile.mkdtemp(prefix='enigma-scaling-')
+    os.makedirs(work, exist_ok=True)
+    header = ('mode', 'messages', 'chars', 'threads', 'seconds',
+              'Mchar/s', 'speedup', 'gc', 'gc_ms', 'rss_MB')
+    rows = []
+    print('%-10s %9s %11s %7s %8s %8s %7s %5s %8s %7s' % header)
+    for size in sizes:
+        files = {'conf': os.path.join(work, 'load%d.conf' % size),
+                 'input': os.path.join(work, 'load%d.in' % size),
+                 'output': os.path.join(work, 'load%d.out' % size)}
+        chars = genload.generate(files['conf'], files['input'],
+                                 a.alphabet, a.rotors, a.pawls, a.pool,
+                                 size, a.lines, a.line_length,
+                                 a.plug_density, a.reuse, a.seed)
+        for name, template in modes:
+            base = None
+            for t in threads:
+                best = None
+                for _ in range(a.repeat):
+                    r = run(a.java, a.classpath, a.heap, template, t,
+                            files, work)
+                    if best is None or r[0] < best[0]:
+                        best = r
+                secs, code, ngc, gcms, rss = best
+                if base is None:
+                    base = secs
+                row = (name, size, chars, t, secs, chars / secs / 1e6,
+                       base / secs, ngc, gcms, rss / 1024.0)
+                rows.append(row)
+                print('%-10s %9d %11d %7d %8.3f %8.3f %7.2f %5d %8.1f '
+                      '%7.1f%s' % (row + (' FAILED' if code else '',)))
+    if a.csv:
+        with open(a.csv, 'w') as out:
+            out.write(','.join(header) + '\n')
+            for row in rows:
+                out.write(','.join(str(v) for v in row) + '\n')
+
+if __name__ == '__main__':
+    main()